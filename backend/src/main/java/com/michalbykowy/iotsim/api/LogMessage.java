@@ -29,7 +29,20 @@ public class LogMessage {
      * @param message    The formatted text content of the log message.
      */
     public LogMessage(LogLevel level, String loggerName, String message) {
-        this.timestamp = Instant.now().toString();
+        this(Instant.now(), level, loggerName, message);
+    }
+
+    /**
+     * Constructs a new LogMessage for an event that happened at {@code time}, e.g. when it is
+     * broadcast some time after it was logged.
+     *
+     * @param time       The moment the event was logged.
+     * @param level      The severity level of the log (e.g., INFO, ERROR).
+     * @param loggerName The name of the logger source (usually the class name).
+     * @param message    The formatted text content of the log message.
+     */
+    public LogMessage(Instant time, LogLevel level, String loggerName, String message) {
+        this.timestamp = time.toString();
         this.level = level;
         this.loggerName = loggerName;
         this.message = message;
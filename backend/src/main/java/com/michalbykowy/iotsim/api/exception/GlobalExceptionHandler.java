@@ -4,6 +4,7 @@ import com.michalbykowy.iotsim.api.ErrorResponse;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -67,6 +68,29 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(errorResponse, HttpStatus.BAD_REQUEST);
     }
 
+    /**
+     * Handles writes that kept losing to concurrent updates of the same data.
+     * Maps the exception to an HTTP 409 Conflict response, as the request may succeed when repeated.
+     *
+     * @param ex      The thrown {@link OptimisticLockingFailureException}.
+     * @param request The HTTP request during which the exception occurred.
+     * @return A {@link ResponseEntity} containing the error details and HTTP 409 status.
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<ErrorResponse> handleOptimisticLockingFailureException(
+            OptimisticLockingFailureException ex, HttpServletRequest request) {
+
+        logger.warn("Concurrent update conflict for request: {}", request.getRequestURI(), ex);
+
+        ErrorResponse errorResponse = new ErrorResponse(
+                HttpStatus.CONFLICT.value(),
+                "The resource was changed concurrently. Please retry the request.",
+                request.getRequestURI(),
+                Instant.now()
+        );
+        return new ResponseEntity<>(errorResponse, HttpStatus.CONFLICT);
+    }
+
     /**
      * Fallback handler for all unexpected or unhandled exceptions.
      * <p>
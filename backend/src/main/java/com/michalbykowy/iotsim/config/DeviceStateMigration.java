@@ -0,0 +1,80 @@
+package com.michalbykowy.iotsim.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Moves telemetry state written before it got its own table from the legacy {@code device} columns
+ * into {@code device_state}. Only devices without a state row are copied, so running it again is a no-op.
+ * The legacy columns are dropped afterwards, so they no longer hold a stale second copy of the state.
+ * State rows written before they were versioned start at version 0.
+ */
+@Component
+public class DeviceStateMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceStateMigration.class);
+
+    private static final String COPY_LEGACY_STATE = """
+            INSERT INTO device_state (device_id, current_state, online, version)
+            SELECT d.id, d.current_state, d.online, 0 FROM device d
+            WHERE NOT EXISTS (SELECT 1 FROM device_state s WHERE s.device_id = d.id)
+            """;
+
+    private static final String VERSION_UNVERSIONED_STATE = "UPDATE device_state SET version = 0 WHERE version IS NULL";
+
+    // current_state goes first: while it exists the copy runs, and the copy also reads online
+    private static final List<String> LEGACY_COLUMNS = List.of("current_state", "online");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // the entity manager factory is only injected so the schema update has run before the copy
+    public DeviceStateMigration(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void migrate() {
+        Integer versioned = transactionTemplate.execute(status -> jdbcTemplate.update(VERSION_UNVERSIONED_STATE));
+        if (versioned != null && versioned > 0) {
+            logger.info("Started versioning the state of {} devices", versioned);
+        }
+        if (hasLegacyColumn(LEGACY_COLUMNS.getFirst())) {
+            Integer copied = transactionTemplate.execute(status -> jdbcTemplate.update(COPY_LEGACY_STATE));
+            if (copied != null && copied > 0) {
+                logger.info("Moved the state of {} devices into device_state", copied);
+            }
+        }
+        for (String column : LEGACY_COLUMNS) {
+            if (hasLegacyColumn(column)) {
+                jdbcTemplate.execute("ALTER TABLE device DROP COLUMN " + column);
+                logger.info("Dropped legacy column device.{}", column);
+            }
+        }
+    }
+
+    private boolean hasLegacyColumn(String column) {
+        return Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            boolean upperCase = metaData.storesUpperCaseIdentifiers();
+            try (ResultSet columns = metaData.getColumns(null, null,
+                    upperCase ? "DEVICE" : "device", upperCase ? column.toUpperCase(Locale.ROOT) : column)) {
+                return columns.next();
+            }
+        }));
+    }
+}
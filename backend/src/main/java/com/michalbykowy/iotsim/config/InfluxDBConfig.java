@@ -5,13 +5,17 @@ import com.influxdb.client.InfluxDBClientFactory;
 import com.influxdb.client.WriteApi;
 import com.influxdb.client.WriteOptions;
 import com.influxdb.client.write.events.WriteErrorEvent;
+import com.michalbykowy.iotsim.service.spool.SpoolingWriteApi;
+import com.michalbykowy.iotsim.service.spool.WriteSpool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
+@ConditionalOnProperty(name = "timeseries.store", havingValue = "influx", matchIfMissing = true)
 public class InfluxDBConfig {
 
     private static final Logger logger = LoggerFactory.getLogger(InfluxDBConfig.class);
@@ -39,7 +43,7 @@ public class InfluxDBConfig {
     }
 
     @Bean
-    public WriteApi writeApi(InfluxDBClient influxDBClient) {
+    public WriteApi writeApi(InfluxDBClient influxDBClient, WriteSpool writeSpool) {
         WriteOptions options = WriteOptions.builder()
                 .batchSize(1000)
                 .flushInterval(1000)
@@ -50,13 +54,10 @@ public class InfluxDBConfig {
 
         WriteApi writeApi = influxDBClient.makeWriteApi(options);
 
-        writeApi.listenEvents(WriteErrorEvent.class, event -> {
-            System.err.println("!!! INFLUX WRITE ERROR !!! " + event.getThrowable().getMessage());
-            if (event.getThrowable().getCause() != null) {
-                System.err.println("Cause: " + event.getThrowable().getCause().getMessage());
-            }
-        });
+        writeApi.listenEvents(WriteErrorEvent.class, event ->
+                logger.error("InfluxDB write failed: {}", event.getThrowable().getMessage(), event.getThrowable()));
 
-        return writeApi;
+        // takes over from the in-memory buffer while InfluxDB is unavailable
+        return new SpoolingWriteApi(writeApi, writeSpool);
     }
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package com.michalbykowy.iotsim.config;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Per-logger sampling and rate limiting for the streamed logs.
+ * <p>
+ * Rules are given as comma separated {@code loggerPrefix:value} pairs; the longest matching prefix
+ * wins. Sampling values are keep ratios between 0 and 1, rate limits are events per second shared
+ * by all loggers under the prefix.
+ * </p>
+ */
+final class LogThrottle {
+
+    enum Decision { ACCEPT, SAMPLED_OUT, RATE_LIMITED }
+
+    private record SamplingRule(String prefix, double keepRatio) {}
+
+    private static final class RateLimitRule {
+        private final String prefix;
+        private final long perSecond;
+        // upper 32 bits: epoch second of the current window, lower 32 bits: events counted in it
+        private final AtomicLong window = new AtomicLong();
+
+        private RateLimitRule(String prefix, long perSecond) {
+            this.prefix = prefix;
+            this.perSecond = perSecond;
+        }
+
+        boolean tryAcquire(long timestampMillis) {
+            long second = timestampMillis / 1000;
+            while (true) {
+                long current = window.get();
+                long count = current >>> 32 == (second & 0xFFFFFFFFL) ? current & 0xFFFFFFFFL : 0;
+                if (count >= perSecond) {
+                    return false;
+                }
+                long next = (second << 32) | (count + 1);
+                if (window.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private final List<SamplingRule> samplingRules;
+    private final List<RateLimitRule> rateLimitRules;
+    private final Map<String, Optional<SamplingRule>> samplingByLogger = new ConcurrentHashMap<>();
+    private final Map<String, Optional<RateLimitRule>> rateLimitByLogger = new ConcurrentHashMap<>();
+
+    LogThrottle(String sampling, String rateLimits) {
+        this.samplingRules = parse(sampling, (prefix, value) -> {
+            double keepRatio = Double.parseDouble(value);
+            if (keepRatio < 0 || keepRatio > 1) {
+                throw new IllegalArgumentException("Sampling ratio must be between 0 and 1: " + prefix);
+            }
+            return new SamplingRule(prefix, keepRatio);
+        }, SamplingRule::prefix);
+        this.rateLimitRules = parse(rateLimits, (prefix, value) -> {
+            long perSecond = Long.parseLong(value);
+            if (perSecond < 0) {
+                throw new IllegalArgumentException("Rate limit must not be negative: " + prefix);
+            }
+            return new RateLimitRule(prefix, perSecond);
+        }, rule -> rule.prefix);
+    }
+
+    Decision decide(String loggerName, long timestampMillis) {
+        SamplingRule samplingRule = samplingByLogger
+                .computeIfAbsent(loggerName, name -> longestMatch(samplingRules, name, SamplingRule::prefix))
+                .orElse(null);
+        if (samplingRule != null && ThreadLocalRandom.current().nextDouble() >= samplingRule.keepRatio()) {
+            return Decision.SAMPLED_OUT;
+        }
+
+        RateLimitRule rateLimitRule = rateLimitByLogger
+                .computeIfAbsent(loggerName, name -> longestMatch(rateLimitRules, name, rule -> rule.prefix))
+                .orElse(null);
+        if (rateLimitRule != null && !rateLimitRule.tryAcquire(timestampMillis)) {
+            return Decision.RATE_LIMITED;
+        }
+        return Decision.ACCEPT;
+    }
+
+    private static <R> Optional<R> longestMatch(List<R> rules, String loggerName, Function<R, String> prefix) {
+        // rules are sorted longest prefix first
+        for (R rule : rules) {
+            if (loggerName.startsWith(prefix.apply(rule))) {
+                return Optional.of(rule);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private interface RuleParser<R> {
+        R parse(String prefix, String value);
+    }
+
+    private static <R> List<R> parse(String spec, RuleParser<R> parser, Function<R, String> prefix) {
+        List<R> rules = new ArrayList<>();
+        if (spec == null || spec.isBlank()) {
+            return rules;
+        }
+        for (String entry : spec.split(",")) {
+            String trimmed = entry.trim();
+            int separator = trimmed.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected loggerPrefix:value but got: " + trimmed);
+            }
+            rules.add(parser.parse(trimmed.substring(0, separator).trim(), trimmed.substring(separator + 1).trim()));
+        }
+        rules.sort(Comparator.comparingInt((R rule) -> prefix.apply(rule).length()).reversed());
+        return rules;
+    }
+}
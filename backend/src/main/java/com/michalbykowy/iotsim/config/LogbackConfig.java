@@ -2,34 +2,56 @@ package com.michalbykowy.iotsim.config;
 
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
-import com.influxdb.client.WriteApi;
+import com.michalbykowy.iotsim.service.logs.LogStreamBroadcaster;
+import com.michalbykowy.iotsim.service.store.TimeSeriesStore;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
 @Component
 public class LogbackConfig {
 
-    private final SimpMessagingTemplate messagingTemplate;
-    private final WriteApi writeApi;
-    private final String bucket;
+    private final LogStreamBroadcaster logStreamBroadcaster;
+    private final TimeSeriesStore timeSeriesStore;
+    private final MeterRegistry meterRegistry;
+    private final int bufferSize;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final String sampling;
+    private final String rateLimits;
+
+    private MultiTargetLogAppender appender;
 
     public LogbackConfig(
-            SimpMessagingTemplate messagingTemplate,
-            WriteApi writeApi,
-            @Value("${influx.bucket}") String bucket) {
-        this.messagingTemplate = messagingTemplate;
-        this.writeApi = writeApi;
-        this.bucket = bucket;
+            LogStreamBroadcaster logStreamBroadcaster,
+            TimeSeriesStore timeSeriesStore,
+            MeterRegistry meterRegistry,
+            @Value("${logs.appender.buffer-size}") int bufferSize,
+            @Value("${logs.appender.batch-size}") int batchSize,
+            @Value("${logs.appender.flush-interval-ms}") long flushIntervalMs,
+            @Value("${logs.appender.sampling:}") String sampling,
+            @Value("${logs.appender.rate-limits:}") String rateLimits) {
+        this.logStreamBroadcaster = logStreamBroadcaster;
+        this.timeSeriesStore = timeSeriesStore;
+        this.meterRegistry = meterRegistry;
+        this.bufferSize = bufferSize;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.sampling = sampling;
+        this.rateLimits = rateLimits;
     }
 
     @PostConstruct
     public void registerAppender() {
         LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
 
-        MultiTargetLogAppender appender = new MultiTargetLogAppender(messagingTemplate, writeApi, bucket);
+        appender = new MultiTargetLogAppender(logStreamBroadcaster, timeSeriesStore,
+                bufferSize, batchSize, Duration.ofMillis(flushIntervalMs), sampling, rateLimits, meterRegistry);
         appender.setName("CUSTOM_MULTI_TARGET");
         appender.setContext(loggerContext);
         appender.start();
@@ -37,4 +59,14 @@ public class LogbackConfig {
         Logger rootLogger = loggerContext.getLogger(Logger.ROOT_LOGGER_NAME);
         rootLogger.addAppender(appender);
     }
-}
\ No newline at end of file
+
+    @PreDestroy
+    public void unregisterAppender() {
+        if (appender == null) {
+            return;
+        }
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        loggerContext.getLogger(Logger.ROOT_LOGGER_NAME).detachAppender(appender);
+        appender.stop();
+    }
+}
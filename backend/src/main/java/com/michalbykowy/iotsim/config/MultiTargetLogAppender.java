@@ -1,34 +1,103 @@
 package com.michalbykowy.iotsim.config;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.AppenderBase;
-import com.influxdb.client.WriteApi;
-import com.influxdb.client.domain.WritePrecision;
-import com.influxdb.client.write.Point;
 import com.michalbykowy.iotsim.api.LogMessage;
+import com.michalbykowy.iotsim.dto.LogEntry;
 import com.michalbykowy.iotsim.model.LogLevel;
-import com.michalbykowy.iotsim.model.Measurement;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import com.michalbykowy.iotsim.service.logs.LogStreamBroadcaster;
+import com.michalbykowy.iotsim.service.store.TimeSeriesStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Streams application logs to {@code /topic/logs} and the time series store without making the
+ * logging thread pay for either.
+ * <p>
+ * {@link #append} only applies sampling and rate limits and puts the event into a lock-free ring;
+ * a single drain thread hands each batch to the {@link LogStreamBroadcaster}, which sends it as one
+ * filtered WebSocket frame per subscriber (a JSON array of {@link LogMessage}), and to one store
+ * write. Events that do not fit into the ring are dropped and counted. WARN and ERROR events are
+ * never sampled or rate limited.
+ * </p>
+ */
 public class MultiTargetLogAppender extends AppenderBase<ILoggingEvent> {
 
-    private final SimpMessagingTemplate messagingTemplate;
-    private final WriteApi writeApi;
-    private final String bucket;
+    private static final Duration STOP_TIMEOUT = Duration.ofSeconds(5);
 
-    private final ThreadLocal<Boolean> reentrancyGuard = ThreadLocal.withInitial(() -> false);
+    private final LogStreamBroadcaster broadcaster;
+    private final TimeSeriesStore timeSeriesStore;
+    private final LogThrottle throttle;
+    private final LogEventRing<LogEntry> ring;
+    private final int batchSize;
+    private final long flushIntervalNanos;
 
-    public MultiTargetLogAppender(SimpMessagingTemplate messagingTemplate, WriteApi writeApi, String bucket) {
-        this.messagingTemplate = messagingTemplate;
-        this.writeApi = writeApi;
-        this.bucket = bucket;
+    private final Counter acceptedCounter;
+    private final Counter sampledCounter;
+    private final Counter rateLimitedCounter;
+    private final Counter overflowCounter;
+
+    private volatile boolean draining;
+    private Thread drainThread;
+
+    public MultiTargetLogAppender(LogStreamBroadcaster broadcaster,
+                                  TimeSeriesStore timeSeriesStore,
+                                  int bufferSize,
+                                  int batchSize,
+                                  Duration flushInterval,
+                                  String sampling,
+                                  String rateLimits,
+                                  MeterRegistry meterRegistry) {
+        this.broadcaster = broadcaster;
+        this.timeSeriesStore = timeSeriesStore;
+        this.throttle = new LogThrottle(sampling, rateLimits);
+        this.ring = new LogEventRing<>(bufferSize);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+
+        this.acceptedCounter = meterRegistry.counter("logs.appender.events", "outcome", "accepted");
+        this.sampledCounter = meterRegistry.counter("logs.appender.events", "outcome", "sampled");
+        this.rateLimitedCounter = meterRegistry.counter("logs.appender.events", "outcome", "rate_limited");
+        this.overflowCounter = meterRegistry.counter("logs.appender.events", "outcome", "overflow");
+        Gauge.builder("logs.appender.pending", ring, LogEventRing::size).register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        draining = true;
+        drainThread = Thread.ofPlatform()
+                .name("log-appender-drain")
+                .daemon()
+                .start(this::drain);
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        draining = false;
+        if (drainThread != null) {
+            LockSupport.unpark(drainThread);
+            try {
+                drainThread.join(STOP_TIMEOUT.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     @Override
     protected void append(ILoggingEvent event) {
-        if (reentrancyGuard.get()) {
+        // whatever the drain thread logs (store or broker failures) must not feed back into the ring
+        if (Thread.currentThread() == drainThread) {
             return;
         }
 
@@ -39,46 +108,73 @@ public class MultiTargetLogAppender extends AppenderBase<ILoggingEvent> {
             return;
         }
 
+        if (!event.getLevel().isGreaterOrEqual(Level.WARN)) {
+            LogThrottle.Decision decision = throttle.decide(loggerName, event.getTimeStamp());
+            if (decision == LogThrottle.Decision.SAMPLED_OUT) {
+                sampledCounter.increment();
+                return;
+            }
+            if (decision == LogThrottle.Decision.RATE_LIMITED) {
+                rateLimitedCounter.increment();
+                return;
+            }
+        }
+
+        LogLevel applicationLogLevel;
         try {
-            reentrancyGuard.set(true);
+            applicationLogLevel = LogLevel.valueOf(event.getLevel().toString());
+        } catch (IllegalArgumentException e) {
+            applicationLogLevel = LogLevel.INFO;
+        }
 
-            LogLevel applicationLogLevel;
-            try {
-                applicationLogLevel = LogLevel.valueOf(event.getLevel().toString());
-            } catch (IllegalArgumentException e) {
-                applicationLogLevel = LogLevel.INFO;
-            }
+        LogEntry entry = new LogEntry(
+                Instant.ofEpochMilli(event.getTimeStamp()),
+                applicationLogLevel,
+                loggerName,
+                event.getFormattedMessage()
+        );
+        if (ring.offer(entry)) {
+            acceptedCounter.increment();
+        } else {
+            overflowCounter.increment();
+        }
+    }
 
-            if (messagingTemplate != null) {
-                try {
-                    LogMessage logMessage = new LogMessage(
-                            applicationLogLevel,
-                            event.getLoggerName(),
-                            event.getFormattedMessage()
-                    );
-                    messagingTemplate.convertAndSend("/topic/logs", logMessage);
-                } catch (Exception e) {
-                    // Swallow to prevent recursion
-                }
+    private void drain() {
+        List<LogEntry> batch = new ArrayList<>(batchSize);
+        while (draining || ring.size() > 0) {
+            int drained = ring.drainTo(batch, batchSize);
+            if (drained > 0) {
+                publish(batch);
+                batch.clear();
             }
+            if (drained < batchSize && draining) {
+                // waiting instead of waking up per event is what groups events into batches
+                LockSupport.parkNanos(flushIntervalNanos);
+            }
+        }
+    }
 
-            if (writeApi != null && bucket != null) {
-                try {
-                    Point point = Point.measurement(Measurement.SYSTEM_LOGS.getValue())
-                            .addTag("level", applicationLogLevel.name())
-                            .addTag("loggerName", event.getLoggerName())
-                            .addField("message", event.getFormattedMessage())
-                            .time(Instant.ofEpochMilli(event.getTimeStamp()), WritePrecision.MS);
-
-                    writeApi.writePoint(point);
-                } catch (Exception e) {
-                    // Only log to stderr on failure to avoid log loop
-                    System.err.println("InfluxDB Append Error: " + e.getMessage());
+    private void publish(List<LogEntry> batch) {
+        if (broadcaster != null) {
+            try {
+                List<LogMessage> frame = new ArrayList<>(batch.size());
+                for (LogEntry entry : batch) {
+                    frame.add(new LogMessage(entry.time(), entry.level(), entry.loggerName(), entry.message()));
                 }
+                broadcaster.broadcast(frame);
+            } catch (Exception e) {
+                // Swallow to prevent recursion
             }
+        }
 
-        } finally {
-            reentrancyGuard.remove();
+        if (timeSeriesStore != null) {
+            try {
+                timeSeriesStore.writeLogEntries(List.copyOf(batch));
+            } catch (Exception e) {
+                // Only log to stderr on failure to avoid log loop
+                System.err.println("Log Store Append Error: " + e.getMessage());
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package com.michalbykowy.iotsim.config;
+
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator.OverflowStrategy;
+
+/**
+ * What happens to a WebSocket session whose send buffer outgrows {@code websocket.send-buffer-size-bytes}.
+ */
+public enum SlowConsumerPolicy {
+    /** Discards the oldest buffered messages and keeps the session open. */
+    DROP(OverflowStrategy.DROP),
+    /** Closes the session; the client reconnects and resyncs from a snapshot. */
+    DISCONNECT(OverflowStrategy.TERMINATE);
+
+    private final OverflowStrategy overflowStrategy;
+
+    SlowConsumerPolicy(OverflowStrategy overflowStrategy) {
+        this.overflowStrategy = overflowStrategy;
+    }
+
+    OverflowStrategy overflowStrategy() {
+        return overflowStrategy;
+    }
+}
@@ -0,0 +1,74 @@
+package com.michalbykowy.iotsim.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * STOMP WebSocket handler that applies the {@link SlowConsumerPolicy} to every session and exposes
+ * its send backlog as metrics.
+ * <p>
+ * While one outbound thread writes to a slow client, messages for that client from other threads are
+ * buffered instead of blocking them, so at most one thread waits on any client and the others keep
+ * serving healthy sessions. The policy decides what happens once the buffer exceeds the send buffer
+ * size limit; a single write that exceeds the send time limit always closes the session.
+ * </p>
+ */
+class SlowConsumerWebSocketHandler extends SubProtocolWebSocketHandler {
+
+    private final SlowConsumerPolicy policy;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, List<Meter>> sessionMeters = new ConcurrentHashMap<>();
+    private final Counter slowConsumerDisconnects;
+
+    SlowConsumerWebSocketHandler(MessageChannel clientInboundChannel, SubscribableChannel clientOutboundChannel,
+                                 SlowConsumerPolicy policy, MeterRegistry meterRegistry) {
+        super(clientInboundChannel, clientOutboundChannel);
+        this.policy = policy;
+        this.meterRegistry = meterRegistry;
+        this.slowConsumerDisconnects = Counter.builder("websocket.slow.consumers.disconnected").register(meterRegistry);
+    }
+
+    @Override
+    protected WebSocketSession decorateSession(WebSocketSession session) {
+        ConcurrentWebSocketSessionDecorator decorated = new ConcurrentWebSocketSessionDecorator(
+                session, getSendTimeLimit(), getSendBufferSizeLimit(), policy.overflowStrategy());
+        sessionMeters.put(session.getId(), List.of(
+                Gauge.builder("websocket.session.send.buffer", decorated, ConcurrentWebSocketSessionDecorator::getBufferSize)
+                        .tag("session", session.getId())
+                        .baseUnit("bytes")
+                        .register(meterRegistry),
+                Gauge.builder("websocket.session.send.time", decorated, ConcurrentWebSocketSessionDecorator::getTimeSinceSendStarted)
+                        .tag("session", session.getId())
+                        .baseUnit("milliseconds")
+                        .register(meterRegistry)));
+        return decorated;
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+        try {
+            super.afterConnectionClosed(session, closeStatus);
+        } finally {
+            List<Meter> meters = sessionMeters.remove(session.getId());
+            if (meters != null) {
+                meters.forEach(meterRegistry::remove);
+            }
+            // the status the handler closes sessions with once they exceed a send limit
+            if (CloseStatus.SESSION_NOT_RELIABLE.equals(closeStatus)) {
+                slowConsumerDisconnects.increment();
+            }
+        }
+    }
+}
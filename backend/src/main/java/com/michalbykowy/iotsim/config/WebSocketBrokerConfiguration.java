@@ -0,0 +1,36 @@
+package com.michalbykowy.iotsim.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+
+/**
+ * The STOMP broker infrastructure, as {@code @EnableWebSocketMessageBroker} would import it, except that
+ * sessions are served by a {@link SlowConsumerWebSocketHandler}. Everything else is configured in
+ * {@link WebSocketConfig}.
+ */
+@Configuration(proxyBeanMethods = false)
+public class WebSocketBrokerConfiguration extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final MeterRegistry meterRegistry;
+
+    public WebSocketBrokerConfiguration(@Value("${websocket.slow-consumer-policy}") SlowConsumerPolicy slowConsumerPolicy,
+                                        MeterRegistry meterRegistry) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Bean
+    @Override
+    public WebSocketHandler subProtocolWebSocketHandler(
+            @Qualifier("clientInboundChannel") AbstractSubscribableChannel clientInboundChannel,
+            @Qualifier("clientOutboundChannel") AbstractSubscribableChannel clientOutboundChannel) {
+        return new SlowConsumerWebSocketHandler(clientInboundChannel, clientOutboundChannel, slowConsumerPolicy, meterRegistry);
+    }
+}
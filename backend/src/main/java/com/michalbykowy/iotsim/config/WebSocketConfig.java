@@ -1,20 +1,53 @@
 package com.michalbykowy.iotsim.config;
 
+import com.michalbykowy.iotsim.service.devices.DestinationSubscriptions;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
+/**
+ * STOMP endpoint, broker and channel settings; the broker infrastructure itself is set up by
+ * {@link WebSocketBrokerConfiguration}.
+ */
 @Configuration
-@EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private static final long HEARTBEAT_INTERVAL_MS = 10000;
 
+    private final int inboundPoolSize;
+    private final int outboundPoolSize;
+    private final boolean virtualThreads;
+    private final int sendBufferSizeBytes;
+    private final int sendTimeLimitMs;
+
+    public WebSocketConfig(@Value("${websocket.inbound.pool-size}") int inboundPoolSize,
+                           @Value("${websocket.outbound.pool-size}") int outboundPoolSize,
+                           @Value("${websocket.virtual-threads}") boolean virtualThreads,
+                           @Value("${websocket.send-buffer-size-bytes}") int sendBufferSizeBytes,
+                           @Value("${websocket.send-time-limit-ms}") int sendTimeLimitMs) {
+        this.inboundPoolSize = inboundPoolSize;
+        this.outboundPoolSize = outboundPoolSize;
+        this.virtualThreads = virtualThreads;
+        this.sendBufferSizeBytes = sendBufferSizeBytes;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         config.enableSimpleBroker("/topic")
@@ -22,6 +55,48 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .setTaskScheduler(heartbeatScheduler());
 
         config.setApplicationDestinationPrefixes("/app");
+        // device deltas are versioned, so messages must reach a session in the order they were sent
+        config.setPreservePublishOrder(true);
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        configureExecutor(registration, inboundPoolSize, "ws-inbound-");
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        configureExecutor(registration, outboundPoolSize, "ws-outbound-");
+    }
+
+    private void configureExecutor(ChannelRegistration registration, int poolSize, String threadNamePrefix) {
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor(threadNamePrefix));
+        } else {
+            registration.taskExecutor().corePoolSize(poolSize).maxPoolSize(poolSize);
+        }
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendBufferSizeLimit(sendBufferSizeBytes)
+                .setSendTimeLimit(sendTimeLimitMs);
+    }
+
+    /**
+     * Subscriber lookup backed by the simple broker's own subscription registry, which caches
+     * the matches per destination.
+     */
+    @Bean
+    public DestinationSubscriptions destinationSubscriptions(
+            @Qualifier("simpleBrokerMessageHandler") AbstractBrokerMessageHandler brokerMessageHandler) {
+        SubscriptionRegistry registry = ((SimpleBrokerMessageHandler) brokerMessageHandler).getSubscriptionRegistry();
+        return destination -> {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setDestination(destination);
+            Message<byte[]> probe = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+            return !registry.findSubscriptions(probe).isEmpty();
+        };
     }
 
     // Do zarządzania wątkami heartbeat
@@ -1,19 +1,38 @@
 package com.michalbykowy.iotsim.controller;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.michalbykowy.iotsim.dto.DeviceChangesResponse;
+import com.michalbykowy.iotsim.dto.DeviceFilter;
+import com.michalbykowy.iotsim.dto.DevicePageResponse;
 import com.michalbykowy.iotsim.dto.DeviceRequest;
 import com.michalbykowy.iotsim.dto.DeviceResponse;
+import com.michalbykowy.iotsim.dto.DeviceSearchQuery;
+import com.michalbykowy.iotsim.dto.DeviceSearchResponse;
+import com.michalbykowy.iotsim.dto.DownsamplingRequest;
+import com.michalbykowy.iotsim.dto.FieldValueQuery;
+import com.michalbykowy.iotsim.dto.FieldValuesResponse;
+import com.michalbykowy.iotsim.dto.FleetStatsResponse;
+import com.michalbykowy.iotsim.dto.HistoryQueryRequest;
 import com.michalbykowy.iotsim.dto.RuleRequest;
 import com.michalbykowy.iotsim.dto.RuleResponse;
 import com.michalbykowy.iotsim.dto.SimulationRequest;
 import com.michalbykowy.iotsim.dto.UpdateDeviceRequest;
 import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceType;
+import com.michalbykowy.iotsim.model.DownsampleMode;
+import com.michalbykowy.iotsim.model.LogLevel;
 import com.michalbykowy.iotsim.model.Rule;
 import com.michalbykowy.iotsim.service.DeviceService;
 import com.michalbykowy.iotsim.service.RuleService;
 import com.michalbykowy.iotsim.service.TimeSeriesService;
+import com.michalbykowy.iotsim.service.store.LogQuery;
 import jakarta.validation.Valid;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -21,12 +40,17 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,13 +65,16 @@ public class ApiController {
     private final DeviceService deviceService;
     private final RuleService ruleService;
     private final TimeSeriesService timeSeriesService;
+    private final ObjectMapper objectMapper;
 
     public ApiController(DeviceService deviceService,
                          RuleService ruleService,
-                         TimeSeriesService timeSeriesService) {
+                         TimeSeriesService timeSeriesService,
+                         ObjectMapper objectMapper) {
         this.deviceService = deviceService;
         this.ruleService = ruleService;
         this.timeSeriesService = timeSeriesService;
+        this.objectMapper = objectMapper;
     }
 
     private DeviceResponse mapToDto(Device device) {
@@ -95,12 +122,80 @@ public class ApiController {
         return ResponseEntity.noContent().build();
     }
 
+    /**
+     * Devices ordered by id, one page at a time: pass the {@code nextCursor} of a page as
+     * {@code cursor} to get the next one. {@code fields} limits every device to the listed fields.
+     * Answers 304 when nothing the listing shows was written since the {@code If-None-Match} tag.
+     */
     @GetMapping("/devices")
-    public ResponseEntity<List<DeviceResponse>> getAllDevices() {
-        List<DeviceResponse> response = deviceService.getAllDevices().stream()
-                .map(this::mapToDto)
-                .toList();
-        return ResponseEntity.ok(response);
+    public ResponseEntity<DevicePageResponse> getDevices(
+            @RequestParam(name = "type", required = false) DeviceType type,
+            @RequestParam(name = "role", required = false) DeviceRole role,
+            @RequestParam(name = "online", required = false) Boolean online,
+            @RequestParam(name = "simulationActive", required = false) Boolean simulationActive,
+            @RequestParam(name = "namePrefix", required = false) String namePrefix,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "limit", defaultValue = "100") int limit,
+            @RequestParam(name = "fields", required = false) List<String> fields,
+            WebRequest webRequest) {
+        String tag = deviceService.getDeviceListTag(fields);
+        if (webRequest.checkNotModified(tag)) {
+            return null;
+        }
+        DeviceFilter filter = new DeviceFilter(type, role, online, simulationActive, namePrefix);
+        return ResponseEntity.ok()
+                .eTag(tag)
+                .body(deviceService.getDevicePage(filter, cursor, limit, fields));
+    }
+
+    /**
+     * Devices whose name has words starting with the words of {@code q} and that match the other
+     * criteria, searched in memory. {@code field} may be repeated; all listed sensor fields must be reported.
+     */
+    @GetMapping("/devices/search")
+    public DeviceSearchResponse searchDevices(
+            @RequestParam(name = "q", required = false) String text,
+            @RequestParam(name = "type", required = false) DeviceType type,
+            @RequestParam(name = "role", required = false) DeviceRole role,
+            @RequestParam(name = "online", required = false) Boolean online,
+            @RequestParam(name = "simulationActive", required = false) Boolean simulationActive,
+            @RequestParam(name = "field", required = false) Set<String> fields,
+            @RequestParam(name = "limit", defaultValue = "50") int limit) {
+        return deviceService.searchDevices(new DeviceSearchQuery(text, type, role, online, simulationActive, fields, limit));
+    }
+
+    /**
+     * Device changes after {@code since} for a reconnecting client; without a replayable
+     * {@code epoch} and {@code since} the response is a full snapshot.
+     */
+    @GetMapping("/devices/changes")
+    public DeviceChangesResponse getDeviceChanges(@RequestParam(required = false) String epoch,
+                                                  @RequestParam(defaultValue = "0") long since) {
+        return deviceService.getChangesSince(epoch, since);
+    }
+
+    /**
+     * Fleet overview counts and per-field aggregates; the same object is pushed to
+     * {@code /topic/fleet/stats} while it changes.
+     */
+    @GetMapping("/fleet/stats")
+    public FleetStatsResponse getFleetStats() {
+        return deviceService.getFleetStats();
+    }
+
+    /**
+     * Devices whose latest {@code field} value lies within {@code min} and {@code max} (both inclusive
+     * and optional), ordered by that value. {@code order=desc} without bounds gives the top {@code limit}.
+     */
+    @GetMapping("/fields/{field}/devices")
+    public FieldValuesResponse getDevicesByFieldValue(
+            @PathVariable String field,
+            @RequestParam(required = false) Double min,
+            @RequestParam(required = false) Double max,
+            @RequestParam(defaultValue = "asc") String order,
+            @RequestParam(defaultValue = "50") int limit) {
+        return deviceService.getDevicesByFieldValue(new FieldValueQuery(field, min, max,
+                Sort.Direction.fromString(order), limit));
     }
 
     @PostMapping("/events")
@@ -145,19 +240,46 @@ public class ApiController {
         return ResponseEntity.ok(mapToDto(device));
     }
 
-    @GetMapping("/devices/{deviceId}/history")
-    public ResponseEntity<List<Map<String, Object>>> getDeviceHistory(
+    @GetMapping(value = "/devices/{deviceId}/history",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> getDeviceHistory(
             @PathVariable String deviceId,
             @RequestParam(name = "start", defaultValue = "-1h") String start,
-            @RequestParam(name = "stop", required = false) String stop) {
+            @RequestParam(name = "stop", required = false) String stop,
+            @RequestParam(name = "maxPoints", required = false) Integer maxPoints,
+            @RequestParam(name = "downsample", defaultValue = "WINDOW") DownsampleMode downsample,
+            @RequestParam(name = "field", required = false) String field,
+            @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept) {
 
         String effectiveStart = start;
         if (!start.startsWith("-") && !start.contains("T")) {
             effectiveStart = "-" + start;
         }
 
-        List<Map<String, Object>> history = timeSeriesService.readSensorData(deviceId, effectiveStart, stop);
-        return ResponseEntity.ok(history);
+        DownsamplingRequest downsampling = null;
+        if (maxPoints != null) {
+            if (maxPoints <= 0) {
+                throw new IllegalArgumentException("maxPoints must be positive");
+            }
+            downsampling = new DownsamplingRequest(maxPoints, downsample, field);
+        }
+        // fails before streaming, while the response can still be an error status
+        timeSeriesService.validateSensorDataQuery(effectiveStart, stop, downsampling);
+
+        String queryStart = effectiveStart;
+        DownsamplingRequest queryDownsampling = downsampling;
+        return JsonRecordStream.response(objectMapper, accept,
+                sink -> timeSeriesService.streamSensorData(deviceId, queryStart, stop, queryDownsampling, sink::accept));
+    }
+
+    @PostMapping(value = "/history/query",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> queryHistory(
+            @Valid @RequestBody HistoryQueryRequest request,
+            @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept) {
+        timeSeriesService.validateHistoryQuery(request);
+        return JsonRecordStream.response(objectMapper, accept,
+                sink -> timeSeriesService.streamHistory(request, sink::accept));
     }
 
     @PutMapping("/devices/{deviceId}")
@@ -168,6 +290,20 @@ public class ApiController {
         return ResponseEntity.ok(mapToDto(updatedDevice));
     }
 
+    @GetMapping(value = "/logs",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> getLogs(
+            @RequestParam(name = "after", required = false) Instant after,
+            @RequestParam(name = "before", required = false) Instant before,
+            @RequestParam(name = "limit", defaultValue = "200") int limit,
+            @RequestParam(name = "level", required = false) Set<LogLevel> levels,
+            @RequestParam(name = "logger", required = false) String loggerPrefix,
+            @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept) {
+        LogQuery query = timeSeriesService.logPage(after, before, limit, levels, loggerPrefix);
+        return JsonRecordStream.response(objectMapper, accept,
+                sink -> timeSeriesService.streamLogs(query, sink::accept));
+    }
+
     @GetMapping("/logs/history")
     public List<Map<String, Object>> getLogHistory(@RequestParam(defaultValue = "1h") String range) {
         return timeSeriesService.readLogHistory(range);
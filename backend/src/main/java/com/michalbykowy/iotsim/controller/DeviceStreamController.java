@@ -0,0 +1,59 @@
+package com.michalbykowy.iotsim.controller;
+
+import com.michalbykowy.iotsim.dto.DeviceStateMessage;
+import com.michalbykowy.iotsim.dto.FleetStatsResponse;
+import com.michalbykowy.iotsim.service.DeviceService;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+
+import java.util.List;
+
+/**
+ * STOMP endpoints next to the device delta streams on {@code /topic/devices},
+ * {@code /topic/devices/{id}} and {@code /topic/groups/{group}}, and the fleet statistics on
+ * {@code /topic/fleet/stats}.
+ */
+@Controller
+public class DeviceStreamController {
+
+    private final DeviceService deviceService;
+
+    public DeviceStreamController(DeviceService deviceService) {
+        this.deviceService = deviceService;
+    }
+
+    /**
+     * Answers a subscription to {@code /app/devices/snapshot} once, with the full state and version of
+     * every device; clients subscribe on connect and again whenever they miss a delta.
+     */
+    @SubscribeMapping("/devices/snapshot")
+    public List<DeviceStateMessage> deviceSnapshot() {
+        return deviceService.getDeviceSnapshot();
+    }
+
+    /**
+     * Snapshot for a client that only watches {@code /topic/devices/{deviceId}}.
+     */
+    @SubscribeMapping("/devices/{deviceId}/snapshot")
+    public List<DeviceStateMessage> deviceSnapshot(@DestinationVariable String deviceId) {
+        return deviceService.getDeviceSnapshot(deviceId);
+    }
+
+    /**
+     * Snapshot for a client that only watches {@code /topic/groups/{group}}.
+     */
+    @SubscribeMapping("/groups/{group}/snapshot")
+    public List<DeviceStateMessage> groupSnapshot(@DestinationVariable String group) {
+        return deviceService.getGroupSnapshot(group);
+    }
+
+    /**
+     * Current fleet statistics for a client about to watch {@code /topic/fleet/stats}, which only
+     * carries them again after a change.
+     */
+    @SubscribeMapping("/fleet/stats")
+    public FleetStatsResponse fleetStats() {
+        return deviceService.getFleetStats();
+    }
+}
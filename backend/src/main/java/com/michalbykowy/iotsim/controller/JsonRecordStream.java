@@ -0,0 +1,86 @@
+package com.michalbykowy.iotsim.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Writes records to the HTTP response as they are produced, either as a chunked JSON array
+ * or as newline-delimited JSON when the client asks for {@code application/x-ndjson}.
+ */
+final class JsonRecordStream implements Consumer<Object> {
+
+    private static final int FLUSH_EVERY_RECORDS = 500;
+
+    private final ObjectWriter writer;
+    private final JsonGenerator generator;
+    private final boolean ndjson;
+    private int pending;
+
+    private JsonRecordStream(ObjectMapper objectMapper, OutputStream outputStream, boolean ndjson) throws IOException {
+        // flushing is batched below instead of after every record
+        this.writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.generator = objectMapper.getFactory().createGenerator(outputStream)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.generator.setRootValueSeparator(null);
+        this.ndjson = ndjson;
+    }
+
+    static boolean wantsNdjson(String acceptHeader) {
+        return acceptHeader != null && acceptHeader.contains(MediaType.APPLICATION_NDJSON_VALUE);
+    }
+
+    /**
+     * Builds a streaming response around a producer that pushes records into the given consumer.
+     */
+    static ResponseEntity<StreamingResponseBody> response(
+            ObjectMapper objectMapper, String acceptHeader, Consumer<Consumer<Object>> producer) {
+        boolean ndjson = wantsNdjson(acceptHeader);
+        StreamingResponseBody body = outputStream -> {
+            JsonRecordStream stream = new JsonRecordStream(objectMapper, outputStream, ndjson);
+            stream.start();
+            producer.accept(stream);
+            stream.finish();
+        };
+        MediaType contentType = ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON;
+        return ResponseEntity.ok().contentType(contentType).body(body);
+    }
+
+    private void start() throws IOException {
+        if (!ndjson) {
+            generator.writeStartArray();
+        }
+    }
+
+    @Override
+    public void accept(Object value) {
+        try {
+            writer.writeValue(generator, value);
+            if (ndjson) {
+                generator.writeRaw('\n');
+            }
+            if (++pending >= FLUSH_EVERY_RECORDS) {
+                generator.flush();
+                pending = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void finish() throws IOException {
+        if (!ndjson) {
+            generator.writeEndArray();
+        }
+        generator.flush();
+    }
+}
@@ -0,0 +1,17 @@
+package com.michalbykowy.iotsim.dto;
+
+import java.util.List;
+
+/**
+ * Device changes after a client's last known sequence. With {@code snapshot} set, {@code changes} is
+ * the full state of every device and replaces whatever the client had; otherwise the client drops the
+ * {@code removed} devices and then applies {@code changes} in order. Either way it continues from
+ * {@code epoch} and {@code sequence}.
+ */
+public record DeviceChangesResponse(
+        String epoch,
+        long sequence,
+        boolean snapshot,
+        List<DeviceStateMessage> changes,
+        List<String> removed
+) {}
@@ -0,0 +1,11 @@
+package com.michalbykowy.iotsim.dto;
+
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceType;
+
+/**
+ * Criteria of a device listing; a {@code null} criterion matches every device. The name prefix is
+ * matched ignoring case.
+ */
+public record DeviceFilter(DeviceType type, DeviceRole role, Boolean online, Boolean simulationActive,
+                           String namePrefix) {}
@@ -0,0 +1,13 @@
+package com.michalbykowy.iotsim.dto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of devices ordered by id, each with the requested fields only. {@code nextCursor} fetches
+ * the following page and is {@code null} on the last one.
+ */
+public record DevicePageResponse(
+        List<Map<String, Object>> devices,
+        String nextCursor
+) {}
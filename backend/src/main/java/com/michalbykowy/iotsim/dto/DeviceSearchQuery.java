@@ -0,0 +1,18 @@
+package com.michalbykowy.iotsim.dto;
+
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceType;
+
+import java.util.Set;
+
+/**
+ * A device search: every word of {@code text} has to start a word of the device name, and the device
+ * has to report every one of {@code fields}. A {@code null} criterion matches every device.
+ */
+public record DeviceSearchQuery(String text, DeviceType type, DeviceRole role, Boolean online,
+                                Boolean simulationActive, Set<String> fields, int limit) {
+
+    public DeviceSearchQuery {
+        fields = fields == null ? Set.of() : Set.copyOf(fields);
+    }
+}
@@ -0,0 +1,13 @@
+package com.michalbykowy.iotsim.dto;
+
+import com.michalbykowy.iotsim.model.DeviceSummary;
+
+import java.util.List;
+
+/**
+ * The first matches of a device search and the number of all matches.
+ */
+public record DeviceSearchResponse(
+        int total,
+        List<DeviceSummary> devices
+) {}
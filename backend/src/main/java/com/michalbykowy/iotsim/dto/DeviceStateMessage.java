@@ -0,0 +1,22 @@
+package com.michalbykowy.iotsim.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * One device entry of a {@code /topic/devices} frame. Carries either the full {@code snapshot} of
+ * the device or a JSON merge {@code patch} (RFC 7386) against the state of the previous version.
+ * {@code sequence} orders the message among the changes of all devices; in a snapshot it is the
+ * sequence the snapshot was taken at.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record DeviceStateMessage(String id, long version, long sequence, JsonNode snapshot, JsonNode patch) {
+
+    public static DeviceStateMessage snapshot(String id, long version, long sequence, JsonNode snapshot) {
+        return new DeviceStateMessage(id, version, sequence, snapshot, null);
+    }
+
+    public static DeviceStateMessage patch(String id, long version, long sequence, JsonNode patch) {
+        return new DeviceStateMessage(id, version, sequence, null, patch);
+    }
+}
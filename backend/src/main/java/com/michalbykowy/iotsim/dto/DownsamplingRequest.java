@@ -0,0 +1,9 @@
+package com.michalbykowy.iotsim.dto;
+
+import com.michalbykowy.iotsim.model.DownsampleMode;
+
+public record DownsamplingRequest(
+        int maxPoints,
+        DownsampleMode mode,
+        String field
+) {}
@@ -0,0 +1,16 @@
+package com.michalbykowy.iotsim.dto;
+
+import org.springframework.data.domain.Sort;
+
+/**
+ * Devices by the latest value of one sensor field: those within {@code min} and {@code max}
+ * (inclusive, each optional), ordered by value in {@code direction}, at most {@code limit} of them.
+ * Without bounds a descending query is a top-K and an ascending one a bottom-K.
+ */
+public record FieldValueQuery(
+        String field,
+        Double min,
+        Double max,
+        Sort.Direction direction,
+        int limit
+) {}
@@ -0,0 +1,18 @@
+package com.michalbykowy.iotsim.dto;
+
+import java.util.List;
+
+/**
+ * Devices matching a {@link FieldValueQuery}, each with its latest value of the field, in the
+ * requested order.
+ */
+public record FieldValuesResponse(
+        String field,
+        List<FieldValue> devices
+) {
+
+    public record FieldValue(
+            String deviceId,
+            double value
+    ) {}
+}
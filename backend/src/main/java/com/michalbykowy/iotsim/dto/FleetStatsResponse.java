@@ -0,0 +1,27 @@
+package com.michalbykowy.iotsim.dto;
+
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceType;
+
+import java.util.Map;
+
+/**
+ * Fleet overview: device counts and, per numeric state field, the devices reporting it and the
+ * minimum, maximum and average of their latest values.
+ */
+public record FleetStatsResponse(
+        long devices,
+        long online,
+        long simulationActive,
+        Map<DeviceType, Long> byType,
+        Map<DeviceRole, Long> byRole,
+        Map<String, FieldStats> fields
+) {
+
+    public record FieldStats(
+            long devices,
+            double min,
+            double max,
+            double average
+    ) {}
+}
@@ -0,0 +1,22 @@
+package com.michalbykowy.iotsim.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+public record HistoryQueryRequest(
+        @NotEmpty(message = "At least one device is required")
+        @Size(max = 100, message = "At most 100 devices can be queried at once")
+        List<@NotBlank String> deviceIds,
+
+        List<String> fields,
+
+        @NotBlank(message = "Range start is required")
+        String start,
+
+        String stop,
+
+        String window
+) {}
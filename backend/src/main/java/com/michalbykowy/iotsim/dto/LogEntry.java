@@ -0,0 +1,12 @@
+package com.michalbykowy.iotsim.dto;
+
+import com.michalbykowy.iotsim.model.LogLevel;
+
+import java.time.Instant;
+
+public record LogEntry(
+        Instant time,
+        LogLevel level,
+        String loggerName,
+        String message
+) {}
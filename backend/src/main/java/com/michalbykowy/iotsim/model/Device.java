@@ -4,9 +4,16 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.michalbykowy.iotsim.model.converter.JsonAttributeConverter;
 import jakarta.persistence.*;
 
+/**
+ * Device metadata and simulation config, which change rarely. The telemetry state lives in
+ * {@link DeviceState}, written on its own; the config is kept as JSON text and parsed on first access.
+ */
 @Entity
+@Table(indexes = @Index(name = "idx_device_simulation_active", columnList = "simulationActive"))
 public class Device {
 
+    private static final JsonAttributeConverter JSON = new JsonAttributeConverter();
+
     @Id
     private String id;
     private String name;
@@ -17,19 +24,20 @@ public class Device {
     @Enumerated(EnumType.STRING)
     private DeviceRole role;
 
-    @Convert(converter = JsonAttributeConverter.class)
-    @Column(length = 4096)
-    private JsonNode currentState;
+    // Hibernate cannot proxy the inverse side of a one-to-one without bytecode enhancement, so the state
+    // is loaded with every device; repository queries that list devices fetch it in the same statement
+    @OneToOne(mappedBy = "device", cascade = CascadeType.ALL, orphanRemoval = true)
+    private DeviceState state;
+
+    @Column(name = "simulation_config", columnDefinition = "TEXT")
+    private String simulationConfigJson;
 
-    @Convert(converter = JsonAttributeConverter.class)
-    @Column(columnDefinition = "TEXT")
+    @Transient
     private JsonNode simulationConfig;
 
     private boolean simulationActive;
-    private Boolean online;
 
     public Device() {
-        this.online = false;
     }
 
 
@@ -38,8 +46,14 @@ public class Device {
         this.name = name;
         this.type = type;
         this.role = role;
-        this.currentState = currentState;
-        this.online = false;
+        this.state = new DeviceState(this, currentState);
+    }
+
+    private DeviceState state() {
+        if (state == null) {
+            state = new DeviceState(this, null);
+        }
+        return state;
     }
 
 
@@ -65,19 +79,31 @@ public class Device {
     public void setType(DeviceType type) { this.type = type; }
 
     public JsonNode getCurrentState() {
-        return currentState;
+        return state().getCurrentState();
     }
 
     public void setCurrentState(JsonNode currentState) {
-        this.currentState = currentState;
+        state().setCurrentState(currentState);
+    }
+
+    public long getStateVersion() {
+        return state().getVersion();
+    }
+
+    public void setStateVersion(long stateVersion) {
+        state().setVersion(stateVersion);
     }
 
     public JsonNode getSimulationConfig() {
+        if (simulationConfig == null && simulationConfigJson != null) {
+            simulationConfig = JSON.convertToEntityAttribute(simulationConfigJson);
+        }
         return simulationConfig;
     }
 
     public void setSimulationConfig(JsonNode simulationConfig) {
         this.simulationConfig = simulationConfig;
+        this.simulationConfigJson = simulationConfig == null ? null : JSON.convertToDatabaseColumn(simulationConfig);
     }
 
     public DeviceRole getRole() { return role; }
@@ -93,10 +119,10 @@ public class Device {
     }
 
     public Boolean isOnline() {
-        return online != null && online;
+        return state().isOnline();
     }
 
     public void setOnline(Boolean online) {
-        this.online = online;
+        state().setOnline(online);
     }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.michalbykowy.iotsim.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.michalbykowy.iotsim.model.converter.JsonAttributeConverter;
+import jakarta.persistence.*;
+
+/**
+ * The frequently written part of a {@link Device}: its latest telemetry and connectivity. Kept in a
+ * narrow table of its own so a state update does not rewrite the device row and its configuration.
+ * Every write moves the {@code version}, so a writer can tell whether the row changed since it read it.
+ */
+@Entity
+@Table(name = "device_state")
+public class DeviceState {
+
+    @Id
+    private String deviceId;
+
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "device_id")
+    private Device device;
+
+    @Convert(converter = JsonAttributeConverter.class)
+    @Column(length = 4096)
+    private JsonNode currentState;
+
+    private Boolean online;
+
+    // nullable, so the column can be added to an existing table; DeviceStateMigration fills it in
+    @Version
+    private Long version;
+
+    protected DeviceState() {
+    }
+
+    DeviceState(Device device, JsonNode currentState) {
+        this.device = device;
+        this.currentState = currentState;
+        this.online = false;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public JsonNode getCurrentState() {
+        return currentState;
+    }
+
+    public void setCurrentState(JsonNode currentState) {
+        this.currentState = currentState;
+    }
+
+    public Boolean isOnline() {
+        return online != null && online;
+    }
+
+    public void setOnline(Boolean online) {
+        this.online = online;
+    }
+
+    public long getVersion() {
+        return version == null ? 0 : version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
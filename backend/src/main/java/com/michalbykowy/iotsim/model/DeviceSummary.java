@@ -0,0 +1,8 @@
+package com.michalbykowy.iotsim.model;
+
+/**
+ * The columns of a {@link Device} without its JSON state and simulation config, read for listings
+ * that do not show them. {@code online} is {@code null} for a device without a state row.
+ */
+public record DeviceSummary(String id, String name, DeviceType type, DeviceRole role, boolean simulationActive,
+                            Boolean online) {}
@@ -0,0 +1,6 @@
+package com.michalbykowy.iotsim.model;
+
+public enum DownsampleMode {
+    WINDOW,
+    LTTB
+}
@@ -3,10 +3,11 @@ package com.michalbykowy.iotsim.model;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 
 @Entity
-@Table(name = "rules")
+@Table(name = "rules", indexes = @Index(name = "idx_rules_trigger_device_id", columnList = "triggerDeviceId"))
 public class Rule {
 
     @Id
@@ -1,12 +1,74 @@
 package com.michalbykowy.iotsim.repository;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceState;
+import com.michalbykowy.iotsim.model.DeviceSummary;
+import com.michalbykowy.iotsim.model.DeviceType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface DeviceRepository extends JpaRepository<Device, String> {
+
+    // keyset page: devices after the cursor id, each criterion skipped when its parameter is null
+    String PAGE_CONDITIONS = """
+             where d.id > :after
+             and (:type is null or d.type = :type)
+             and (:role is null or d.role = :role)
+             and (:online is null or coalesce(s.online, false) = :online)
+             and (:simulationActive is null or d.simulationActive = :simulationActive)
+             and (:namePattern is null or lower(d.name) like :namePattern escape '!')
+             order by d.id
+            """;
+
+    // the state is needed wherever devices are listed; fetch it in the same query instead of one per device
+    @Override
+    @EntityGraph(attributePaths = "state")
+    List<Device> findAll();
+
+    @Override
+    @EntityGraph(attributePaths = "state")
+    List<Device> findAllById(Iterable<String> ids);
+
+    @EntityGraph(attributePaths = "state")
     List<Device> findBySimulationActive(boolean simulationActive);
-}
\ No newline at end of file
+
+    @EntityGraph(attributePaths = "state")
+    List<Device> findByType(DeviceType type);
+
+    @EntityGraph(attributePaths = "state")
+    List<Device> findByRole(DeviceRole role);
+
+    // writes the state row directly, only if it is still at the given version; merging a detached device
+    // would select it first. Clears the persistence context, so nothing read before writes it again on flush
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update DeviceState s set s.currentState = :currentState, s.online = :online, s.version = s.version + 1"
+            + " where s.deviceId = :deviceId and s.version = :version")
+    int updateState(@Param("deviceId") String deviceId, @Param("currentState") JsonNode currentState,
+                    @Param("online") Boolean online, @Param("version") long version);
+
+    @Query("select s from DeviceState s where s.deviceId = :deviceId")
+    Optional<DeviceState> findState(@Param("deviceId") String deviceId);
+
+    @Query("select d from Device d left join fetch d.state s" + PAGE_CONDITIONS)
+    List<Device> findPage(@Param("after") String after, @Param("type") DeviceType type, @Param("role") DeviceRole role,
+                          @Param("online") Boolean online, @Param("simulationActive") Boolean simulationActive,
+                          @Param("namePattern") String namePattern, Limit limit);
+
+    @Query("select new com.michalbykowy.iotsim.model.DeviceSummary(d.id, d.name, d.type, d.role, d.simulationActive, s.online)"
+            + " from Device d left join d.state s" + PAGE_CONDITIONS)
+    List<DeviceSummary> findSummaryPage(@Param("after") String after, @Param("type") DeviceType type,
+                                        @Param("role") DeviceRole role, @Param("online") Boolean online,
+                                        @Param("simulationActive") Boolean simulationActive,
+                                        @Param("namePattern") String namePattern, Limit limit);
+}
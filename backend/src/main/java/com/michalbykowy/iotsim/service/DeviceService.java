@@ -3,72 +3,328 @@ package com.michalbykowy.iotsim.service;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.michalbykowy.iotsim.api.exception.ResourceNotFoundException;
+import com.michalbykowy.iotsim.dto.DeviceChangesResponse;
+import com.michalbykowy.iotsim.dto.DeviceFilter;
+import com.michalbykowy.iotsim.dto.DevicePageResponse;
+import com.michalbykowy.iotsim.dto.DeviceSearchQuery;
+import com.michalbykowy.iotsim.dto.DeviceSearchResponse;
 import com.michalbykowy.iotsim.dto.DeviceRequest;
-import com.michalbykowy.iotsim.dto.DeviceResponse;
+import com.michalbykowy.iotsim.dto.DeviceStateMessage;
+import com.michalbykowy.iotsim.dto.FieldValueQuery;
+import com.michalbykowy.iotsim.dto.FieldValuesResponse;
+import com.michalbykowy.iotsim.dto.FleetStatsResponse;
 import com.michalbykowy.iotsim.dto.SimulationRequest;
 import com.michalbykowy.iotsim.dto.SimulationFieldConfig;
 import com.michalbykowy.iotsim.event.VirtualDeviceCommandLoopbackEvent;
 import com.michalbykowy.iotsim.integration.MqttGateway;
 import com.michalbykowy.iotsim.model.Device;
 import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceSummary;
 import com.michalbykowy.iotsim.model.DeviceType;
 import com.michalbykowy.iotsim.model.SimulationPattern;
 import com.michalbykowy.iotsim.repository.DeviceRepository;
+import com.michalbykowy.iotsim.service.devices.DeviceLocks;
+import com.michalbykowy.iotsim.service.devices.DeviceRegistry;
+import com.michalbykowy.iotsim.service.devices.DeviceSearchIndex;
+import com.michalbykowy.iotsim.service.devices.DeviceStateBroadcaster;
+import com.michalbykowy.iotsim.service.devices.FleetStatistics;
+import com.michalbykowy.iotsim.service.devices.LatestValueIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
-
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class DeviceService {
 
     private static final Logger logger = LoggerFactory.getLogger(DeviceService.class);
     private final DeviceRepository deviceRepository;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final DeviceRegistry deviceRegistry;
+    private final DeviceLocks deviceLocks;
+    private final DeviceSearchIndex searchIndex;
+    private final FleetStatistics fleetStatistics;
+    private final LatestValueIndex latestValues;
+    private final DeviceStateBroadcaster broadcaster;
     private final SimulationService simulationService;
     private final ObjectMapper objectMapper;
     private final TimeSeriesService timeSeriesService;
-    private final ConcurrentHashMap<String, Long> lastUpdateSent;
     private final MqttGateway mqttGateway;
     private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
 
-    private static final long UPDATE_THRESHOLD_MS = 500;
     private static final String DEVICE_NOT_FOUND_MESSAGE = "Device not found with id: ";
-    private static final String TOPIC_DEVICES = "/topic/devices";
     private static final String SENSORS_KEY = "sensors";
     private static final int DEVICE_ID_PREFIX_LENGTH = 6;
+    private static final int MAX_PAGE_SIZE = 1000;
+    // an empty merge patch, written when only the online flag changes
+    private static final JsonNode NO_CHANGES = JsonNodeFactory.instance.objectNode();
+
+    private static final List<String> DEVICE_FIELDS = List.of(
+            "id", "name", "type", "role", "currentState", "simulationConfig", "simulationActive", "online");
+    // stored as JSON text; a page without them is read without loading the entities
+    private static final Set<String> JSON_FIELDS = Set.of("currentState", "simulationConfig");
+    private static final Set<String> STATE_FIELDS = Set.of("currentState", "online");
+
+    private final Object snapshotLock = new Object();
+    private volatile DeviceChangesResponse lastSnapshot;
 
     public DeviceService(
             DeviceRepository deviceRepository,
-            SimpMessagingTemplate messagingTemplate,
+            DeviceRegistry deviceRegistry,
+            DeviceLocks deviceLocks,
+            DeviceSearchIndex searchIndex,
+            FleetStatistics fleetStatistics,
+            LatestValueIndex latestValues,
+            DeviceStateBroadcaster broadcaster,
             SimulationService simulationService,
             ObjectMapper objectMapper,
             TimeSeriesService timeSeriesService,
             MqttGateway mqttGateway,
-            ApplicationEventPublisher eventPublisher) {
+            ApplicationEventPublisher eventPublisher,
+            PlatformTransactionManager transactionManager) {
         this.deviceRepository = deviceRepository;
-        this.messagingTemplate = messagingTemplate;
+        this.deviceRegistry = deviceRegistry;
+        this.deviceLocks = deviceLocks;
+        this.searchIndex = searchIndex;
+        this.fleetStatistics = fleetStatistics;
+        this.latestValues = latestValues;
+        this.broadcaster = broadcaster;
         this.simulationService = simulationService;
         this.objectMapper = objectMapper;
         this.timeSeriesService = timeSeriesService;
         this.mqttGateway = mqttGateway;
-        this.lastUpdateSent = new ConcurrentHashMap<>();
         this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     public List<Device> getAllDevices() {
         return deviceRepository.findAll();
     }
 
+    /**
+     * One page of the devices matching {@code filter}, after {@code cursor}, with only {@code fields}
+     * (every field when empty). The id is always included.
+     */
+    @Transactional(readOnly = true)
+    public DevicePageResponse getDevicePage(DeviceFilter filter, String cursor, int limit, Collection<String> fields) {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        Set<String> selected = selectFields(fields);
+        String after = cursor == null ? "" : decodeCursor(cursor);
+        String namePattern = filter.namePrefix() == null ? null
+                : escapeLike(filter.namePrefix().toLowerCase(Locale.ROOT)) + "%";
+        // one row more than the page tells whether there is a next one
+        Limit rows = Limit.of(limit + 1);
+
+        List<Map<String, Object>> devices;
+        if (selected.stream().anyMatch(JSON_FIELDS::contains)) {
+            devices = deviceRepository.findPage(after, filter.type(), filter.role(), filter.online(),
+                            filter.simulationActive(), namePattern, rows).stream()
+                    .map(device -> project(device, selected))
+                    .toList();
+        } else {
+            devices = deviceRepository.findSummaryPage(after, filter.type(), filter.role(), filter.online(),
+                            filter.simulationActive(), namePattern, rows).stream()
+                    .map(summary -> project(summary, selected))
+                    .toList();
+        }
+        if (devices.size() <= limit) {
+            return new DevicePageResponse(devices, null);
+        }
+        List<Map<String, Object>> page = devices.subList(0, limit);
+        return new DevicePageResponse(page, encodeCursor((String) page.getLast().get("id")));
+    }
+
+    /**
+     * Devices matching {@code query}, answered from the in-memory search index.
+     */
+    public DeviceSearchResponse searchDevices(DeviceSearchQuery query) {
+        if (query.limit() <= 0 || query.limit() > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return searchIndex.search(query);
+    }
+
+    /**
+     * Fleet counts and sensor aggregates, kept up to date on every committed device write.
+     */
+    public FleetStatsResponse getFleetStats() {
+        return fleetStatistics.snapshot();
+    }
+
+    /**
+     * Devices by their latest value of one sensor field, answered from the in-memory value index.
+     */
+    public FieldValuesResponse getDevicesByFieldValue(FieldValueQuery query) {
+        if (query.limit() <= 0 || query.limit() > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        if (query.min() != null && query.max() != null && query.min() > query.max()) {
+            throw new IllegalArgumentException("min must not be greater than max");
+        }
+        return latestValues.query(query);
+    }
+
+    /**
+     * Entity tag of the device listing with {@code fields}. It changes with every committed write that
+     * can affect those fields, and is read before the page, so a page is never newer than its tag.
+     */
+    public String getDeviceListTag(Collection<String> fields) {
+        Set<String> selected = selectFields(fields);
+        StringBuilder tag = new StringBuilder("\"").append(broadcaster.epoch())
+                .append('-').append(deviceRegistry.metadataVersion());
+        if (selected.stream().anyMatch(STATE_FIELDS::contains)) {
+            tag.append('-').append(deviceRegistry.stateVersion());
+        }
+        return tag.append('"').toString();
+    }
+
+    private static Set<String> selectFields(Collection<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return new LinkedHashSet<>(DEVICE_FIELDS);
+        }
+        Set<String> selected = new LinkedHashSet<>();
+        selected.add("id");
+        for (String field : fields) {
+            if (!DEVICE_FIELDS.contains(field)) {
+                throw new IllegalArgumentException("Unknown device field '" + field + "', expected one of " + DEVICE_FIELDS);
+            }
+            selected.add(field);
+        }
+        return selected;
+    }
+
+    private static Map<String, Object> project(Device device, Set<String> fields) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (String field : fields) {
+            row.put(field, switch (field) {
+                case "id" -> device.getId();
+                case "name" -> device.getName();
+                case "type" -> device.getType();
+                case "role" -> device.getRole();
+                case "currentState" -> device.getCurrentState() == null ? null : device.getCurrentState().toString();
+                case "simulationConfig" -> device.getSimulationConfig() == null ? null : device.getSimulationConfig().toString();
+                case "simulationActive" -> device.isSimulationActive();
+                default -> Boolean.TRUE.equals(device.isOnline());
+            });
+        }
+        return row;
+    }
+
+    private static Map<String, Object> project(DeviceSummary device, Set<String> fields) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (String field : fields) {
+            row.put(field, switch (field) {
+                case "id" -> device.id();
+                case "name" -> device.name();
+                case "type" -> device.type();
+                case "role" -> device.role();
+                case "simulationActive" -> device.simulationActive();
+                default -> Boolean.TRUE.equals(device.online());
+            });
+        }
+        return row;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    private static String encodeCursor(String deviceId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(deviceId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    /**
+     * Full state for a new subscriber, shared with reconnecting clients through the cached snapshot.
+     */
+    public List<DeviceStateMessage> getDeviceSnapshot() {
+        return getFullSnapshot().changes();
+    }
+
+    /**
+     * Changes after {@code since} for a reconnecting client, replayed from memory. Only when they
+     * cannot be replayed is the full state read, once per sequence however many clients ask for it.
+     */
+    public DeviceChangesResponse getChangesSince(String epoch, long since) {
+        return broadcaster.changesSince(epoch, since)
+                .map(this::toChangesResponse)
+                .orElseGet(this::getFullSnapshot);
+    }
+
+    private DeviceChangesResponse toChangesResponse(DeviceStateBroadcaster.ReplayedChanges replayed) {
+        List<DeviceStateMessage> changes = new ArrayList<>(replayed.messages());
+        if (!replayed.stale().isEmpty()) {
+            changes.addAll(broadcaster.snapshot(deviceRepository.findAllById(replayed.stale())));
+        }
+        return new DeviceChangesResponse(broadcaster.epoch(), replayed.sequence(), false, changes,
+                List.copyOf(replayed.removed()));
+    }
+
+    private DeviceChangesResponse getFullSnapshot() {
+        synchronized (snapshotLock) {
+            // read before the devices, so the snapshot is at least as new as the sequence it claims
+            long sequence = broadcaster.sequence();
+            DeviceChangesResponse cached = lastSnapshot;
+            if (cached != null && cached.sequence() == sequence) {
+                return cached;
+            }
+            List<DeviceStateMessage> snapshot = broadcaster.snapshot(deviceRepository.findAll());
+            lastSnapshot = new DeviceChangesResponse(broadcaster.epoch(), sequence, true, snapshot, List.of());
+            return lastSnapshot;
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public List<DeviceStateMessage> getDeviceSnapshot(String deviceId) {
+        return broadcaster.snapshot(deviceRegistry.find(deviceId).stream().toList());
+    }
+
+    /**
+     * Snapshot of the devices published to {@code group}, see {@link DeviceStateBroadcaster#groupsOf}.
+     */
+    @Transactional(readOnly = true)
+    public List<DeviceStateMessage> getGroupSnapshot(String group) {
+        String normalized = group.toUpperCase(Locale.ROOT);
+        for (DeviceType type : DeviceType.values()) {
+            if (type.name().equals(normalized)) {
+                return broadcaster.snapshot(deviceRepository.findByType(type));
+            }
+        }
+        for (DeviceRole role : DeviceRole.values()) {
+            if (role.name().equals(normalized)) {
+                return broadcaster.snapshot(deviceRepository.findByRole(role));
+            }
+        }
+        return List.of();
+    }
+
     @Transactional
     public Device createDevice(DeviceRequest deviceRequest) {
         Device newDevice = new Device(
@@ -78,43 +334,48 @@ public class DeviceService {
                 deviceRequest.role(),
                 objectMapper.createObjectNode()
         );
-        Device savedDevice = deviceRepository.save(newDevice);
-        messagingTemplate.convertAndSend(TOPIC_DEVICES, mapToDto(savedDevice));
+        Device savedDevice = deviceRegistry.save(newDevice);
+        broadcaster.publish(savedDevice);
         return savedDevice;
     }
 
     @Transactional
     public Device updateDeviceName(String deviceId, String newName) {
-        Device device = deviceRepository.findById(deviceId)
-                .orElseThrow(() -> new ResourceNotFoundException(DEVICE_NOT_FOUND_MESSAGE + deviceId));
+        return deviceLocks.withLock(deviceId, () -> {
+            Device device = deviceRegistry.find(deviceId)
+                    .orElseThrow(() -> new ResourceNotFoundException(DEVICE_NOT_FOUND_MESSAGE + deviceId));
 
-        device.setName(newName);
-        Device savedDevice = deviceRepository.save(device);
+            device.setName(newName);
+            Device savedDevice = deviceRegistry.save(device);
 
-        messagingTemplate.convertAndSend(TOPIC_DEVICES, mapToDto(savedDevice));
-        return savedDevice;
+            broadcaster.publish(savedDevice);
+            return savedDevice;
+        });
     }
 
     @Transactional
     public void deleteDevice(String deviceId) {
-        if (!deviceRepository.existsById(deviceId)) {
-            throw new ResourceNotFoundException("Cannot delete. Device not found with id: " + deviceId);
-        }
-        deviceRepository.deleteById(deviceId);
-        logger.info("Deleted device with id: {}", deviceId);
+        deviceLocks.runWithLock(deviceId, () -> {
+            if (!deviceRepository.existsById(deviceId)) {
+                throw new ResourceNotFoundException("Cannot delete. Device not found with id: " + deviceId);
+            }
+            deviceRepository.deleteById(deviceId);
+            deviceRegistry.remove(deviceId);
+            broadcaster.forget(deviceId);
+            logger.info("Deleted device with id: {}", deviceId);
+        });
     }
 
     @Transactional
     public void updateDeviceStatus(String deviceId, boolean isOnline) {
-        deviceRepository.findById(deviceId)
-                .ifPresent(device -> updateAndNotifyDeviceStatus(device, isOnline));
+        deviceLocks.runWithLock(deviceId, () -> deviceRegistry.find(deviceId)
+                .ifPresent(device -> updateAndNotifyDeviceStatus(device, isOnline)));
     }
 
     private void updateAndNotifyDeviceStatus(Device device, boolean isOnline) {
         if (!Boolean.valueOf(isOnline).equals(device.isOnline())) {
-            device.setOnline(isOnline);
-            Device saved = deviceRepository.save(device);
-            messagingTemplate.convertAndSend(TOPIC_DEVICES, mapToDto(saved));
+            Device saved = deviceRegistry.mergeState(device, NO_CHANGES, isOnline);
+            broadcaster.publish(saved);
 
             String status = isOnline ? "ONLINE" : "OFFLINE";
             logger.info("Device {} is now {}", device.getId(), status);
@@ -153,36 +414,40 @@ public class DeviceService {
     public Device configureSimulation(String deviceId, SimulationRequest request) {
         validateSimulationRequest(request);
 
-        Device device = deviceRepository.findById(deviceId)
-                .orElseThrow(() -> new ResourceNotFoundException(DEVICE_NOT_FOUND_MESSAGE + deviceId));
+        return deviceLocks.withLock(deviceId, () -> {
+            Device device = deviceRegistry.find(deviceId)
+                    .orElseThrow(() -> new ResourceNotFoundException(DEVICE_NOT_FOUND_MESSAGE + deviceId));
 
-        if (device.getType() != DeviceType.VIRTUAL) {
-            throw new IllegalArgumentException("Simulation can only be configured for VIRTUAL devices.");
-        }
+            if (device.getType() != DeviceType.VIRTUAL) {
+                throw new IllegalArgumentException("Simulation can only be configured for VIRTUAL devices.");
+            }
 
-        JsonNode configNode = objectMapper.valueToTree(request);
-        device.setSimulationConfig(configNode);
-        device.setSimulationActive(true);
+            JsonNode configNode = objectMapper.valueToTree(request);
+            device.setSimulationConfig(configNode);
+            device.setSimulationActive(true);
 
-        Device savedDevice = deviceRepository.save(device);
-        messagingTemplate.convertAndSend(TOPIC_DEVICES, mapToDto(savedDevice));
-        return savedDevice;
+            Device savedDevice = deviceRegistry.save(device);
+            broadcaster.publish(savedDevice);
+            return savedDevice;
+        });
     }
 
     @Transactional
     public Device stopSimulation(String deviceId) {
-        Device device = deviceRepository.findById(deviceId)
-                .orElseThrow(() -> new ResourceNotFoundException(DEVICE_NOT_FOUND_MESSAGE + deviceId));
+        return deviceLocks.withLock(deviceId, () -> {
+            Device device = deviceRegistry.find(deviceId)
+                    .orElseThrow(() -> new ResourceNotFoundException(DEVICE_NOT_FOUND_MESSAGE + deviceId));
 
-        device.setSimulationActive(false);
-        Device savedDevice = deviceRepository.save(device);
+            device.setSimulationActive(false);
+            Device savedDevice = deviceRegistry.save(device);
 
-        messagingTemplate.convertAndSend(TOPIC_DEVICES, mapToDto(savedDevice));
+            broadcaster.publish(savedDevice);
 
-        return savedDevice;
+            return savedDevice;
+        });
     }
 
-    @Transactional
+    // not @Transactional: a rule chain that lost a lock wait is rolled back and run again as a whole
     public Device handleDeviceEvent(Map<String, Object> payload) {
         String deviceId = (String) payload.get("deviceId");
         Object stateObj = payload.get("state");
@@ -205,30 +470,31 @@ public class DeviceService {
         }
 
         JsonNode finalNewStateNode = newStateNode;
-        Device device = deviceRepository.findById(deviceId)
-                .orElseGet(() -> createNewPhysicalDevice(deviceId, finalNewStateNode));
-
-        device.setCurrentState(newStateNode);
-        device.setOnline(true);
-
-        long now = System.currentTimeMillis();
-        long last = lastUpdateSent.getOrDefault(deviceId, 0L);
-        if (now - last > UPDATE_THRESHOLD_MS) {
-            device = deviceRepository.save(device);
-            messagingTemplate.convertAndSend(TOPIC_DEVICES, mapToDto(device));
-            lastUpdateSent.put(deviceId, now);
-        }
+        return deviceLocks.retryWhenBlocked(() -> transactionTemplate.execute(status -> ingest(deviceId, finalNewStateNode)));
+    }
+
+    private Device ingest(String deviceId, JsonNode finalNewStateNode) {
+        // held until commit: the rules of this device and its updates apply in the order they arrive
+        return deviceLocks.withLock(deviceId, () -> {
+            Device device = deviceRegistry.find(deviceId)
+                    .orElseGet(() -> createNewPhysicalDevice(deviceId, finalNewStateNode));
+
+            // every update is persisted and replaces what the device reported before;
+            // the broadcaster coalesces what reaches the clients
+            device = deviceRegistry.replaceState(device, finalNewStateNode, true);
+            broadcaster.publish(device);
 
-        simulationService.processEvent(device);
-        timeSeriesService.writeSensorData(deviceId, newStateNode.toString());
+            simulationService.processEvent(device);
+            timeSeriesService.writeSensorData(deviceId, finalNewStateNode.toString());
 
-        return device;
+            return device;
+        });
     }
 
     private Device createNewPhysicalDevice(String deviceId, JsonNode initialState) {
         String deviceName = "Physical Device #" + deviceId.substring(0, Math.min(deviceId.length(), DEVICE_ID_PREFIX_LENGTH));
         logger.info("Device {} not found. Creating a new physical device with name: {}", deviceId, deviceName);
-        return deviceRepository.save(new Device(deviceId, deviceName, DeviceType.PHYSICAL, DeviceRole.SENSOR, initialState));
+        return deviceRegistry.save(new Device(deviceId, deviceName, DeviceType.PHYSICAL, DeviceRole.SENSOR, initialState));
     }
 
     public void sendCommand(String deviceId, Map<String, Object> commandPayload) {
@@ -239,7 +505,7 @@ public class DeviceService {
             logger.info("Sending command to device {}: {}", deviceId, jsonPayload);
             mqttGateway.sendToMqtt(jsonPayload, topic);
 
-            deviceRepository.findById(deviceId).ifPresent(device -> {
+            deviceRegistry.find(deviceId).ifPresent(device -> {
                 if (device.getType() == DeviceType.VIRTUAL) {
                     var event = new VirtualDeviceCommandLoopbackEvent(Map.of("deviceId", device.getId(), "state", jsonPayload));
                     eventPublisher.publishEvent(event);
@@ -250,18 +516,4 @@ public class DeviceService {
             throw new IllegalArgumentException("Invalid command payload", e);
         }
     }
-
-
-    private DeviceResponse mapToDto(Device device) {
-        return new DeviceResponse(
-                device.getId(),
-                device.getName(),
-                device.getType(),
-                device.getRole(),
-                device.getCurrentState(),
-                device.getSimulationConfig(),
-                device.isSimulationActive(),
-                device.isOnline()
-        );
-    }
-}
\ No newline at end of file
+}
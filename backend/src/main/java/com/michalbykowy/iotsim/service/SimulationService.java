@@ -9,13 +9,14 @@ import com.michalbykowy.iotsim.model.Rule;
 import com.michalbykowy.iotsim.model.RuleAction;
 import com.michalbykowy.iotsim.model.RuleOperator;
 import com.michalbykowy.iotsim.model.RuleTrigger;
-import com.michalbykowy.iotsim.repository.DeviceRepository;
 import com.michalbykowy.iotsim.repository.RuleRepository;
+import com.michalbykowy.iotsim.service.devices.DeviceLocks;
+import com.michalbykowy.iotsim.service.devices.DeviceRegistry;
+import com.michalbykowy.iotsim.service.devices.DeviceStateBroadcaster;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -31,8 +32,9 @@ public class SimulationService {
 
     private final int maxRecursionDepth;
     private final RuleRepository ruleRepository;
-    private final DeviceRepository deviceRepository;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final DeviceRegistry deviceRegistry;
+    private final DeviceLocks deviceLocks;
+    private final DeviceStateBroadcaster broadcaster;
     private final ObjectMapper objectMapper;
     private final TimeSeriesService timeSeriesService;
     private final ApplicationEventPublisher eventPublisher;
@@ -40,15 +42,17 @@ public class SimulationService {
     public SimulationService(
             @Value("${engine.rules.max-recursion-depth}") int maxRecursionDepth,
             RuleRepository ruleRepository,
-            DeviceRepository deviceRepository,
-            SimpMessagingTemplate messagingTemplate,
+            DeviceRegistry deviceRegistry,
+            DeviceLocks deviceLocks,
+            DeviceStateBroadcaster broadcaster,
             ObjectMapper objectMapper,
             TimeSeriesService timeSeriesService,
             ApplicationEventPublisher eventPublisher) {
         this.maxRecursionDepth = maxRecursionDepth;
         this.ruleRepository = ruleRepository;
-        this.deviceRepository = deviceRepository;
-        this.messagingTemplate = messagingTemplate;
+        this.deviceRegistry = deviceRegistry;
+        this.deviceLocks = deviceLocks;
+        this.broadcaster = broadcaster;
         this.objectMapper = objectMapper;
         this.timeSeriesService = timeSeriesService;
         this.eventPublisher = eventPublisher;
@@ -129,12 +133,12 @@ public class SimulationService {
 
         eventPublisher.publishEvent(new DeviceCommandEvent(targetDeviceId, newStateJson));
 
-        deviceRepository.findById(targetDeviceId).ifPresent((Device targetDevice) -> {
-            targetDevice.setCurrentState(newStateNode);
-            Device updatedDevice = deviceRepository.save(targetDevice);
-            messagingTemplate.convertAndSend("/topic/devices", updatedDevice);
+        // the action sets only the fields it names, the rest of the target's state is kept
+        deviceLocks.runWithLock(targetDeviceId, () -> deviceRegistry.find(targetDeviceId).ifPresent((Device targetDevice) -> {
+            Device updatedDevice = deviceRegistry.mergeState(targetDevice, newStateNode, null);
+            broadcaster.publish(updatedDevice);
             evaluateRulesRecursively(updatedDevice, currentDepth + 1);
-        });
+        }));
     }
 
     private RuleTrigger parseTriggerConfig(Rule rule) throws IOException {
@@ -3,71 +3,51 @@ package com.michalbykowy.iotsim.service;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.influxdb.client.InfluxDBClient;
-import com.influxdb.client.QueryApi;
-import com.influxdb.client.WriteApi;
-import com.influxdb.client.domain.WritePrecision;
-import com.influxdb.client.write.Point;
-import com.influxdb.query.FluxRecord;
-import com.influxdb.query.FluxTable;
+import com.michalbykowy.iotsim.dto.DownsamplingRequest;
+import com.michalbykowy.iotsim.dto.HistoryQueryRequest;
 import com.michalbykowy.iotsim.model.AggregateFunction;
-import com.michalbykowy.iotsim.model.Measurement;
+import com.michalbykowy.iotsim.model.DownsampleMode;
+import com.michalbykowy.iotsim.model.LogLevel;
+import com.michalbykowy.iotsim.service.history.HistoryRange;
+import com.michalbykowy.iotsim.service.history.LttbDownsampler;
+import com.michalbykowy.iotsim.service.history.RecentReadingsCache;
+import com.michalbykowy.iotsim.service.store.LogQuery;
+import com.michalbykowy.iotsim.service.store.TimeSeriesStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 @Service
 public class TimeSeriesService {
     private static final Logger logger = LoggerFactory.getLogger(TimeSeriesService.class);
+    private static final long MIN_AGGREGATION_WINDOW_SECONDS = 1;
+    private static final Set<String> RECORD_COLUMNS = Set.of("_time", "_measurement", "deviceId");
+    private static final Duration LOG_PAGE_LOOKBACK = Duration.ofHours(24);
+    private static final int MAX_LOG_PAGE_SIZE = 1000;
 
-    private final InfluxDBClient influxDBClient;
-    private final WriteApi writeApi;
+    private final TimeSeriesStore store;
     private final ObjectMapper objectMapper;
-    private final String bucket;
-    private final String org;
+    private final RecentReadingsCache recentReadings;
 
     public TimeSeriesService(
-            InfluxDBClient influxDBClient,
-            WriteApi writeApi,
+            TimeSeriesStore store,
             ObjectMapper objectMapper,
-            @Value("${influx.bucket}") String bucket,
-            @Value("${influx.org}") String org) {
-        this.influxDBClient = influxDBClient;
-        this.writeApi = writeApi;
+            RecentReadingsCache recentReadings) {
+        this.store = store;
         this.objectMapper = objectMapper;
-        this.bucket = bucket;
-        this.org = org;
-    }
-
-    private List<Map<String, Object>> executeQuery(String fluxQuery) {
-        logger.debug("Executing Flux query: {}", fluxQuery);
-        try {
-            QueryApi queryApi = influxDBClient.getQueryApi();
-            List<FluxTable> tables = queryApi.query(fluxQuery, org);
-
-            List<Map<String, Object>> result = new ArrayList<>();
-            for (FluxTable table : tables) {
-                for (FluxRecord fluxRecord : table.getRecords()) {
-                    result.add(fluxRecord.getValues());
-                }
-            }
-            return result;
-        } catch (RuntimeException e) {
-            logger.error("Failed to execute Flux query", e);
-            return List.of();
-        }
-    }
-
-    private String sanitize(String input) {
-        if (input == null) return "";
-        return input.replace("\"", "\\\"");
+        this.recentReadings = recentReadings;
     }
 
     public Optional<Double> queryAggregate(String deviceId, String field, String range, AggregateFunction aggregateFunction) {
@@ -80,57 +60,173 @@ public class TimeSeriesService {
             rangeParam = "-" + range;
         }
 
-        String fluxQuery = String.format("""
-            from(bucket: "%s")
-              |> range(start: duration(v: "%s"))
-              |> filter(fn: (r) => r._measurement == "%s")
-              |> filter(fn: (r) => r.deviceId == "%s")
-              |> filter(fn: (r) => r._field == "%s")
-              |> %s()
-            """,
-                sanitize(bucket),
-                sanitize(rangeParam),
-                sanitize(Measurement.SENSOR_READINGS.getValue()),
-                sanitize(deviceId),
-                sanitize(field),
-                aggregateFunction.toFluxFunction()
-        );
-
-        List<Map<String, Object>> result = executeQuery(fluxQuery);
-        return extractAggregateResult(result);
-    }
-
-    private Optional<Double> extractAggregateResult(List<Map<String, Object>> result) {
-        if (result.isEmpty()) {
-            return Optional.empty();
+        Optional<Instant> rangeStart = resolveStart(rangeParam);
+        if (rangeStart.isPresent() && isCached(deviceId, rangeStart.get())) {
+            return recentReadings.aggregate(deviceId, field, rangeStart.get(), aggregateFunction);
         }
-        Object value = result.getFirst().get("_value");
-        if (value instanceof Number number) {
-            return Optional.of(number.doubleValue());
+
+        return store.aggregateSensorReadings(deviceId, field, rangeParam, aggregateFunction);
+    }
+
+    private static Optional<Instant> resolveStart(String range) {
+        try {
+            return Optional.of(HistoryRange.resolve(range, null, Instant.now()).start());
+        } catch (RuntimeException e) {
+            // leave ranges we cannot interpret to the store, as before
+            return Optional.empty();
         }
-        return Optional.empty();
     }
 
     public List<Map<String, Object>> readSensorData(String deviceId, String start, String stop) {
-        String startParam = start;
-        if (!start.startsWith("-") && !start.contains("T")) {
-            startParam = "-" + start;
+        return store.readSensorReadings(deviceId, start, stop);
+    }
+
+    /**
+     * Streams sensor readings record by record instead of materializing the whole result.
+     * Blocks until the query completes, so memory stays bounded by the consumer, not the range.
+     */
+    public void streamSensorData(String deviceId, String start, String stop, Consumer<Map<String, Object>> consumer) {
+        streamRawSensorData(deviceId, start, stop, HistoryRange.resolve(start, stop, Instant.now()), consumer);
+    }
+
+    /**
+     * Serves the part of the range held by the recent readings cache from memory and only the
+     * older remainder, if any, from the store.
+     */
+    private void streamRawSensorData(String deviceId, String start, String stop, HistoryRange range,
+                                     Consumer<Map<String, Object>> consumer) {
+        Instant cachedFrom = recentReadings.coveredFrom(deviceId).orElse(null);
+        if (cachedFrom == null || range.stop().isBefore(cachedFrom)) {
+            store.streamSensorReadings(deviceId, start, stop, null, consumer);
+            return;
+        }
+        if (range.start().isBefore(cachedFrom)) {
+            store.streamSensorReadings(deviceId, start, cachedFrom.toString(), null, consumer);
+        }
+        recentReadings.stream(deviceId, range.start(), range.stop(), consumer);
+    }
+
+    private boolean isCached(String deviceId, Instant from) {
+        return recentReadings.coveredFrom(deviceId)
+                .map(cachedFrom -> !from.isBefore(cachedFrom))
+                .orElse(false);
+    }
+
+    /**
+     * Streams sensor readings reduced to roughly {@code maxPoints} records, so the response size
+     * follows the chart width rather than the time range. {@code WINDOW} mode aggregates in the
+     * store ({@code aggregateWindow} on InfluxDB); {@code LTTB} mode downsamples the raw stream on the fly.
+     */
+    public void streamSensorData(String deviceId, String start, String stop,
+                                 DownsamplingRequest downsampling, Consumer<Map<String, Object>> consumer) {
+        if (downsampling == null) {
+            streamSensorData(deviceId, start, stop, consumer);
+            return;
+        }
+        validateDownsampling(downsampling);
+
+        HistoryRange range = HistoryRange.resolve(start, stop, Instant.now());
+        if (downsampling.mode() == DownsampleMode.LTTB) {
+            LttbDownsampler downsampler = new LttbDownsampler(
+                    range, downsampling.maxPoints(), downsampling.field(), consumer);
+            streamRawSensorData(deviceId, start, stop, range, downsampler);
+            downsampler.finish();
+        } else {
+            Duration window = aggregationWindow(range, downsampling.maxPoints());
+            if (isCached(deviceId, range.start())) {
+                recentReadings.streamAggregated(deviceId, range.start(), range.stop(), window, consumer);
+            } else {
+                store.streamSensorReadings(deviceId, start, stop, window, consumer);
+            }
+        }
+    }
+
+    /**
+     * Streams the history of several devices for comparison views. Devices whose range is held by
+     * the recent readings cache are served from memory, all others with a single store query,
+     * instead of one query per device.
+     */
+    public void streamHistory(HistoryQueryRequest request, Consumer<Map<String, Object>> consumer) {
+        HistoryRange range = HistoryRange.resolve(request.start(), request.stop(), Instant.now());
+        Duration window = historyWindow(request);
+        Set<String> fields = request.fields() != null ? new LinkedHashSet<>(request.fields()) : Set.of();
+
+        List<String> cachedDevices = new ArrayList<>();
+        List<String> storedDevices = new ArrayList<>();
+        for (String deviceId : new LinkedHashSet<>(request.deviceIds())) {
+            if (isCached(deviceId, range.start())) {
+                cachedDevices.add(deviceId);
+            } else {
+                storedDevices.add(deviceId);
+            }
         }
 
-        String fluxQuery = String.format("""
-                from(bucket: "%s")
-                  |> range(start: duration(v: "%s"), stop: now())
-                  |> filter(fn: (r) => r._measurement == "%s")
-                  |> filter(fn: (r) => r.deviceId == "%s")
-                  |> pivot(rowKey:["_time"], columnKey: ["_field"], valueColumn: "_value")
-                """,
-                sanitize(bucket),
-                sanitize(startParam),
-                sanitize(Measurement.SENSOR_READINGS.getValue()),
-                sanitize(deviceId)
-        );
+        if (!storedDevices.isEmpty()) {
+            store.streamSensorReadings(storedDevices, fields, request.start(), request.stop(), window, consumer);
+        }
+        Consumer<Map<String, Object>> projected = fields.isEmpty() ? consumer : project(fields, consumer);
+        for (String deviceId : cachedDevices) {
+            if (window != null) {
+                recentReadings.streamAggregated(deviceId, range.start(), range.stop(), window, projected);
+            } else {
+                recentReadings.stream(deviceId, range.start(), range.stop(), projected);
+            }
+        }
+    }
 
-        return executeQuery(fluxQuery);
+    /**
+     * Checks the range and window of a history query up front, so a streaming caller can still
+     * answer with an error status before the response is committed.
+     */
+    public void validateHistoryQuery(HistoryQueryRequest request) {
+        HistoryRange.resolve(request.start(), request.stop(), Instant.now());
+        historyWindow(request);
+    }
+
+    /**
+     * Checks the range and downsampling of a device history request up front, for the same reason
+     * as {@link #validateHistoryQuery}.
+     */
+    public void validateSensorDataQuery(String start, String stop, DownsamplingRequest downsampling) {
+        HistoryRange.resolve(start, stop, Instant.now());
+        if (downsampling != null) {
+            validateDownsampling(downsampling);
+        }
+    }
+
+    private static void validateDownsampling(DownsamplingRequest downsampling) {
+        if (downsampling.maxPoints() <= 0) {
+            throw new IllegalArgumentException("maxPoints must be positive");
+        }
+        if (downsampling.mode() == DownsampleMode.LTTB && downsampling.maxPoints() < LttbDownsampler.MIN_POINTS) {
+            throw new IllegalArgumentException(
+                    "maxPoints must be at least " + LttbDownsampler.MIN_POINTS + " for LTTB downsampling");
+        }
+    }
+
+    private static Duration historyWindow(HistoryQueryRequest request) {
+        if (request.window() == null || request.window().isBlank()) {
+            return null;
+        }
+        Duration window = HistoryRange.parseDuration(request.window());
+        if (window.toSeconds() < MIN_AGGREGATION_WINDOW_SECONDS) {
+            throw new IllegalArgumentException("window must be at least " + MIN_AGGREGATION_WINDOW_SECONDS + "s");
+        }
+        return window;
+    }
+
+    private static Consumer<Map<String, Object>> project(Set<String> fields, Consumer<Map<String, Object>> consumer) {
+        return values -> {
+            values.keySet().removeIf(key -> !fields.contains(key) && !RECORD_COLUMNS.contains(key));
+            if (values.keySet().stream().anyMatch(fields::contains)) {
+                consumer.accept(values);
+            }
+        };
+    }
+
+    private static Duration aggregationWindow(HistoryRange range, int maxPoints) {
+        long windowSeconds = Math.ceilDiv(range.duration().toSeconds(), maxPoints);
+        return Duration.ofSeconds(Math.max(MIN_AGGREGATION_WINDOW_SECONDS, windowSeconds));
     }
 
     public void writeSensorData(String deviceId, String payloadJson) {
@@ -146,46 +242,49 @@ public class TimeSeriesService {
             if (sensorsNode.isMissingNode() || !sensorsNode.isObject()) {
                 return;
             }
-            Point point = Point.measurement(Measurement.SENSOR_READINGS.getValue())
-                    .addTag("deviceId", deviceId)
-                    .time(Instant.now(), WritePrecision.NS);
 
+            Map<String, Double> fields = new LinkedHashMap<>();
             sensorsNode.fields().forEachRemaining((Map.Entry<String, JsonNode> entry) -> {
                 if (entry.getValue().isNumber()) {
-                    point.addField(entry.getKey(), entry.getValue().asDouble());
+                    fields.put(entry.getKey(), entry.getValue().asDouble());
                 }
             });
 
-            if (point.hasFields()) {
-                writeApi.writePoint(point);
+            if (!fields.isEmpty()) {
+                Instant time = Instant.now();
+                store.writeSensorReading(deviceId, time, fields);
+                recentReadings.record(deviceId, time, fields);
             }
         } catch (JsonProcessingException e) {
-            logger.error("INFLUXDB JSON Error: {}", e.getMessage());
+            logger.error("TIMESERIES JSON Error: {}", e.getMessage());
         } catch (RuntimeException e) {
-            logger.error("INFLUXDB Runtime Error: {}", e.getMessage());
+            logger.error("TIMESERIES Runtime Error: {}", e.getMessage());
         }
     }
 
     public List<Map<String, Object>> readLogHistory(String range) {
-        String rangeParam = range;
-        if (!rangeParam.startsWith("-") && !rangeParam.contains("T")) {
-            rangeParam = "-" + rangeParam;
-        }
-
-        String fluxQuery = String.format("""
-                from(bucket: "%s")
-                  |> range(start: duration(v: "%s"))
-                  |> filter(fn: (r) => r._measurement == "%s")
-                  |> pivot(rowKey:["_time"], columnKey: ["_field"], valueColumn: "_value")
-                  |> sort(columns: ["_time"], desc: true)
-                  |> limit(n: 1000)
-                  |> sort(columns: ["_time"], desc: false)
-                """,
-                sanitize(bucket),
-                sanitize(rangeParam),
-                sanitize(Measurement.SYSTEM_LOGS.getValue())
-        );
-
-        return executeQuery(fluxQuery);
-    }
-}
\ No newline at end of file
+        return store.readLogHistory(range);
+    }
+
+    /**
+     * Builds the query for one page of log history. Cursors are exclusive timestamps: with
+     * {@code after} the page holds the oldest entries following it, otherwise the newest entries
+     * preceding {@code before} (now when absent), looking back at most {@link #LOG_PAGE_LOOKBACK}.
+     */
+    public LogQuery logPage(Instant after, Instant before, int limit, Set<LogLevel> levels, String loggerPrefix) {
+        if (limit < 1 || limit > MAX_LOG_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LOG_PAGE_SIZE);
+        }
+        Instant to = before != null ? before : Instant.now();
+        if (after != null && !after.isBefore(to)) {
+            throw new IllegalArgumentException("after must be earlier than before");
+        }
+        Instant from = after != null ? after.truncatedTo(ChronoUnit.MILLIS).plusMillis(1) : to.minus(LOG_PAGE_LOOKBACK);
+        String prefix = loggerPrefix == null || loggerPrefix.isBlank() ? null : loggerPrefix;
+        return new LogQuery(from, to, after == null, limit, levels, prefix);
+    }
+
+    public void streamLogs(LogQuery query, Consumer<Map<String, Object>> consumer) {
+        store.streamLogEntries(query, consumer);
+    }
+}
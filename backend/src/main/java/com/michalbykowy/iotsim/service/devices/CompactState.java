@@ -0,0 +1,86 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Device state as the in-memory fleet views keep it: an interned {@link FieldLayout} and one
+ * {@code double} per field, {@code NaN} where the value is not a number (JSON has no NaN of its own).
+ * <p>
+ * A {@link JsonNode} state costs an object node, a map entry and a boxed value per field plus a copy
+ * of every field name; this costs a few bytes per field. {@link DeviceRegistry} converts the state
+ * once per committed write and hands the same instance to every {@link DeviceChangeListener}. Only
+ * top-level fields are kept, which is what the views read.
+ * </p>
+ */
+public final class CompactState {
+
+    static final CompactState EMPTY = new CompactState(FieldLayout.EMPTY, new double[0]);
+
+    private final FieldLayout layout;
+    private final double[] values;
+
+    private CompactState(FieldLayout layout, double[] values) {
+        this.layout = layout;
+        this.values = values;
+    }
+
+    public static CompactState of(JsonNode state) {
+        if (state == null || !state.isObject() || state.isEmpty()) {
+            return EMPTY;
+        }
+        List<Map.Entry<String, JsonNode>> fields = new ArrayList<>(state.size());
+        state.fields().forEachRemaining(fields::add);
+        fields.sort(Map.Entry.comparingByKey());
+
+        String[] names = new String[fields.size()];
+        double[] values = new double[fields.size()];
+        for (int slot = 0; slot < names.length; slot++) {
+            JsonNode value = fields.get(slot).getValue();
+            names[slot] = fields.get(slot).getKey();
+            values[slot] = value.isNumber() ? value.asDouble() : Double.NaN;
+        }
+        return new CompactState(FieldLayout.intern(names), values);
+    }
+
+    public FieldLayout layout() {
+        return layout;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public String name(int slot) {
+        return layout.name(slot);
+    }
+
+    public boolean isNumeric(int slot) {
+        return !Double.isNaN(values[slot]);
+    }
+
+    public double value(int slot) {
+        return values[slot];
+    }
+
+    /** Whether field {@code name} holds exactly {@code value}. */
+    public boolean hasValue(String name, double value) {
+        int slot = layout.slotOf(name);
+        return slot >= 0 && Double.compare(values[slot], value) == 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other || other instanceof CompactState state
+                && layout == state.layout && Arrays.equals(values, state.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * layout.hashCode() + Arrays.hashCode(values);
+    }
+}
@@ -0,0 +1,11 @@
+package com.michalbykowy.iotsim.service.devices;
+
+/**
+ * Tells whether any client is subscribed to a broker destination, so publishers can skip building
+ * and serializing frames nobody would receive.
+ */
+@FunctionalInterface
+public interface DestinationSubscriptions {
+
+    boolean hasSubscribers(String destination);
+}
@@ -0,0 +1,19 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.michalbykowy.iotsim.model.Device;
+
+/**
+ * In-memory view of the fleet kept current by {@link DeviceRegistry}.
+ * <p>
+ * A listener is handed every device once at startup and then every committed write and deletion, so
+ * it never has to read the database itself. Calls come from whichever thread committed the write.
+ * Along with the device comes its state as a {@link CompactState}, converted once for all listeners;
+ * a listener that keeps per-device state keeps that instance rather than the JSON.
+ * </p>
+ */
+public interface DeviceChangeListener {
+
+    void deviceChanged(Device device, CompactState state);
+
+    void deviceRemoved(String deviceId);
+}
@@ -0,0 +1,173 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Striped per-device locks around state mutation.
+ * <p>
+ * Devices are hashed onto a fixed number of reentrant locks, so updates of one device run one after
+ * another while unrelated devices proceed in parallel, without a lock object per device. Cached
+ * devices are shared entities, so reading, changing and writing one has to happen under its lock.
+ * </p>
+ * <p>
+ * Inside a transaction a lock is held until the transaction completes, so the next update of the
+ * device starts from committed state and commits after it. Outside one it is released when the
+ * action returns.
+ * </p>
+ * <p>
+ * The first lock of a transaction is waited for as long as it takes, as its thread holds no other.
+ * A rule chain then locks the devices it updates in an order nobody can predict; those locks are
+ * waited for at most {@code devices.locks.timeout-ms}, after which the transaction fails with a
+ * {@link CannotAcquireLockException} rather than deadlock. Two chains that wait for each other
+ * both fail that way, so {@link #retryWhenBlocked} runs such a transaction again after a random
+ * pause, which lets one of them go first.
+ * </p>
+ */
+@Component
+public class DeviceLocks {
+
+    private final ReentrantLock[] stripes;
+    private final long timeoutMs;
+    // locks this thread holds until its transaction completes
+    private final ThreadLocal<Deque<ReentrantLock>> held = new ThreadLocal<>();
+    private final Counter timeouts;
+    private final int retries;
+    private final long retryJitterMs;
+    private final Counter retried;
+
+    public DeviceLocks(@Value("${devices.locks.stripes}") int stripes,
+                       @Value("${devices.locks.timeout-ms}") long timeoutMs,
+                       @Value("${devices.locks.retries}") int retries,
+                       @Value("${devices.locks.retry-jitter-ms}") long retryJitterMs,
+                       MeterRegistry meterRegistry) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("devices.locks.stripes must be positive");
+        }
+        // rounded up to a power of two, so a stripe is picked by masking the hash
+        int size = Integer.highestOneBit(stripes);
+        this.stripes = new ReentrantLock[size < stripes ? size << 1 : size];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.timeoutMs = timeoutMs;
+        this.timeouts = meterRegistry.counter("devices.locks.timeouts");
+        this.retries = retries;
+        this.retryJitterMs = retryJitterMs;
+        this.retried = meterRegistry.counter("devices.locks.retries");
+    }
+
+    /**
+     * Runs {@code action} under the lock of {@code deviceId}.
+     */
+    public <T> T withLock(String deviceId, Supplier<T> action) {
+        ReentrantLock lock = stripeOf(deviceId);
+        acquire(lock, deviceId);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            try {
+                return action.get();
+            } finally {
+                lock.unlock();
+            }
+        }
+        holdUntilCompletion(lock);
+        return action.get();
+    }
+
+    public void runWithLock(String deviceId, Runnable action) {
+        withLock(deviceId, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs {@code transaction}, which starts and completes a transaction of its own, and runs it
+     * again when it failed waiting for a lock, at most {@code devices.locks.retries} times. Each
+     * retry waits a random time of up to {@code devices.locks.retry-jitter-ms} first, so
+     * transactions that blocked each other do not meet again. Inside an enclosing transaction
+     * nothing is retried, as only the whole of it could be.
+     */
+    public <T> T retryWhenBlocked(Supplier<T> transaction) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return transaction.get();
+        }
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return transaction.get();
+            } catch (PessimisticLockingFailureException e) {
+                if (attempt == retries) {
+                    throw e;
+                }
+                retried.increment();
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(retryJitterMs + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public int stripes() {
+        return stripes.length;
+    }
+
+    ReentrantLock stripeOf(String deviceId) {
+        int hash = deviceId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private void acquire(ReentrantLock lock, String deviceId) {
+        if (lock.isHeldByCurrentThread() || held.get() == null) {
+            lock.lock();
+            return;
+        }
+        try {
+            if (lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        timeouts.increment();
+        throw new CannotAcquireLockException("Timed out waiting for the lock of device " + deviceId);
+    }
+
+    private void holdUntilCompletion(ReentrantLock lock) {
+        Deque<ReentrantLock> locks = held.get();
+        if (locks == null) {
+            locks = new ArrayDeque<>();
+            held.set(locks);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    releaseAll();
+                }
+            });
+        }
+        locks.push(lock);
+    }
+
+    private void releaseAll() {
+        Deque<ReentrantLock> locks = held.get();
+        while (!locks.isEmpty()) {
+            locks.pop().unlock();
+        }
+        held.remove();
+    }
+}
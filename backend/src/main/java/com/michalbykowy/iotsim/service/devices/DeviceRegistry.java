@@ -0,0 +1,253 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceState;
+import com.michalbykowy.iotsim.repository.DeviceRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of single devices in front of {@link DeviceRepository}.
+ * <p>
+ * Lookups by id are answered from memory and go to the database only on a miss. Writes go through
+ * the registry, which persists them and keeps the saved device; a state update writes just the
+ * {@code device_state} row, so a known device is neither selected nor merged on the ingest path.
+ * At most {@code devices.cache.max-entries} devices are kept, the least recently used is evicted
+ * first. Listing queries keep going to the repository.
+ * </p>
+ * <p>
+ * Every committed write is also handed to the {@link DeviceChangeListener}s, such as the
+ * {@link DeviceSearchIndex}, which is how they follow ingest, rule actions and edits alike. At
+ * startup they are filled from a single read of all devices.
+ * </p>
+ * <p>
+ * Cached devices are detached entities shared between callers. A write whose transaction rolls back
+ * evicts the device again, so the next lookup reads what was actually committed. State writes are
+ * versioned and merged field by field, so a writer this process does not see, or a device cached
+ * before another one changed it, costs a retry in memory rather than a lost update.
+ * </p>
+ * <p>
+ * Committed writes are counted in two versions, one for the device rows and one for their state, so
+ * a reader can tell whether anything it read may have changed without reading it again. A version
+ * moves only after the commit, so it never runs ahead of what is visible in the database.
+ * </p>
+ */
+@Component
+@DependsOn("deviceStateMigration")
+public class DeviceRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceRegistry.class);
+
+    private final DeviceRepository deviceRepository;
+    private final List<DeviceChangeListener> listeners;
+    private final Map<String, Device> devices;
+    private final AtomicLong metadataVersion = new AtomicLong();
+    private final AtomicLong stateVersion = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Counter conflicts;
+    private final int maxRetries;
+
+    public DeviceRegistry(DeviceRepository deviceRepository,
+                          List<DeviceChangeListener> listeners,
+                          @Value("${devices.cache.max-entries}") int maxEntries,
+                          @Value("${devices.state.max-retries}") int maxRetries,
+                          MeterRegistry meterRegistry) {
+        this.deviceRepository = deviceRepository;
+        this.listeners = listeners;
+        this.maxRetries = maxRetries;
+        this.devices = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Device> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.hits = Counter.builder("devices.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("devices.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.evictions = meterRegistry.counter("devices.cache.evictions");
+        this.conflicts = meterRegistry.counter("devices.state.conflicts");
+        Gauge.builder("devices.cache.size", this, DeviceRegistry::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void load() {
+        List<Device> all = deviceRepository.findAll();
+        all.forEach(this::notifyChanged);
+        logger.info("Loaded {} devices into {} listeners", all.size(), listeners.size());
+    }
+
+    public Optional<Device> find(String deviceId) {
+        synchronized (devices) {
+            Device cached = devices.get(deviceId);
+            if (cached != null) {
+                hits.increment();
+                return Optional.of(cached);
+            }
+        }
+        misses.increment();
+        Optional<Device> loaded = deviceRepository.findById(deviceId);
+        loaded.ifPresent(device -> put(device, null));
+        return loaded;
+    }
+
+    /**
+     * Persists the whole device, metadata and state, and caches the saved instance.
+     */
+    public Device save(Device device) {
+        Device saved = deviceRepository.save(device);
+        put(saved, metadataVersion);
+        return saved;
+    }
+
+    /**
+     * Merges {@code changes} into the current state of a device as a JSON merge patch, so fields it
+     * does not name keep their value and a {@code null} removes one, and persists only the state row.
+     * A {@code null} {@code online} keeps the flag as it is. Falls back to a full save when the device
+     * has no state row yet.
+     * <p>
+     * The row is written only if it is still at the version the device was read with. If another
+     * writer got there first, its committed state is read back and the changes are merged onto it
+     * again, at most {@code devices.state.max-retries} times before the write fails with an
+     * {@link ObjectOptimisticLockingFailureException}.
+     * </p>
+     */
+    public Device mergeState(Device device, JsonNode changes, Boolean online) {
+        for (int retries = 0; ; retries++) {
+            JsonNode merged = JsonMergePatch.apply(device.getCurrentState(), changes);
+            boolean mergedOnline = online != null ? online : device.isOnline();
+            long version = device.getStateVersion();
+            // the device is changed only once written, so a copy managed by this transaction stays clean
+            if (deviceRepository.updateState(device.getId(), merged, mergedOnline, version) == 1) {
+                device.setCurrentState(merged);
+                device.setOnline(mergedOnline);
+                device.setStateVersion(version + 1);
+                put(device, stateVersion);
+                return device;
+            }
+            Optional<DeviceState> committed = deviceRepository.findState(device.getId());
+            if (committed.isEmpty()) {
+                device.setCurrentState(merged);
+                device.setOnline(mergedOnline);
+                return save(device);
+            }
+            conflicts.increment();
+            if (retries == maxRetries) {
+                evict(device.getId());
+                throw new ObjectOptimisticLockingFailureException(DeviceState.class, device.getId());
+            }
+            device.setCurrentState(committed.get().getCurrentState());
+            device.setOnline(committed.get().isOnline());
+            device.setStateVersion(committed.get().getVersion());
+        }
+    }
+
+    /**
+     * Replaces the state of a device with {@code state}, such as a reading the device reported
+     * itself, so fields it no longer reports go away. It is written as the patch from the state it
+     * replaces, so on a conflict only the fields this write changed are merged onto the newer
+     * committed state and what the other writer set is kept.
+     */
+    public Device replaceState(Device device, JsonNode state, Boolean online) {
+        JsonNode current = device.getCurrentState();
+        JsonNode changes = current != null && current.isObject() && state.isObject()
+                ? JsonMergePatch.diff(current, state)
+                : state;
+        return mergeState(device, changes, online);
+    }
+
+    /**
+     * Forgets a deleted device.
+     */
+    public void remove(String deviceId) {
+        evict(deviceId);
+        afterCommit(() -> {
+            metadataVersion.incrementAndGet();
+            listeners.forEach(listener -> listener.deviceRemoved(deviceId));
+        }, () -> {});
+    }
+
+    /**
+     * Number of committed writes of device names, types, roles, simulation settings and deletions.
+     */
+    public long metadataVersion() {
+        return metadataVersion.get();
+    }
+
+    /**
+     * Number of committed writes of device state and connectivity.
+     */
+    public long stateVersion() {
+        return stateVersion.get();
+    }
+
+    public int size() {
+        synchronized (devices) {
+            return devices.size();
+        }
+    }
+
+    /** Caches a device; {@code version} is the one to move on commit, {@code null} for a read. */
+    private void put(Device device, AtomicLong version) {
+        synchronized (devices) {
+            devices.put(device.getId(), device);
+        }
+        String deviceId = device.getId();
+        afterCommit(() -> {
+            if (version != null) {
+                version.incrementAndGet();
+                notifyChanged(device);
+            }
+        }, () -> evict(deviceId));
+    }
+
+    private void notifyChanged(Device device) {
+        CompactState state = CompactState.of(device.getCurrentState());
+        listeners.forEach(listener -> listener.deviceChanged(device, state));
+    }
+
+    private void evict(String deviceId) {
+        synchronized (devices) {
+            devices.remove(deviceId);
+        }
+    }
+
+    private static void afterCommit(Runnable committed, Runnable rolledBack) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            committed.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    committed.run();
+                } else {
+                    rolledBack.run();
+                }
+            }
+        });
+    }
+}
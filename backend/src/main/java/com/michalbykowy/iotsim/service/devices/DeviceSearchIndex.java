@@ -0,0 +1,274 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.michalbykowy.iotsim.dto.DeviceSearchQuery;
+import com.michalbykowy.iotsim.dto.DeviceSearchResponse;
+import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index of devices for search without the database.
+ * <p>
+ * Every device gets a dense slot number, and every term is a bit set over the slots: one per name
+ * token, type, role, online status, simulation status and sensor field name. A query intersects the
+ * bit sets of its terms, so its cost depends on the number of slots divided by 64, not on how many
+ * devices match. Name tokens are kept sorted, and a query word matches every token it is a prefix of;
+ * as most of them belong to few devices, their slots are kept as plain lists instead.
+ * </p>
+ * <p>
+ * The index is filled and kept current by {@link DeviceRegistry}, which hands it every device at
+ * startup and every committed write after that. A write that changes none of the indexed values is
+ * recognised under the read lock and costs no update.
+ * </p>
+ */
+@Component
+public class DeviceSearchIndex implements DeviceChangeListener {
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private record Entry(DeviceSummary summary, FieldLayout fields, Set<String> nameTokens) {}
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private final BitSet indexed = new BitSet();
+    private final Map<String, BitSet> terms = new HashMap<>();
+    private final TreeMap<String, Slots> nameTokens = new TreeMap<>();
+
+    public DeviceSearchIndex(MeterRegistry meterRegistry) {
+        Gauge.builder("devices.search.indexed", this, DeviceSearchIndex::size).register(meterRegistry);
+    }
+
+    @Override
+    public void deviceChanged(Device device, CompactState state) {
+        DeviceSummary summary = new DeviceSummary(device.getId(), device.getName(), device.getType(),
+                device.getRole(), device.isSimulationActive(), Boolean.TRUE.equals(device.isOnline()));
+        FieldLayout fields = state.layout();
+
+        lock.readLock().lock();
+        try {
+            Integer slot = slots.get(device.getId());
+            if (slot != null) {
+                Entry current = entries.get(slot);
+                if (current.summary().equals(summary) && current.fields() == fields) {
+                    return;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.get(device.getId());
+            if (slot != null) {
+                unindex(slot, entries.get(slot));
+            } else {
+                slot = freeSlots.isEmpty() ? entries.size() : freeSlots.pop();
+                slots.put(device.getId(), slot);
+                if (slot == entries.size()) {
+                    entries.add(null);
+                }
+            }
+            Entry entry = new Entry(summary, fields, tokenize(summary.name()));
+            entries.set(slot, entry);
+            index(slot, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deviceRemoved(String deviceId) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.remove(deviceId);
+            if (slot != null) {
+                unindex(slot, entries.get(slot));
+                entries.set(slot, null);
+                freeSlots.push(slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devices matching every criterion of {@code query}, in slot order, at most {@code limit} of them,
+     * together with the number of all matches.
+     */
+    public DeviceSearchResponse search(DeviceSearchQuery query) {
+        lock.readLock().lock();
+        try {
+            BitSet matches = (BitSet) indexed.clone();
+            if (query.type() != null) {
+                matches.and(term("type:" + query.type().name()));
+            }
+            if (query.role() != null) {
+                matches.and(term("role:" + query.role().name()));
+            }
+            if (query.online() != null) {
+                matches.and(term("online:" + query.online()));
+            }
+            if (query.simulationActive() != null) {
+                matches.and(term("simulationActive:" + query.simulationActive()));
+            }
+            for (String field : query.fields()) {
+                matches.and(term("field:" + field));
+            }
+            for (String word : tokenize(query.text())) {
+                matchPrefix(matches, word);
+            }
+
+            List<DeviceSummary> devices = new ArrayList<>(Math.min(query.limit(), matches.cardinality()));
+            for (int slot = matches.nextSetBit(0); slot >= 0 && devices.size() < query.limit();
+                 slot = matches.nextSetBit(slot + 1)) {
+                devices.add(entries.get(slot).summary());
+            }
+            return new DeviceSearchResponse(matches.cardinality(), devices);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Keeps the devices with a name token starting with {@code word}. A short word can start thousands
+     * of tokens, so the slots of each token are merged one by one, at a cost of the matching slots
+     * rather than of the whole bit set per token.
+     */
+    private void matchPrefix(BitSet matches, String word) {
+        BitSet prefixed = new BitSet();
+        // every token starting with the word sorts between the word and the word followed by the highest char
+        for (Slots slots : nameTokens.subMap(word, true, word + Character.MAX_VALUE, false).values()) {
+            slots.setAll(prefixed);
+        }
+        matches.and(prefixed);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private BitSet term(String term) {
+        return terms.getOrDefault(term, new BitSet());
+    }
+
+    private void index(int slot, Entry entry) {
+        indexed.set(slot);
+        for (String term : termsOf(entry)) {
+            terms.computeIfAbsent(term, key -> new BitSet()).set(slot);
+        }
+        for (String token : entry.nameTokens()) {
+            nameTokens.computeIfAbsent(token, key -> new Slots()).add(slot);
+        }
+    }
+
+    private void unindex(int slot, Entry entry) {
+        indexed.clear(slot);
+        for (String term : termsOf(entry)) {
+            clear(terms, term, slot);
+        }
+        for (String token : entry.nameTokens()) {
+            Slots slots = nameTokens.get(token);
+            if (slots != null && slots.remove(slot)) {
+                nameTokens.remove(token);
+            }
+        }
+    }
+
+    private static void clear(Map<String, BitSet> postings, String key, int slot) {
+        BitSet bits = postings.get(key);
+        if (bits != null) {
+            bits.clear(slot);
+            if (bits.isEmpty()) {
+                postings.remove(key);
+            }
+        }
+    }
+
+    private static List<String> termsOf(Entry entry) {
+        DeviceSummary summary = entry.summary();
+        List<String> terms = new ArrayList<>(4 + entry.fields().size());
+        if (summary.type() != null) {
+            terms.add("type:" + summary.type().name());
+        }
+        if (summary.role() != null) {
+            terms.add("role:" + summary.role().name());
+        }
+        terms.add("online:" + Objects.requireNonNullElse(summary.online(), false));
+        terms.add("simulationActive:" + summary.simulationActive());
+        for (int slot = 0; slot < entry.fields().size(); slot++) {
+            terms.add("field:" + entry.fields().name(slot));
+        }
+        return terms;
+    }
+
+    private static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /** Unordered slots of a name token. */
+    private static final class Slots {
+
+        private int[] slots = new int[1];
+        private int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        /** Returns whether no slot is left. */
+        boolean remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    break;
+                }
+            }
+            return size == 0;
+        }
+
+        void setAll(BitSet bits) {
+            for (int i = 0; i < size; i++) {
+                bits.set(slots[i]);
+            }
+        }
+    }
+}
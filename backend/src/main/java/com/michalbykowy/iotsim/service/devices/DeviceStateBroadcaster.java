@@ -0,0 +1,293 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.michalbykowy.iotsim.dto.DeviceResponse;
+import com.michalbykowy.iotsim.dto.DeviceStateMessage;
+import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces device updates and sends them as versioned deltas.
+ * <p>
+ * Publishing only marks a device dirty and keeps its latest state; every flush interval all dirty
+ * devices go out together in one frame holding an array of {@link DeviceStateMessage}s. A device is
+ * therefore sent at most once per interval, intermediate states of a burst are skipped, and the last
+ * state is always delivered because it stays pending until the next flush.
+ * </p>
+ * <p>
+ * The first message of a device carries its full state, later ones only a merge patch against the
+ * previously sent state, so unchanged parts such as the simulation config are not repeated. Each
+ * message bumps the version of its device by one; a client that sees a gap fetches a
+ * {@link #snapshot(Collection) snapshot} and continues from the versions in it.
+ * </p>
+ * <p>
+ * Besides the whole fleet on {@value #DESTINATION}, every device has its own destination
+ * {@code /topic/devices/{id}} and belongs to the groups of its type and role, e.g.
+ * {@code /topic/groups/virtual} and {@code /topic/groups/sensor}. A frame is built only for
+ * destinations with subscribers, and a device nobody watches is neither diffed nor serialized: its
+ * delta base is dropped and its next message carries the full state again.
+ * </p>
+ * <p>
+ * Every change also gets the next number of a global sequence and goes into a bounded replay log, so
+ * a reconnecting client asks only for the {@link #changesSince changes after} the last sequence it
+ * saw. The sequence restarts with the process; the {@link #epoch() epoch} tells clients which run
+ * their sequence belongs to.
+ * </p>
+ */
+@Component
+public class DeviceStateBroadcaster {
+
+    public static final String DESTINATION = "/topic/devices";
+    private static final String GROUP_DESTINATION_PREFIX = "/topic/groups/";
+
+    /** {@code state} is {@code null} once the delta base was dropped while nobody was subscribed. */
+    private record SentState(JsonNode state, long version) {}
+
+    /** A sent message, a change nobody received ({@code message} is {@code null}), or a removal. */
+    private record Change(long sequence, String deviceId, DeviceStateMessage message, boolean removed) {}
+
+    /**
+     * Changes after a sequence: the messages to replay in order, the devices whose current state has
+     * to be read instead because some of their changes were never sent, and the removed devices.
+     */
+    public record ReplayedChanges(long sequence, List<DeviceStateMessage> messages, Set<String> stale,
+                                  Set<String> removed) {}
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final DestinationSubscriptions subscriptions;
+    private final ObjectMapper objectMapper;
+    private final Map<String, DeviceResponse> pending = new ConcurrentHashMap<>();
+    private final Map<String, SentState> sent = new ConcurrentHashMap<>();
+    private final String epoch = UUID.randomUUID().toString();
+    private final Deque<Change> replayLog = new ArrayDeque<>();
+    private final int replayCapacity;
+    private long sequence;
+    private long evictedThrough;
+    private final Counter sentUpdates;
+    private final Counter coalescedUpdates;
+    private final Counter unchangedUpdates;
+    private final Counter unobservedUpdates;
+
+    public DeviceStateBroadcaster(SimpMessagingTemplate messagingTemplate, DestinationSubscriptions subscriptions,
+                                  ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                  @Value("${devices.replay.capacity}") int replayCapacity) {
+        this.messagingTemplate = messagingTemplate;
+        this.subscriptions = subscriptions;
+        this.objectMapper = objectMapper;
+        this.replayCapacity = replayCapacity;
+        this.sentUpdates = Counter.builder("devices.broadcast.updates").tag("outcome", "sent").register(meterRegistry);
+        this.coalescedUpdates = Counter.builder("devices.broadcast.updates").tag("outcome", "coalesced").register(meterRegistry);
+        this.unchangedUpdates = Counter.builder("devices.broadcast.updates").tag("outcome", "unchanged").register(meterRegistry);
+        this.unobservedUpdates = Counter.builder("devices.broadcast.updates").tag("outcome", "unobserved").register(meterRegistry);
+    }
+
+    public static String deviceDestination(String deviceId) {
+        return DESTINATION + "/" + deviceId;
+    }
+
+    public static String groupDestination(String group) {
+        return GROUP_DESTINATION_PREFIX + group.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Groups a device is published to: its type and its role.
+     */
+    public static List<String> groupsOf(DeviceType type, DeviceRole role) {
+        List<String> groups = new ArrayList<>(2);
+        if (type != null) {
+            groups.add(type.name().toLowerCase(Locale.ROOT));
+        }
+        if (role != null) {
+            groups.add(role.name().toLowerCase(Locale.ROOT));
+        }
+        return groups;
+    }
+
+    public void publish(Device device) {
+        if (pending.put(device.getId(), toResponse(device)) != null) {
+            coalescedUpdates.increment();
+        }
+    }
+
+    /**
+     * Drops a pending update and the delta base of a deleted device, so it is not sent again, and
+     * records the removal for replay.
+     */
+    public synchronized void forget(String deviceId) {
+        pending.remove(deviceId);
+        sent.remove(deviceId);
+        record(deviceId, null, true);
+    }
+
+    public String epoch() {
+        return epoch;
+    }
+
+    public synchronized long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Full state of {@code devices} with the versions later deltas build on: the last sent state
+     * where there is one, otherwise the given state at the last known version or 0.
+     */
+    public synchronized List<DeviceStateMessage> snapshot(Collection<Device> devices) {
+        List<DeviceStateMessage> snapshot = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            SentState state = sent.get(device.getId());
+            if (state != null && state.state() != null) {
+                snapshot.add(DeviceStateMessage.snapshot(device.getId(), state.version(), sequence, state.state()));
+            } else {
+                long version = state == null ? 0 : state.version();
+                snapshot.add(DeviceStateMessage.snapshot(device.getId(), version, sequence,
+                        objectMapper.valueToTree(toResponse(device))));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Changes after {@code since} of the run identified by {@code epoch}, or empty when they cannot be
+     * replayed: another run, a sequence from the future, or changes already evicted from the log.
+     */
+    public synchronized Optional<ReplayedChanges> changesSince(String epoch, long since) {
+        if (!this.epoch.equals(epoch) || since > sequence || since < evictedThrough) {
+            return Optional.empty();
+        }
+        List<Change> range = replayLog.stream().filter(change -> change.sequence() > since).toList();
+        Set<String> stale = new LinkedHashSet<>();
+        Set<String> removed = new LinkedHashSet<>();
+        for (Change change : range) {
+            if (change.removed()) {
+                removed.add(change.deviceId());
+                stale.remove(change.deviceId());
+            } else if (change.message() == null || removed.contains(change.deviceId())) {
+                // a device recreated after its removal starts over at version 1
+                stale.add(change.deviceId());
+            }
+        }
+        List<DeviceStateMessage> messages = range.stream()
+                .filter(change -> change.message() != null)
+                .filter(change -> !stale.contains(change.deviceId()) && !removed.contains(change.deviceId()))
+                .map(Change::message)
+                .toList();
+        return Optional.of(new ReplayedChanges(sequence, messages, stale, removed));
+    }
+
+    @Scheduled(fixedDelayString = "${devices.broadcast.interval-ms}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, Boolean> subscribed = new HashMap<>();
+        Map<String, List<DeviceStateMessage>> frames = new LinkedHashMap<>();
+        for (String deviceId : pending.keySet()) {
+            // an update arriving after the remove stays pending for the next flush
+            DeviceResponse response = pending.remove(deviceId);
+            if (response == null) {
+                continue;
+            }
+            List<String> destinations = destinationsOf(response).stream()
+                    .filter(destination -> subscribed.computeIfAbsent(destination, subscriptions::hasSubscribers))
+                    .toList();
+            if (destinations.isEmpty()) {
+                dropDeltaBase(deviceId);
+                continue;
+            }
+            DeviceStateMessage message = delta(deviceId, objectMapper.valueToTree(response));
+            if (message != null) {
+                for (String destination : destinations) {
+                    frames.computeIfAbsent(destination, key -> new ArrayList<>()).add(message);
+                }
+                sentUpdates.increment();
+            }
+        }
+        frames.forEach(messagingTemplate::convertAndSend);
+    }
+
+    private static List<String> destinationsOf(DeviceResponse device) {
+        List<String> destinations = new ArrayList<>(4);
+        destinations.add(DESTINATION);
+        destinations.add(deviceDestination(device.id()));
+        for (String group : groupsOf(device.type(), device.role())) {
+            destinations.add(groupDestination(group));
+        }
+        return destinations;
+    }
+
+    /**
+     * Keeps only the version of an unwatched device, bumped past the unsent change, so the next message
+     * after a subscription starts with the full state and still continues the version sequence.
+     */
+    private void dropDeltaBase(String deviceId) {
+        sent.computeIfPresent(deviceId, (id, previous) -> new SentState(null, previous.version() + 1));
+        record(deviceId, null, false);
+        unobservedUpdates.increment();
+    }
+
+    private void record(String deviceId, DeviceStateMessage message, boolean removed) {
+        sequence++;
+        replayLog.addLast(new Change(sequence, deviceId, message, removed));
+        while (replayLog.size() > replayCapacity) {
+            evictedThrough = replayLog.removeFirst().sequence();
+        }
+    }
+
+    private DeviceStateMessage delta(String deviceId, JsonNode state) {
+        SentState previous = sent.get(deviceId);
+        if (previous == null || previous.state() == null) {
+            long version = previous == null ? 1 : previous.version() + 1;
+            sent.put(deviceId, new SentState(state, version));
+            return recorded(DeviceStateMessage.snapshot(deviceId, version, sequence + 1, state));
+        }
+        JsonNode patch = JsonMergePatch.diff(previous.state(), state);
+        if (patch.isEmpty()) {
+            unchangedUpdates.increment();
+            return null;
+        }
+        long version = previous.version() + 1;
+        sent.put(deviceId, new SentState(state, version));
+        return recorded(DeviceStateMessage.patch(deviceId, version, sequence + 1, patch));
+    }
+
+    private DeviceStateMessage recorded(DeviceStateMessage message) {
+        record(message.id(), message, false);
+        return message;
+    }
+
+    private static DeviceResponse toResponse(Device device) {
+        return new DeviceResponse(
+                device.getId(),
+                device.getName(),
+                device.getType(),
+                device.getRole(),
+                device.getCurrentState(),
+                device.getSimulationConfig(),
+                device.isSimulationActive(),
+                device.isOnline()
+        );
+    }
+}
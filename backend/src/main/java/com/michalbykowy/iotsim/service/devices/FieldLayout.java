@@ -0,0 +1,77 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Sorted field names of a device state, shared by every state with the same fields.
+ * <p>
+ * Layouts are interned, so devices reporting the same fields point to one instance, and its names
+ * are the only copies of those strings in the in-memory views. A {@link CompactState} keeps just a
+ * layout and one primitive slot per field.
+ * </p>
+ * <p>
+ * Field names come straight from device payloads, so the dictionary holds layouts weakly: a layout
+ * no {@link CompactState} refers to any more, such as one of a deleted device or of keys a device
+ * stopped sending, is garbage collected and drops out.
+ * </p>
+ */
+public final class FieldLayout {
+
+    // guarded by itself; the value only refers to the key weakly, so it does not keep the entry alive
+    private static final Map<FieldLayout, WeakReference<FieldLayout>> LAYOUTS = new WeakHashMap<>();
+
+    static final FieldLayout EMPTY = intern(new String[0]);
+
+    private final String[] names;
+    private final int hash;
+
+    private FieldLayout(String[] names) {
+        this.names = names;
+        this.hash = Arrays.hashCode(names);
+    }
+
+    /** The shared layout of {@code names}, which must be sorted and free of duplicates. */
+    static FieldLayout intern(String[] names) {
+        FieldLayout candidate = new FieldLayout(names);
+        synchronized (LAYOUTS) {
+            WeakReference<FieldLayout> reference = LAYOUTS.get(candidate);
+            FieldLayout existing = reference != null ? reference.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+            LAYOUTS.put(candidate, new WeakReference<>(candidate));
+            return candidate;
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int slot) {
+        return names[slot];
+    }
+
+    /** Slot of {@code name}, or a negative number when the layout has no such field. */
+    public int slotOf(String name) {
+        return Arrays.binarySearch(names, name);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other || other instanceof FieldLayout layout && Arrays.equals(names, layout.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(names);
+    }
+}
@@ -0,0 +1,179 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.michalbykowy.iotsim.dto.FleetStatsResponse;
+import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fleet-wide counters and aggregates, maintained per change instead of computed per request.
+ * <p>
+ * For every device the values it contributes are remembered: type, role, online and simulation flags
+ * and its {@link CompactState}. A change takes back the previous contribution and adds the new one, so
+ * counts and sums stay exact at a cost per change that does not grow with the fleet. Minimum and
+ * maximum of a field must survive the removal of the current extreme, so each field keeps its values
+ * as a sorted multiset. Reading the statistics therefore costs only the number of fields.
+ * </p>
+ * <p>
+ * The statistics are pushed to {@value #DESTINATION} every {@code fleet.stats.interval-ms}, only when
+ * something changed since the last push and somebody is subscribed; a new subscriber gets the current
+ * statistics from {@code /app/fleet/stats} first.
+ * </p>
+ */
+@Component
+public class FleetStatistics implements DeviceChangeListener {
+
+    public static final String DESTINATION = "/topic/fleet/stats";
+
+    private record Contribution(DeviceType type, DeviceRole role, boolean online, boolean simulationActive,
+                                CompactState state) {}
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final DestinationSubscriptions subscriptions;
+    private final Map<String, Contribution> contributions = new HashMap<>();
+    private final Map<DeviceType, Long> byType = new EnumMap<>(DeviceType.class);
+    private final Map<DeviceRole, Long> byRole = new EnumMap<>(DeviceRole.class);
+    private final Map<String, FieldAggregate> fields = new TreeMap<>();
+    private long online;
+    private long simulationActive;
+    private long version;
+    private long pushedVersion = -1;
+
+    public FleetStatistics(SimpMessagingTemplate messagingTemplate, DestinationSubscriptions subscriptions) {
+        this.messagingTemplate = messagingTemplate;
+        this.subscriptions = subscriptions;
+    }
+
+    @Override
+    public void deviceChanged(Device device, CompactState state) {
+        Contribution next = new Contribution(device.getType(), device.getRole(),
+                Boolean.TRUE.equals(device.isOnline()), device.isSimulationActive(), state);
+        synchronized (this) {
+            Contribution previous = contributions.put(device.getId(), next);
+            if (next.equals(previous)) {
+                return;
+            }
+            if (previous != null) {
+                apply(previous, -1);
+            }
+            apply(next, 1);
+            version++;
+        }
+    }
+
+    @Override
+    public synchronized void deviceRemoved(String deviceId) {
+        Contribution previous = contributions.remove(deviceId);
+        if (previous != null) {
+            apply(previous, -1);
+            version++;
+        }
+    }
+
+    public synchronized FleetStatsResponse snapshot() {
+        Map<String, FleetStatsResponse.FieldStats> fieldStats = new LinkedHashMap<>();
+        fields.forEach((field, aggregate) -> fieldStats.put(field, aggregate.stats()));
+        return new FleetStatsResponse(contributions.size(), online, simulationActive,
+                new EnumMap<>(byType), new EnumMap<>(byRole), fieldStats);
+    }
+
+    @Scheduled(fixedDelayString = "${fleet.stats.interval-ms}")
+    public void push() {
+        FleetStatsResponse stats;
+        synchronized (this) {
+            if (version == pushedVersion || !subscriptions.hasSubscribers(DESTINATION)) {
+                return;
+            }
+            pushedVersion = version;
+            stats = snapshot();
+        }
+        messagingTemplate.convertAndSend(DESTINATION, stats);
+    }
+
+    /** Adds ({@code sign} 1) or takes back ({@code sign} -1) the contribution of one device. */
+    private void apply(Contribution contribution, int sign) {
+        if (contribution.type() != null) {
+            count(byType, contribution.type(), sign);
+        }
+        if (contribution.role() != null) {
+            count(byRole, contribution.role(), sign);
+        }
+        if (contribution.online()) {
+            online += sign;
+        }
+        if (contribution.simulationActive()) {
+            simulationActive += sign;
+        }
+        CompactState state = contribution.state();
+        for (int slot = 0; slot < state.size(); slot++) {
+            if (!state.isNumeric(slot)) {
+                continue;
+            }
+            String field = state.name(slot);
+            if (sign > 0) {
+                fields.computeIfAbsent(field, key -> new FieldAggregate()).add(state.value(slot));
+            } else if (fields.get(field).remove(state.value(slot))) {
+                fields.remove(field);
+            }
+        }
+    }
+
+    private static <K> void count(Map<K, Long> counts, K key, int sign) {
+        long count = counts.getOrDefault(key, 0L) + sign;
+        if (count == 0) {
+            counts.remove(key);
+        } else {
+            counts.put(key, count);
+        }
+    }
+
+    /**
+     * Latest values of one field across the devices reporting it. The sum is updated on every change
+     * rather than recomputed, so it uses Neumaier summation: the rounding error of each addition is
+     * carried separately and a large value leaving the fleet does not take the small ones with it.
+     */
+    private static final class FieldAggregate {
+
+        private final TreeMap<Double, Integer> values = new TreeMap<>();
+        private long count;
+        private double sum;
+        private double compensation;
+
+        void add(double value) {
+            values.merge(value, 1, Integer::sum);
+            count++;
+            accumulate(value);
+        }
+
+        /** Returns whether no value is left. */
+        boolean remove(double value) {
+            values.computeIfPresent(value, (key, n) -> n == 1 ? null : n - 1);
+            count--;
+            accumulate(-value);
+            return count == 0;
+        }
+
+        private void accumulate(double value) {
+            double total = sum + value;
+            if (Math.abs(sum) >= Math.abs(value)) {
+                compensation += (sum - total) + value;
+            } else {
+                compensation += (value - total) + sum;
+            }
+            sum = total;
+        }
+
+        FleetStatsResponse.FieldStats stats() {
+            return new FleetStatsResponse.FieldStats(count, values.firstKey(), values.lastKey(), (sum + compensation) / count);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Computes and applies JSON merge patches (RFC 7386): objects are merged member by member, a {@code null}
+ * member removes it, anything else replaces the old value.
+ */
+final class JsonMergePatch {
+
+    private JsonMergePatch() {
+    }
+
+    /**
+     * The smallest patch turning {@code source} into {@code target}; empty when both are equal.
+     */
+    static ObjectNode diff(JsonNode source, JsonNode target) {
+        ObjectNode patch = JsonNodeFactory.instance.objectNode();
+        for (Map.Entry<String, JsonNode> member : target.properties()) {
+            JsonNode before = source.get(member.getKey());
+            JsonNode after = member.getValue();
+            if (before != null && before.equals(after)) {
+                continue;
+            }
+            if (before != null && before.isObject() && after.isObject()) {
+                patch.set(member.getKey(), diff(before, after));
+            } else {
+                patch.set(member.getKey(), after);
+            }
+        }
+        for (Iterator<String> names = source.fieldNames(); names.hasNext(); ) {
+            String name = names.next();
+            if (!target.has(name)) {
+                patch.putNull(name);
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * {@code target} with {@code patch} applied. Neither is modified; untouched members are shared
+     * with {@code target}.
+     */
+    static JsonNode apply(JsonNode target, JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch;
+        }
+        ObjectNode result = JsonNodeFactory.instance.objectNode();
+        if (target != null && target.isObject()) {
+            result.setAll((ObjectNode) target);
+        }
+        for (Map.Entry<String, JsonNode> member : patch.properties()) {
+            if (member.getValue().isNull()) {
+                result.remove(member.getKey());
+            } else {
+                result.set(member.getKey(), apply(result.get(member.getKey()), member.getValue()));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.michalbykowy.iotsim.dto.FieldValueQuery;
+import com.michalbykowy.iotsim.dto.FieldValuesResponse;
+import com.michalbykowy.iotsim.model.Device;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Latest numeric state values of all devices, sorted per field.
+ * <p>
+ * Every field maps its values in order to the devices currently reporting them, so a range query or
+ * a top-K walks only the entries it returns instead of every device's state. The {@link CompactState}
+ * a device last contributed is kept next to it; a write replaces exactly the entries of changed
+ * values, and one that changes nothing is recognised under the read lock and costs no update.
+ * </p>
+ * <p>
+ * Like the {@link DeviceSearchIndex}, the index is filled and kept current by {@link DeviceRegistry}.
+ * Devices with the same value are ordered by id, in the direction of the query.
+ * </p>
+ */
+@Component
+public class LatestValueIndex implements DeviceChangeListener {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, CompactState> devices = new HashMap<>();
+    private final Map<String, TreeMap<Double, NavigableSet<String>>> fields = new HashMap<>();
+
+    public LatestValueIndex(MeterRegistry meterRegistry) {
+        Gauge.builder("devices.values.fields", this, LatestValueIndex::fieldCount).register(meterRegistry);
+    }
+
+    @Override
+    public void deviceChanged(Device device, CompactState state) {
+        lock.readLock().lock();
+        try {
+            if (state.equals(devices.getOrDefault(device.getId(), CompactState.EMPTY))) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            CompactState previous = state.size() == 0
+                    ? devices.remove(device.getId())
+                    : devices.put(device.getId(), state);
+            if (previous != null) {
+                for (int slot = 0; slot < previous.size(); slot++) {
+                    if (previous.isNumeric(slot) && !state.hasValue(previous.name(slot), previous.value(slot))) {
+                        unindex(previous.name(slot), previous.value(slot), device.getId());
+                    }
+                }
+            }
+            for (int slot = 0; slot < state.size(); slot++) {
+                if (state.isNumeric(slot)
+                        && (previous == null || !previous.hasValue(state.name(slot), state.value(slot)))) {
+                    fields.computeIfAbsent(state.name(slot), key -> new TreeMap<>())
+                            .computeIfAbsent(state.value(slot), key -> new TreeSet<>())
+                            .add(device.getId());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deviceRemoved(String deviceId) {
+        lock.writeLock().lock();
+        try {
+            CompactState previous = devices.remove(deviceId);
+            if (previous != null) {
+                for (int slot = 0; slot < previous.size(); slot++) {
+                    if (previous.isNumeric(slot)) {
+                        unindex(previous.name(slot), previous.value(slot), deviceId);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public FieldValuesResponse query(FieldValueQuery query) {
+        lock.readLock().lock();
+        try {
+            List<FieldValuesResponse.FieldValue> matches = new ArrayList<>(Math.min(query.limit(), 1024));
+            TreeMap<Double, NavigableSet<String>> values = fields.get(query.field());
+            if (values == null) {
+                return new FieldValuesResponse(query.field(), matches);
+            }
+            NavigableMap<Double, NavigableSet<String>> range = values;
+            if (query.min() != null) {
+                range = range.tailMap(query.min(), true);
+            }
+            if (query.max() != null) {
+                range = range.headMap(query.max(), true);
+            }
+            boolean descending = query.direction() == Sort.Direction.DESC;
+            if (descending) {
+                range = range.descendingMap();
+            }
+            for (Map.Entry<Double, NavigableSet<String>> entry : range.entrySet()) {
+                for (String deviceId : descending ? entry.getValue().descendingSet() : entry.getValue()) {
+                    if (matches.size() == query.limit()) {
+                        return new FieldValuesResponse(query.field(), matches);
+                    }
+                    matches.add(new FieldValuesResponse.FieldValue(deviceId, entry.getKey()));
+                }
+            }
+            return new FieldValuesResponse(query.field(), matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int fieldCount() {
+        lock.readLock().lock();
+        try {
+            return fields.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void unindex(String field, double value, String deviceId) {
+        TreeMap<Double, NavigableSet<String>> values = fields.get(field);
+        NavigableSet<String> ids = values.get(value);
+        ids.remove(deviceId);
+        if (ids.isEmpty()) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                fields.remove(field);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.michalbykowy.iotsim.service.history;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Fixed-capacity ring of the most recent readings of one device, stored column-wise in primitive
+ * arrays: one {@code long[]} of epoch-nanosecond timestamps and one {@code double[]} per field,
+ * with {@code NaN} marking a field absent from a reading.
+ * <p>
+ * Not thread-safe; {@link RecentReadingsCache} synchronizes on the ring instance.
+ * </p>
+ */
+final class DeviceReadingRing {
+
+    /** Rough per-ring overhead (object headers, map entries) counted against the memory budget. */
+    static final long BASE_OVERHEAD_BYTES = 256;
+
+    private final long[] timestamps;
+    private final Map<String, double[]> fields = new LinkedHashMap<>();
+    private int head;
+    private int size;
+
+    /** Every reading with a timestamp at or after this instant is still in the ring. */
+    private long coveredFromNanos;
+
+    // budget bookkeeping, guarded by the cache budget lock
+    long reservedBytes;
+    volatile boolean detached;
+
+    DeviceReadingRing(int capacity, long coveredFromNanos) {
+        this.timestamps = new long[capacity];
+        this.coveredFromNanos = coveredFromNanos;
+    }
+
+    static long baseBytes(int capacity) {
+        return BASE_OVERHEAD_BYTES + (long) capacity * Long.BYTES;
+    }
+
+    long fieldBytes() {
+        return (long) timestamps.length * Double.BYTES;
+    }
+
+    boolean hasField(String field) {
+        return fields.containsKey(field);
+    }
+
+    void addField(String field) {
+        double[] column = new double[timestamps.length];
+        Arrays.fill(column, Double.NaN);
+        fields.put(field, column);
+    }
+
+    void append(long timeNanos, Map<String, Double> values) {
+        if (size == timestamps.length) {
+            // overwriting the oldest reading; coverage now starts right after it
+            coveredFromNanos = Math.max(coveredFromNanos, timestamps[head] + 1);
+        } else {
+            size++;
+        }
+        timestamps[head] = timeNanos;
+        for (Map.Entry<String, double[]> column : fields.entrySet()) {
+            Double value = values.get(column.getKey());
+            column.getValue()[head] = value != null ? value : Double.NaN;
+        }
+        head = (head + 1) % timestamps.length;
+    }
+
+    long coveredFromNanos() {
+        return coveredFromNanos;
+    }
+
+    /**
+     * Copies readings with {@code fromNanos <= time <= toNanos}, ordered by time.
+     */
+    Snapshot snapshot(long fromNanos, long toNanos) {
+        long effectiveFrom = Math.max(fromNanos, coveredFromNanos);
+        int oldest = (head - size + timestamps.length) % timestamps.length;
+
+        int[] rows = new int[size];
+        int count = 0;
+        boolean ordered = true;
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            int index = (oldest + i) % timestamps.length;
+            long time = timestamps[index];
+            if (time >= effectiveFrom && time <= toNanos) {
+                ordered &= time >= previous;
+                previous = time;
+                rows[count++] = index;
+            }
+        }
+        if (!ordered) {
+            // concurrent ingest threads can append a few readings out of order
+            rows = IntStream.of(Arrays.copyOf(rows, count)).boxed()
+                    .sorted(Comparator.comparingLong(index -> timestamps[index]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        long[] times = new long[count];
+        String[] names = fields.keySet().toArray(String[]::new);
+        double[][] values = new double[names.length][count];
+        for (int row = 0; row < count; row++) {
+            times[row] = timestamps[rows[row]];
+        }
+        for (int column = 0; column < names.length; column++) {
+            double[] source = fields.get(names[column]);
+            for (int row = 0; row < count; row++) {
+                values[column][row] = source[rows[row]];
+            }
+        }
+        return new Snapshot(times, names, values);
+    }
+
+    /**
+     * Column-wise copy of a time slice of the ring, safe to read without holding the ring lock.
+     */
+    record Snapshot(long[] times, String[] fields, double[][] values) {
+
+        int size() {
+            return times.length;
+        }
+
+        int fieldIndex(String field) {
+            return List.of(fields).indexOf(field);
+        }
+    }
+}
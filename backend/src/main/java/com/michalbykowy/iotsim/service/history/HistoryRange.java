@@ -0,0 +1,74 @@
+package com.michalbykowy.iotsim.service.history;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Absolute time range resolved from the Flux-style {@code start}/{@code stop} request parameters
+ * (relative durations such as {@code -1h}, {@code -7d}, {@code -1h30m}, or RFC3339 timestamps).
+ */
+public record HistoryRange(Instant start, Instant stop) {
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+)(ns|us|µs|ms|mo|s|m|h|d|w|y)");
+
+    public static HistoryRange resolve(String start, String stop, Instant now) {
+        Instant resolvedStop = now;
+        if (stop != null && !stop.isBlank()) {
+            resolvedStop = resolvePoint(stop, now);
+        }
+        return new HistoryRange(resolvePoint(start, now), resolvedStop);
+    }
+
+    public Duration duration() {
+        return Duration.between(start, stop);
+    }
+
+    private static Instant resolvePoint(String value, Instant now) {
+        if (value.contains("T")) {
+            try {
+                return OffsetDateTime.parse(value).toInstant();
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid timestamp: " + value, e);
+            }
+        }
+        return now.minus(parseDuration(value));
+    }
+
+    /**
+     * Parses a Flux duration literal such as {@code 90s} or {@code -1h30m}, ignoring the sign.
+     */
+    public static Duration parseDuration(String value) {
+        String unsigned = value.startsWith("-") ? value.substring(1) : value;
+        Matcher matcher = DURATION_PART.matcher(unsigned);
+        Duration total = Duration.ZERO;
+        int consumed = 0;
+        while (matcher.find()) {
+            if (matcher.start() != consumed) {
+                break;
+            }
+            long amount = Long.parseLong(matcher.group(1));
+            total = total.plus(switch (matcher.group(2)) {
+                case "ns" -> Duration.ofNanos(amount);
+                case "us", "µs" -> Duration.ofNanos(amount * 1_000);
+                case "ms" -> Duration.ofMillis(amount);
+                case "s" -> Duration.ofSeconds(amount);
+                case "m" -> Duration.ofMinutes(amount);
+                case "h" -> Duration.ofHours(amount);
+                case "d" -> Duration.ofDays(amount);
+                case "w" -> Duration.ofDays(amount * 7);
+                // calendar units are approximated, they are only used to route and size queries
+                case "mo" -> Duration.ofDays(amount * 30);
+                default -> Duration.ofDays(amount * 365);
+            });
+            consumed = matcher.end();
+        }
+        if (consumed == 0 || consumed != unsigned.length()) {
+            throw new IllegalArgumentException("Invalid duration: " + value);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,169 @@
+package com.michalbykowy.iotsim.service.history;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Streaming Largest-Triangle-Three-Buckets downsampler.
+ * <p>
+ * Buckets are fixed time slices of the requested range rather than index ranges, so the total
+ * number of points does not need to be known up front. Only the bucket being decided and the
+ * following one are buffered; every other record is forwarded or discarded immediately.
+ * The first and last points are always kept.
+ * </p>
+ */
+public final class LttbDownsampler implements Consumer<Map<String, Object>> {
+
+    /** Fewest points LTTB can reduce to: the first, the last and one bucket in between. */
+    public static final int MIN_POINTS = 3;
+
+    private static final String TIME_KEY = "_time";
+    private static final Set<String> NON_VALUE_KEYS = Set.of("result", "table", "deviceId");
+
+    private final long rangeStartMillis;
+    private final long bucketWidthMillis;
+    private final Consumer<Map<String, Object>> downstream;
+    private String field;
+
+    private Sample selected;
+    private Sample last;
+    private List<Sample> current = new ArrayList<>();
+    private long currentBucket;
+    private List<Sample> next = new ArrayList<>();
+    private long nextBucket;
+
+    private record Sample(double x, double y, Map<String, Object> values) {}
+
+    public LttbDownsampler(HistoryRange range, int maxPoints, String field, Consumer<Map<String, Object>> downstream) {
+        if (maxPoints < MIN_POINTS) {
+            throw new IllegalArgumentException("maxPoints must be at least " + MIN_POINTS + " for LTTB downsampling");
+        }
+        this.rangeStartMillis = range.start().toEpochMilli();
+        // first and last point are kept outside the buckets
+        this.bucketWidthMillis = Math.max(1, range.duration().toMillis() / (maxPoints - 2));
+        this.field = field;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void accept(Map<String, Object> values) {
+        Sample sample = toSample(values);
+        if (sample == null) {
+            return;
+        }
+        if (selected == null) {
+            selected = sample;
+            downstream.accept(values);
+            return;
+        }
+        last = sample;
+
+        long bucket = ((long) sample.x() - rangeStartMillis) / bucketWidthMillis;
+        if (current.isEmpty()) {
+            current.add(sample);
+            currentBucket = bucket;
+        } else if (bucket == currentBucket) {
+            current.add(sample);
+        } else if (next.isEmpty() || bucket == nextBucket) {
+            next.add(sample);
+            nextBucket = bucket;
+        } else {
+            emitLargestTriangle(current, average(next));
+            current = next;
+            currentBucket = nextBucket;
+            next = new ArrayList<>();
+            next.add(sample);
+            nextBucket = bucket;
+        }
+    }
+
+    /**
+     * Flushes the buffered buckets. Must be called once the source is exhausted.
+     */
+    public void finish() {
+        if (last == null) {
+            return;
+        }
+        if (!next.isEmpty()) {
+            next.removeLast();
+        } else {
+            current.removeLast();
+        }
+        if (!current.isEmpty()) {
+            Sample third = next.isEmpty() ? last : average(next);
+            emitLargestTriangle(current, third);
+        }
+        if (!next.isEmpty()) {
+            emitLargestTriangle(next, last);
+        }
+        downstream.accept(last.values());
+        last = null;
+    }
+
+    private void emitLargestTriangle(List<Sample> bucket, Sample third) {
+        Sample best = bucket.getFirst();
+        double bestArea = -1;
+        for (Sample candidate : bucket) {
+            double area = Math.abs((selected.x() - third.x()) * (candidate.y() - selected.y())
+                    - (selected.x() - candidate.x()) * (third.y() - selected.y()));
+            if (area > bestArea) {
+                bestArea = area;
+                best = candidate;
+            }
+        }
+        selected = best;
+        downstream.accept(best.values());
+    }
+
+    private static Sample average(List<Sample> bucket) {
+        double sumX = 0;
+        double sumY = 0;
+        for (Sample sample : bucket) {
+            sumX += sample.x();
+            sumY += sample.y();
+        }
+        return new Sample(sumX / bucket.size(), sumY / bucket.size(), Map.of());
+    }
+
+    private Sample toSample(Map<String, Object> values) {
+        Long time = timeOf(values.get(TIME_KEY));
+        if (time == null) {
+            return null;
+        }
+        if (field == null) {
+            field = firstNumericField(values);
+        }
+        if (field != null && values.get(field) instanceof Number number) {
+            return new Sample(time, number.doubleValue(), values);
+        }
+        return null;
+    }
+
+    private static String firstNumericField(Map<String, Object> values) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith("_") && !NON_VALUE_KEYS.contains(key) && entry.getValue() instanceof Number) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private static Long timeOf(Object time) {
+        if (time instanceof Instant instant) {
+            return instant.toEpochMilli();
+        }
+        if (time instanceof OffsetDateTime offsetDateTime) {
+            return offsetDateTime.toInstant().toEpochMilli();
+        }
+        if (time instanceof String text) {
+            return Instant.parse(text).toEpochMilli();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,272 @@
+package com.michalbykowy.iotsim.service.history;
+
+import com.michalbykowy.iotsim.model.AggregateFunction;
+import com.michalbykowy.iotsim.model.Measurement;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * In-memory ring buffers of the most recent sensor readings per device, filled from the ingest path.
+ * <p>
+ * Short-range history and rule aggregates are answered from here when the requested range is
+ * covered, so they do not need a round trip to InfluxDB. Every ring has the same fixed capacity;
+ * the sum of all rings is kept under {@code history.recent.max-bytes} by evicting the devices that
+ * have not reported for the longest time.
+ * </p>
+ */
+@Component
+public class RecentReadingsCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecentReadingsCache.class);
+
+    private final int capacityPerDevice;
+    private final long maxBytes;
+
+    private final Map<String, DeviceReadingRing> rings = new ConcurrentHashMap<>();
+    private final Object budgetLock = new Object();
+    // access ordered, least recently written first; guarded by the budget lock
+    private final LinkedHashMap<String, DeviceReadingRing> writeOrder = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    private final Counter evictionCounter;
+
+    public RecentReadingsCache(
+            @Value("${history.recent.capacity-per-device}") int capacityPerDevice,
+            @Value("${history.recent.max-bytes}") long maxBytes,
+            MeterRegistry meterRegistry) {
+        this.capacityPerDevice = capacityPerDevice;
+        this.maxBytes = maxBytes;
+
+        this.evictionCounter = meterRegistry.counter("history.recent.evictions");
+        Gauge.builder("history.recent.bytes", this, RecentReadingsCache::usedBytes).register(meterRegistry);
+        Gauge.builder("history.recent.devices", rings, Map::size).register(meterRegistry);
+    }
+
+    public void record(String deviceId, Instant time, Map<String, Double> values) {
+        if (capacityPerDevice <= 0 || values.isEmpty()) {
+            return;
+        }
+        DeviceReadingRing ring = rings.get(deviceId);
+        if (ring == null) {
+            ring = createRing(deviceId, toNanos(time));
+            if (ring == null) {
+                return;
+            }
+        }
+
+        synchronized (ring) {
+            if (ring.detached) {
+                return;
+            }
+            for (String field : values.keySet()) {
+                if (!ring.hasField(field)) {
+                    if (!reserve(ring, deviceId, ring.fieldBytes())) {
+                        // a ring missing a field would answer queries incorrectly, drop it instead
+                        evict(deviceId);
+                        return;
+                    }
+                    ring.addField(field);
+                }
+            }
+            ring.append(toNanos(time), values);
+        }
+        synchronized (budgetLock) {
+            writeOrder.get(deviceId);
+        }
+    }
+
+    /**
+     * Start of the interval for which the cache holds every reading of the device.
+     */
+    public Optional<Instant> coveredFrom(String deviceId) {
+        DeviceReadingRing ring = rings.get(deviceId);
+        if (ring == null) {
+            return Optional.empty();
+        }
+        synchronized (ring) {
+            return Optional.of(toInstant(ring.coveredFromNanos()));
+        }
+    }
+
+    /**
+     * Emits cached readings in {@code [from, to]} in the same shape as pivoted InfluxDB records.
+     */
+    public void stream(String deviceId, Instant from, Instant to, Consumer<Map<String, Object>> consumer) {
+        DeviceReadingRing.Snapshot snapshot = snapshot(deviceId, from, to);
+        if (snapshot == null) {
+            return;
+        }
+        for (int row = 0; row < snapshot.size(); row++) {
+            Map<String, Object> values = newRecord(deviceId, toInstant(snapshot.times()[row]));
+            for (int column = 0; column < snapshot.fields().length; column++) {
+                double value = snapshot.values()[column][row];
+                if (!Double.isNaN(value)) {
+                    values.put(snapshot.fields()[column], value);
+                }
+            }
+            consumer.accept(values);
+        }
+    }
+
+    /**
+     * Emits per-window means of the cached readings in {@code [from, to]}, see {@link WindowedMean}.
+     */
+    public void streamAggregated(String deviceId, Instant from, Instant to, Duration window,
+                                 Consumer<Map<String, Object>> consumer) {
+        WindowedMean windowedMean = new WindowedMean(window, to, consumer);
+        stream(deviceId, from, to, windowedMean);
+        windowedMean.finish();
+    }
+
+    /**
+     * Aggregates one field over cached readings since {@code from}. Empty when there is no data,
+     * matching what InfluxDB returns for an empty range.
+     */
+    public Optional<Double> aggregate(String deviceId, String field, Instant from, AggregateFunction function) {
+        DeviceReadingRing.Snapshot snapshot = snapshot(deviceId, from, Instant.now());
+        if (snapshot == null) {
+            return Optional.empty();
+        }
+        int column = snapshot.fieldIndex(field);
+        if (column < 0) {
+            return Optional.empty();
+        }
+
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        int count = 0;
+        for (double value : snapshot.values()[column]) {
+            if (!Double.isNaN(value)) {
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                count++;
+            }
+        }
+        if (count == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(switch (function) {
+            case MEAN -> sum / count;
+            case MAX -> max;
+            case MIN -> min;
+            case SUM -> sum;
+            case COUNT -> (double) count;
+        });
+    }
+
+    public void evict(String deviceId) {
+        synchronized (budgetLock) {
+            DeviceReadingRing ring = rings.remove(deviceId);
+            if (ring != null) {
+                writeOrder.remove(deviceId);
+                ring.detached = true;
+                usedBytes -= ring.reservedBytes;
+            }
+        }
+    }
+
+    public long usedBytes() {
+        synchronized (budgetLock) {
+            return usedBytes;
+        }
+    }
+
+    public int deviceCount() {
+        return rings.size();
+    }
+
+    private DeviceReadingRing.Snapshot snapshot(String deviceId, Instant from, Instant to) {
+        DeviceReadingRing ring = rings.get(deviceId);
+        if (ring == null) {
+            return null;
+        }
+        synchronized (ring) {
+            return ring.snapshot(toNanos(from), toNanos(to));
+        }
+    }
+
+    private DeviceReadingRing createRing(String deviceId, long coveredFromNanos) {
+        synchronized (budgetLock) {
+            DeviceReadingRing existing = rings.get(deviceId);
+            if (existing != null) {
+                return existing;
+            }
+            long bytes = DeviceReadingRing.baseBytes(capacityPerDevice);
+            if (!makeRoom(bytes, deviceId)) {
+                return null;
+            }
+            DeviceReadingRing ring = new DeviceReadingRing(capacityPerDevice, coveredFromNanos);
+            ring.reservedBytes = bytes;
+            usedBytes += bytes;
+            rings.put(deviceId, ring);
+            writeOrder.put(deviceId, ring);
+            return ring;
+        }
+    }
+
+    private boolean reserve(DeviceReadingRing ring, String deviceId, long bytes) {
+        synchronized (budgetLock) {
+            if (ring.detached || !makeRoom(bytes, deviceId)) {
+                return false;
+            }
+            ring.reservedBytes += bytes;
+            usedBytes += bytes;
+            return true;
+        }
+    }
+
+    /**
+     * Evicts the least recently written devices until {@code bytes} fit in the budget.
+     * Must be called with the budget lock held.
+     */
+    private boolean makeRoom(long bytes, String requester) {
+        while (usedBytes + bytes > maxBytes) {
+            String victim = null;
+            // the requester is skipped at most once, so this looks at one or two entries
+            for (String deviceId : writeOrder.keySet()) {
+                if (!deviceId.equals(requester)) {
+                    victim = deviceId;
+                    break;
+                }
+            }
+            if (victim == null) {
+                logger.debug("Recent readings budget of {} bytes too small for device {}", maxBytes, requester);
+                return false;
+            }
+            evict(victim);
+            evictionCounter.increment();
+        }
+        return true;
+    }
+
+    private static Map<String, Object> newRecord(String deviceId, Instant time) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("_time", time);
+        values.put("_measurement", Measurement.SENSOR_READINGS.getValue());
+        values.put("deviceId", deviceId);
+        return values;
+    }
+
+    private static long toNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private static Instant toInstant(long nanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), Math.floorMod(nanos, 1_000_000_000L));
+    }
+}
@@ -0,0 +1,76 @@
+package com.michalbykowy.iotsim.service.history;
+
+import com.michalbykowy.iotsim.model.Measurement;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * In-memory equivalent of {@code aggregateWindow(every: window, fn: mean, createEmpty: false)} over
+ * a time-ordered stream of pivoted records: windows are aligned to the epoch, stamped with their end
+ * (clamped to the range stop) and carry the mean of every numeric field seen in the window.
+ */
+public final class WindowedMean implements Consumer<Map<String, Object>> {
+
+    private final long windowNanos;
+    private final Instant stop;
+    private final Consumer<Map<String, Object>> downstream;
+
+    private long currentWindow = Long.MIN_VALUE;
+    private Object deviceId;
+    private final Map<String, double[]> sums = new LinkedHashMap<>();
+
+    public WindowedMean(Duration window, Instant stop, Consumer<Map<String, Object>> downstream) {
+        this.windowNanos = Math.max(1, window.toNanos());
+        this.stop = stop;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void accept(Map<String, Object> values) {
+        if (!(values.get("_time") instanceof Instant time)) {
+            return;
+        }
+        long window = Math.floorDiv(time.getEpochSecond() * 1_000_000_000L + time.getNano(), windowNanos);
+        if (window != currentWindow) {
+            finish();
+            currentWindow = window;
+            deviceId = values.get("deviceId");
+        }
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (!entry.getKey().startsWith("_") && entry.getValue() instanceof Number number) {
+                // [sum, count]
+                double[] sum = sums.computeIfAbsent(entry.getKey(), key -> new double[2]);
+                sum[0] += number.doubleValue();
+                sum[1]++;
+            }
+        }
+    }
+
+    /**
+     * Emits the last open window. Must be called once the source is exhausted.
+     */
+    public void finish() {
+        if (sums.isEmpty()) {
+            return;
+        }
+        long endNanos = (currentWindow + 1) * windowNanos;
+        Instant end = Instant.ofEpochSecond(Math.floorDiv(endNanos, 1_000_000_000L), Math.floorMod(endNanos, 1_000_000_000L));
+        if (stop != null && end.isAfter(stop)) {
+            end = stop;
+        }
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("_time", end);
+        values.put("_measurement", Measurement.SENSOR_READINGS.getValue());
+        if (deviceId != null) {
+            values.put("deviceId", deviceId);
+        }
+        sums.forEach((field, sum) -> values.put(field, sum[0] / sum[1]));
+        sums.clear();
+        downstream.accept(values);
+    }
+}
@@ -0,0 +1,142 @@
+package com.michalbykowy.iotsim.service.logs;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.michalbykowy.iotsim.api.LogMessage;
+import com.michalbykowy.iotsim.model.LogLevel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delivers batches of log lines to {@code /topic/logs} subscribers, filtered per subscription.
+ * <p>
+ * Subscriptions are tracked from the STOMP session events; the simple broker also records them,
+ * but nothing is ever sent to {@code /topic/logs} through it. Instead every batch is filtered once
+ * per distinct filter, serialized once per filter and written straight to the client outbound
+ * channel for each matching subscription, so a client only receives the lines it asked for.
+ * </p>
+ */
+@Component
+public class LogStreamBroadcaster {
+
+    public static final String DESTINATION = "/topic/logs";
+
+    private record SubscriptionKey(String sessionId, String subscriptionId) {}
+
+    private final MessageChannel clientOutboundChannel;
+    private final ObjectMapper objectMapper;
+    private final Map<SubscriptionKey, LogSubscriptionFilter> subscriptions = new ConcurrentHashMap<>();
+
+    public LogStreamBroadcaster(@Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+                                ObjectMapper objectMapper) {
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.objectMapper = objectMapper;
+    }
+
+    @EventListener
+    public void handleSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        if (!DESTINATION.equals(accessor.getDestination())
+                || accessor.getSessionId() == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        subscriptions.put(new SubscriptionKey(accessor.getSessionId(), accessor.getSubscriptionId()), filterOf(accessor));
+    }
+
+    @EventListener
+    public void handleUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        subscriptions.remove(new SubscriptionKey(accessor.getSessionId(), accessor.getSubscriptionId()));
+    }
+
+    @EventListener
+    public void handleDisconnect(SessionDisconnectEvent event) {
+        subscriptions.keySet().removeIf(key -> key.sessionId().equals(event.getSessionId()));
+    }
+
+    private static LogSubscriptionFilter filterOf(StompHeaderAccessor accessor) {
+        LogLevel minLevel = null;
+        String level = accessor.getFirstNativeHeader("minLevel");
+        if (level != null && !level.isBlank()) {
+            try {
+                minLevel = LogLevel.valueOf(level.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                // unknown level, deliver everything rather than nothing
+            }
+        }
+        return new LogSubscriptionFilter(minLevel,
+                blankToNull(accessor.getFirstNativeHeader("loggerPrefix")),
+                blankToNull(accessor.getFirstNativeHeader("deviceId")));
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    public int subscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Sends one frame per subscription holding the lines of {@code batch} that match its filter;
+     * subscriptions without a match get no frame at all.
+     */
+    public void broadcast(List<LogMessage> batch) throws JsonProcessingException {
+        if (subscriptions.isEmpty() || batch.isEmpty()) {
+            return;
+        }
+        Map<LogSubscriptionFilter, byte[]> payloads = new HashMap<>();
+        for (Map.Entry<SubscriptionKey, LogSubscriptionFilter> subscription : subscriptions.entrySet()) {
+            LogSubscriptionFilter filter = subscription.getValue();
+            byte[] payload = payloads.get(filter);
+            if (payload == null) {
+                payload = serialize(batch, filter);
+                payloads.put(filter, payload);
+            }
+            if (payload.length > 0) {
+                send(subscription.getKey(), payload);
+            }
+        }
+    }
+
+    private byte[] serialize(List<LogMessage> batch, LogSubscriptionFilter filter) throws JsonProcessingException {
+        List<LogMessage> matching = batch;
+        if (!filter.equals(LogSubscriptionFilter.ALL)) {
+            matching = new ArrayList<>();
+            for (LogMessage message : batch) {
+                if (filter.matches(message)) {
+                    matching.add(message);
+                }
+            }
+        }
+        return matching.isEmpty() ? new byte[0] : objectMapper.writeValueAsBytes(matching);
+    }
+
+    private void send(SubscriptionKey key, byte[] payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(key.sessionId());
+        accessor.setSubscriptionId(key.subscriptionId());
+        accessor.setDestination(DESTINATION);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        Message<byte[]> message = MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+        clientOutboundChannel.send(message);
+    }
+}
@@ -0,0 +1,25 @@
+package com.michalbykowy.iotsim.service.logs;
+
+import com.michalbykowy.iotsim.api.LogMessage;
+import com.michalbykowy.iotsim.model.LogLevel;
+
+/**
+ * What one {@code /topic/logs} subscription wants to receive, taken from the optional
+ * {@code minLevel}, {@code loggerPrefix} and {@code deviceId} headers of its SUBSCRIBE frame.
+ * {@code null} components match everything.
+ */
+public record LogSubscriptionFilter(LogLevel minLevel, String loggerPrefix, String deviceId) {
+
+    public static final LogSubscriptionFilter ALL = new LogSubscriptionFilter(null, null, null);
+
+    public boolean matches(LogMessage message) {
+        if (minLevel != null && message.getLevel().compareTo(minLevel) < 0) {
+            return false;
+        }
+        if (loggerPrefix != null && !message.getLoggerName().startsWith(loggerPrefix)) {
+            return false;
+        }
+        // device ids only appear in the message text, the same match the log console used to do
+        return deviceId == null || message.getMessage().contains(deviceId);
+    }
+}
@@ -0,0 +1,16 @@
+package com.michalbykowy.iotsim.service.spool;
+
+import com.influxdb.client.domain.WritePrecision;
+
+import java.util.List;
+
+record SpoolBatch(
+        SpoolSegment segment,
+        WritePrecision precision,
+        List<String> lines,
+        int endPosition
+) {
+    boolean isEmpty() {
+        return lines.isEmpty();
+    }
+}
@@ -0,0 +1,136 @@
+package com.michalbykowy.iotsim.service.spool;
+
+import com.influxdb.client.domain.WritePrecision;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single fixed-size, memory-mapped, append-only spool file.
+ * <p>
+ * Record layout: {@code [int length][byte precision][length bytes of UTF-8 line protocol]}.
+ * A zero length marks the end of the written region, so a segment can be recovered
+ * after a restart by scanning from the start.
+ * </p>
+ */
+final class SpoolSegment {
+
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES + Byte.BYTES;
+    private static final WritePrecision[] PRECISIONS = WritePrecision.values();
+
+    private final Path path;
+    private final long sequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private int writePosition;
+    private int readPosition;
+    private int recordCount;
+    private int replayedCount;
+
+    private SpoolSegment(Path path, long sequence, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.sequence = sequence;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static SpoolSegment open(Path path, long sequence, int sizeBytes) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+        SpoolSegment segment = new SpoolSegment(path, sequence, channel, buffer);
+        segment.recover();
+        return segment;
+    }
+
+    private void recover() {
+        int position = 0;
+        int count = 0;
+        while (position + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            position += RECORD_HEADER_BYTES + length;
+            count++;
+        }
+        this.writePosition = position;
+        this.recordCount = count;
+    }
+
+    /**
+     * @return {@code false} when the record does not fit into the remaining space.
+     */
+    boolean append(WritePrecision precision, byte[] payload) {
+        int required = RECORD_HEADER_BYTES + payload.length;
+        if (writePosition + required > buffer.capacity()) {
+            return false;
+        }
+        buffer.put(writePosition + RECORD_HEADER_BYTES - 1, (byte) precision.ordinal());
+        buffer.put(writePosition + RECORD_HEADER_BYTES, payload);
+        // length is written last, so a torn write is never recovered as a record
+        buffer.putInt(writePosition, payload.length);
+        writePosition += required;
+        recordCount++;
+        return true;
+    }
+
+    /**
+     * Copies up to {@code maxRecords} unreplayed lines sharing one precision,
+     * without advancing the read position.
+     */
+    SpoolBatch peek(int maxRecords) {
+        List<String> lines = new ArrayList<>();
+        int position = readPosition;
+        WritePrecision batchPrecision = null;
+        while (position < writePosition && lines.size() < maxRecords) {
+            int length = buffer.getInt(position);
+            WritePrecision precision = PRECISIONS[buffer.get(position + RECORD_HEADER_BYTES - 1)];
+            if (batchPrecision == null) {
+                batchPrecision = precision;
+            } else if (precision != batchPrecision) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(position + RECORD_HEADER_BYTES, payload);
+            lines.add(new String(payload, StandardCharsets.UTF_8));
+            position += RECORD_HEADER_BYTES + length;
+        }
+        return new SpoolBatch(this, batchPrecision, lines, position);
+    }
+
+    void commit(int newReadPosition, int records) {
+        this.readPosition = newReadPosition;
+        this.replayedCount += records;
+    }
+
+    int pendingRecords() {
+        return recordCount - replayedCount;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,163 @@
+package com.michalbykowy.iotsim.service.spool;
+
+import com.influxdb.client.WriteApi;
+import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.client.write.Point;
+import com.influxdb.client.write.WriteParameters;
+import com.influxdb.client.write.events.AbstractWriteEvent;
+import com.influxdb.client.write.events.BackpressureEvent;
+import com.influxdb.client.write.events.EventListener;
+import com.influxdb.client.write.events.ListenerRegistration;
+import com.influxdb.client.write.events.WriteErrorEvent;
+import com.influxdb.client.write.events.WriteRetriableErrorEvent;
+
+import java.util.List;
+
+/**
+ * {@link WriteApi} decorator that diverts writes to the {@link WriteSpool} while InfluxDB is failing.
+ * <p>
+ * Only writes to the default bucket and organization are spooled, since the spool replays
+ * through the client defaults. Explicit destinations and POJO measurements pass straight through.
+ * </p>
+ */
+public class SpoolingWriteApi implements WriteApi {
+
+    private final WriteApi delegate;
+    private final WriteSpool spool;
+
+    public SpoolingWriteApi(WriteApi delegate, WriteSpool spool) {
+        this.delegate = delegate;
+        this.spool = spool;
+
+        delegate.listenEvents(WriteErrorEvent.class,
+                event -> spool.activate("write error: " + event.getThrowable().getMessage()));
+        delegate.listenEvents(WriteRetriableErrorEvent.class,
+                event -> spool.activate("retriable write error: " + event.getThrowable().getMessage()));
+        delegate.listenEvents(BackpressureEvent.class,
+                event -> spool.activate("buffer backpressure: " + event.getReason()));
+    }
+
+    @Override
+    public void writePoint(Point point) {
+        if (point == null) {
+            return;
+        }
+        if (spool.isActive()) {
+            spool.append(point.getPrecision(), point.toLineProtocol());
+        } else {
+            delegate.writePoint(point);
+        }
+    }
+
+    @Override
+    public void writePoints(List<Point> points) {
+        if (spool.isActive()) {
+            points.forEach(this::writePoint);
+        } else {
+            delegate.writePoints(points);
+        }
+    }
+
+    @Override
+    public void writeRecord(WritePrecision precision, String lineProtocol) {
+        if (spool.isActive()) {
+            spool.append(precision, lineProtocol);
+        } else {
+            delegate.writeRecord(precision, lineProtocol);
+        }
+    }
+
+    @Override
+    public void writeRecords(WritePrecision precision, List<String> records) {
+        if (spool.isActive()) {
+            records.forEach(line -> spool.append(precision, line));
+        } else {
+            delegate.writeRecords(precision, records);
+        }
+    }
+
+    @Override
+    public void writeRecord(String bucket, String org, WritePrecision precision, String lineProtocol) {
+        delegate.writeRecord(bucket, org, precision, lineProtocol);
+    }
+
+    @Override
+    public void writeRecord(String lineProtocol, WriteParameters parameters) {
+        delegate.writeRecord(lineProtocol, parameters);
+    }
+
+    @Override
+    public void writeRecords(String bucket, String org, WritePrecision precision, List<String> records) {
+        delegate.writeRecords(bucket, org, precision, records);
+    }
+
+    @Override
+    public void writeRecords(List<String> records, WriteParameters parameters) {
+        delegate.writeRecords(records, parameters);
+    }
+
+    @Override
+    public void writePoint(String bucket, String org, Point point) {
+        delegate.writePoint(bucket, org, point);
+    }
+
+    @Override
+    public void writePoint(Point point, WriteParameters parameters) {
+        delegate.writePoint(point, parameters);
+    }
+
+    @Override
+    public void writePoints(String bucket, String org, List<Point> points) {
+        delegate.writePoints(bucket, org, points);
+    }
+
+    @Override
+    public void writePoints(List<Point> points, WriteParameters parameters) {
+        delegate.writePoints(points, parameters);
+    }
+
+    @Override
+    public <M> void writeMeasurement(WritePrecision precision, M measurement) {
+        delegate.writeMeasurement(precision, measurement);
+    }
+
+    @Override
+    public <M> void writeMeasurement(String bucket, String org, WritePrecision precision, M measurement) {
+        delegate.writeMeasurement(bucket, org, precision, measurement);
+    }
+
+    @Override
+    public <M> void writeMeasurement(M measurement, WriteParameters parameters) {
+        delegate.writeMeasurement(measurement, parameters);
+    }
+
+    @Override
+    public <M> void writeMeasurements(WritePrecision precision, List<M> measurements) {
+        delegate.writeMeasurements(precision, measurements);
+    }
+
+    @Override
+    public <M> void writeMeasurements(String bucket, String org, WritePrecision precision, List<M> measurements) {
+        delegate.writeMeasurements(bucket, org, precision, measurements);
+    }
+
+    @Override
+    public <M> void writeMeasurements(List<M> measurements, WriteParameters parameters) {
+        delegate.writeMeasurements(measurements, parameters);
+    }
+
+    @Override
+    public <T extends AbstractWriteEvent> ListenerRegistration listenEvents(Class<T> eventType, EventListener<T> listener) {
+        return delegate.listenEvents(eventType, listener);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,316 @@
+package com.michalbykowy.iotsim.service.spool;
+
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.WriteApiBlocking;
+import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.exceptions.InfluxException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Disk-backed write-ahead spool that takes over InfluxDB writes during an outage.
+ * <p>
+ * While active, line protocol records are appended to memory-mapped segment files
+ * instead of the in-memory buffer of the async write API. A scheduled task pings InfluxDB
+ * and, once it is reachable, replays the spool oldest-first in large blocking batches.
+ * The spool is capped at {@code max-segments}; when full, the oldest segment is evicted
+ * and its unreplayed records are counted as dropped. Replay is at-least-once, which is safe
+ * because InfluxDB overwrites points with an identical series and timestamp. A batch too large for
+ * InfluxDB is split in halves until the parts are accepted. A batch InfluxDB rejects for its
+ * content (400 or 422), such as malformed line protocol or points outside the retention period,
+ * is skipped and counted as rejected, since replaying it again would fail the same way.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "timeseries.store", havingValue = "influx", matchIfMissing = true)
+public class WriteSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteSpool.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    // answers to the content of a batch; every other failure is retried like an outage
+    private static final Set<Integer> REJECTED_STATUSES = Set.of(400, 422);
+    private static final int PAYLOAD_TOO_LARGE = 413;
+
+    private final InfluxDBClient influxDBClient;
+    private final Path directory;
+    private final int segmentSizeBytes;
+    private final int maxSegments;
+    private final int replayBatchSize;
+
+    private final Deque<SpoolSegment> segments = new ArrayDeque<>();
+    private final AtomicBoolean active = new AtomicBoolean(false);
+    private long nextSequence;
+
+    private final Counter spooledCounter;
+    private final Counter replayedCounter;
+    private final Counter droppedCounter;
+    private final Counter rejectedCounter;
+
+    public WriteSpool(
+            InfluxDBClient influxDBClient,
+            @Value("${influx.spool.directory}") Path directory,
+            @Value("${influx.spool.segment-size-bytes}") int segmentSizeBytes,
+            @Value("${influx.spool.max-segments}") int maxSegments,
+            @Value("${influx.spool.replay-batch-size}") int replayBatchSize,
+            MeterRegistry meterRegistry) {
+        this.influxDBClient = influxDBClient;
+        this.directory = directory;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.maxSegments = maxSegments;
+        this.replayBatchSize = replayBatchSize;
+
+        this.spooledCounter = meterRegistry.counter("influx.spool.points", "outcome", "spooled");
+        this.replayedCounter = meterRegistry.counter("influx.spool.points", "outcome", "replayed");
+        this.droppedCounter = meterRegistry.counter("influx.spool.points", "outcome", "dropped");
+        this.rejectedCounter = meterRegistry.counter("influx.spool.points", "outcome", "rejected");
+        Gauge.builder("influx.spool.pending", this, WriteSpool::pendingRecords).register(meterRegistry);
+        Gauge.builder("influx.spool.segments", this, WriteSpool::segmentCount).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing
+                    .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted(Comparator.comparingLong(WriteSpool::sequenceOf))
+                    .toList();
+        }
+
+        synchronized (segments) {
+            for (Path file : files) {
+                long sequence = sequenceOf(file);
+                segments.addLast(SpoolSegment.open(file, sequence, segmentSizeBytes));
+                nextSequence = sequence + 1;
+            }
+        }
+
+        long pending = pendingRecords();
+        if (pending > 0) {
+            active.set(true);
+            logger.warn("Recovered {} spooled InfluxDB records from {}. Replaying when InfluxDB is reachable.",
+                    pending, directory);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        synchronized (segments) {
+            for (SpoolSegment segment : segments) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close spool segment {}", segment.sequence(), e);
+                }
+            }
+            segments.clear();
+        }
+    }
+
+    public boolean isActive() {
+        return active.get();
+    }
+
+    /**
+     * Switches writes to the spool. Called from write API error listeners.
+     */
+    public void activate(String reason) {
+        if (active.compareAndSet(false, true)) {
+            logger.warn("InfluxDB writes failing ({}). Spooling to {}", reason, directory);
+        }
+    }
+
+    public void append(WritePrecision precision, String line) {
+        if (line == null || line.isEmpty()) {
+            return;
+        }
+        byte[] payload = line.getBytes(StandardCharsets.UTF_8);
+        int evicted;
+        synchronized (segments) {
+            SpoolSegment tail = segments.peekLast();
+            if (tail != null && tail.append(precision, payload)) {
+                spooledCounter.increment();
+                return;
+            }
+            evicted = rollSegment();
+            if (segments.getLast().append(precision, payload)) {
+                spooledCounter.increment();
+            } else {
+                // record larger than a whole segment
+                droppedCounter.increment();
+            }
+        }
+        if (evicted > 0) {
+            droppedCounter.increment(evicted);
+        }
+    }
+
+    /**
+     * Seals the current tail and starts a new segment, evicting the oldest one when the cap is reached.
+     *
+     * @return number of unreplayed records lost to eviction.
+     */
+    private int rollSegment() {
+        int evicted = 0;
+        SpoolSegment tail = segments.peekLast();
+        if (tail != null) {
+            tail.force();
+        }
+        while (segments.size() >= maxSegments) {
+            SpoolSegment oldest = segments.removeFirst();
+            evicted += oldest.pendingRecords();
+            deleteQuietly(oldest);
+        }
+        try {
+            long sequence = nextSequence++;
+            Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+            segments.addLast(SpoolSegment.open(file, sequence, segmentSizeBytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create spool segment in " + directory, e);
+        }
+        return evicted;
+    }
+
+    @Scheduled(fixedDelayString = "${influx.spool.replay-interval-ms}")
+    public void replay() {
+        if (!active.get() && pendingRecords() == 0) {
+            return;
+        }
+        if (!Boolean.TRUE.equals(influxDBClient.ping())) {
+            return;
+        }
+
+        WriteApiBlocking writeApiBlocking = influxDBClient.getWriteApiBlocking();
+        long replayed = 0;
+        SpoolBatch batch;
+        while ((batch = nextBatch()) != null) {
+            int rejected;
+            try {
+                rejected = write(writeApiBlocking, batch.precision(), batch.lines());
+            } catch (InfluxException e) {
+                logger.warn("Spool replay interrupted", e);
+                return;
+            }
+            commit(batch);
+            rejectedCounter.increment(rejected);
+            replayedCounter.increment(batch.lines().size() - rejected);
+            replayed += batch.lines().size() - rejected;
+        }
+
+        if (active.compareAndSet(true, false) || replayed > 0) {
+            logger.info("InfluxDB reachable again. Replayed {} spooled records.", replayed);
+        }
+    }
+
+    /**
+     * Writes {@code lines}, halving them while InfluxDB answers 413 Request Entity Too Large.
+     * Parts written before a failure are written again on the next replay.
+     *
+     * @return number of lines InfluxDB rejected for their content, which are skipped.
+     */
+    private int write(WriteApiBlocking writeApiBlocking, WritePrecision precision, List<String> lines) {
+        try {
+            writeApiBlocking.writeRecords(precision, lines);
+            return 0;
+        } catch (InfluxException e) {
+            if (e.status() == PAYLOAD_TOO_LARGE && lines.size() > 1) {
+                int half = lines.size() / 2;
+                return write(writeApiBlocking, precision, lines.subList(0, half))
+                        + write(writeApiBlocking, precision, lines.subList(half, lines.size()));
+            }
+            if (!isRejected(e, lines.size())) {
+                throw e;
+            }
+            logger.error("InfluxDB rejected {} spooled records (HTTP {}). Skipping them.", lines.size(), e.status(), e);
+            return lines.size();
+        }
+    }
+
+    /**
+     * Whether InfluxDB refused the lines themselves, so they would fail again however often they are
+     * replayed. A single record that is still too large can never be written either. Everything else,
+     * including server errors and failures without a response (status 0), is an outage.
+     */
+    private static boolean isRejected(InfluxException e, int lines) {
+        return REJECTED_STATUSES.contains(e.status()) || (e.status() == PAYLOAD_TOO_LARGE && lines == 1);
+    }
+
+    private SpoolBatch nextBatch() {
+        synchronized (segments) {
+            while (!segments.isEmpty()) {
+                SpoolSegment head = segments.peekFirst();
+                SpoolBatch batch = head.peek(replayBatchSize);
+                if (!batch.isEmpty()) {
+                    return batch;
+                }
+                segments.removeFirst();
+                deleteQuietly(head);
+            }
+            return null;
+        }
+    }
+
+    private void commit(SpoolBatch batch) {
+        synchronized (segments) {
+            // the segment may have been evicted while the batch was in flight
+            if (segments.contains(batch.segment())) {
+                batch.segment().commit(batch.endPosition(), batch.lines().size());
+            }
+        }
+    }
+
+    public long pendingRecords() {
+        synchronized (segments) {
+            long pending = 0;
+            for (SpoolSegment segment : segments) {
+                pending += segment.pendingRecords();
+            }
+            return pending;
+        }
+    }
+
+    public int segmentCount() {
+        synchronized (segments) {
+            return segments.size();
+        }
+    }
+
+    private void deleteQuietly(SpoolSegment segment) {
+        try {
+            segment.delete();
+        } catch (IOException e) {
+            logger.warn("Failed to delete spool segment {}", segment.sequence(), e);
+        }
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
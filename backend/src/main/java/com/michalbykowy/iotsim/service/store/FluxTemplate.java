@@ -0,0 +1,36 @@
+package com.michalbykowy.iotsim.service.store;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * A Flux query whose text is built once and never changes; every value, including user input,
+ * is bound through {@code params.<name>} when the query runs, so it cannot alter the query.
+ * Latency is recorded per template as {@code influx.query} tagged with the template name.
+ */
+final class FluxTemplate {
+
+    private final String name;
+    private final String text;
+    private final Timer timer;
+
+    FluxTemplate(String name, String text, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.text = text;
+        this.timer = Timer.builder("influx.query")
+                .tag("template", name)
+                .register(meterRegistry);
+    }
+
+    String name() {
+        return name;
+    }
+
+    String text() {
+        return text;
+    }
+
+    Timer timer() {
+        return timer;
+    }
+}
@@ -0,0 +1,377 @@
+package com.michalbykowy.iotsim.service.store;
+
+import com.influxdb.Cancellable;
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.QueryApi;
+import com.influxdb.client.WriteApi;
+import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.client.write.Point;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import com.michalbykowy.iotsim.dto.LogEntry;
+import com.michalbykowy.iotsim.model.AggregateFunction;
+import com.michalbykowy.iotsim.model.LogLevel;
+import com.michalbykowy.iotsim.model.Measurement;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link TimeSeriesStore} backed by InfluxDB through the async {@link WriteApi} and Flux queries.
+ * <p>
+ * Queries are {@link FluxTemplate}s: the text of each shape is built once and cached, and all
+ * values travel as query parameters instead of being formatted into the query.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "timeseries.store", havingValue = "influx", matchIfMissing = true)
+public class InfluxTimeSeriesStore implements TimeSeriesStore {
+    private static final Logger logger = LoggerFactory.getLogger(InfluxTimeSeriesStore.class);
+
+    private static final String WINDOW_STAGE =
+            "  |> aggregateWindow(every: duration(v: params.windowParam), fn: mean, createEmpty: false)\n";
+    private static final String FIELDS_STAGE =
+            "  |> filter(fn: (r) => contains(value: r._field, set: params.fieldsParam))\n";
+
+    private final InfluxDBClient influxDBClient;
+    private final WriteApi writeApi;
+    private final String bucket;
+    private final String org;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, FluxTemplate> templates = new ConcurrentHashMap<>();
+
+    public InfluxTimeSeriesStore(
+            InfluxDBClient influxDBClient,
+            WriteApi writeApi,
+            @Value("${influx.bucket}") String bucket,
+            @Value("${influx.org}") String org,
+            MeterRegistry meterRegistry) {
+        this.influxDBClient = influxDBClient;
+        this.writeApi = writeApi;
+        this.bucket = bucket;
+        this.org = org;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * How a bound of a range is expressed: an RFC 3339 time, a duration relative to now, or now
+     * itself when absent. Each kind is a separate template variant.
+     */
+    private enum RangeBound {
+        NOW,
+        TIME,
+        DURATION;
+
+        String expression(String param) {
+            return switch (this) {
+                case NOW -> "now()";
+                case TIME -> "time(v: params." + param + ")";
+                case DURATION -> "duration(v: params." + param + ")";
+            };
+        }
+
+        static RangeBound of(String bound) {
+            if (bound == null) {
+                return NOW;
+            }
+            return bound.contains("T") ? TIME : DURATION;
+        }
+    }
+
+    private FluxTemplate template(String name, String variant, Supplier<String> text) {
+        return templates.computeIfAbsent(name + ":" + variant,
+                key -> new FluxTemplate(name, text.get(), meterRegistry));
+    }
+
+    private List<Map<String, Object>> executeQuery(FluxTemplate template, Map<String, Object> params) {
+        logger.debug("Executing Flux template {} with {}", template.name(), params);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            QueryApi queryApi = influxDBClient.getQueryApi();
+            List<FluxTable> tables = queryApi.query(template.text(), org, params);
+
+            List<Map<String, Object>> result = new ArrayList<>();
+            for (FluxTable table : tables) {
+                for (FluxRecord fluxRecord : table.getRecords()) {
+                    result.add(fluxRecord.getValues());
+                }
+            }
+            return result;
+        } catch (RuntimeException e) {
+            logger.error("Failed to execute Flux template {}", template.name(), e);
+            return List.of();
+        } finally {
+            sample.stop(template.timer());
+        }
+    }
+
+    private void streamQuery(FluxTemplate template, Map<String, Object> params, Consumer<Map<String, Object>> consumer) {
+        logger.debug("Streaming Flux template {} with {}", template.name(), params);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        CountDownLatch completed = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        influxDBClient.getQueryApi().query(template.text(), org,
+                (Cancellable cancellable, FluxRecord fluxRecord) -> {
+                    try {
+                        consumer.accept(fluxRecord.getValues());
+                    } catch (RuntimeException e) {
+                        // consumer gone (e.g. client disconnected), stop pulling from InfluxDB
+                        failure.set(e);
+                        cancellable.cancel();
+                        completed.countDown();
+                    }
+                },
+                (Throwable error) -> {
+                    failure.set(error);
+                    completed.countDown();
+                },
+                completed::countDown,
+                params);
+
+        try {
+            completed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            sample.stop(template.timer());
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof UncheckedIOException uncheckedIOException) {
+            throw uncheckedIOException;
+        }
+        if (error != null) {
+            logger.error("Failed to stream Flux template {}", template.name(), error);
+        }
+    }
+
+    private static String relative(String range) {
+        if (!range.startsWith("-") && !range.contains("T")) {
+            return "-" + range;
+        }
+        return range;
+    }
+
+    @Override
+    public void writeSensorReading(String deviceId, Instant time, Map<String, Double> fields) {
+        Point point = Point.measurement(Measurement.SENSOR_READINGS.getValue())
+                .addTag("deviceId", deviceId)
+                .time(time, WritePrecision.NS);
+        fields.forEach(point::addField);
+        writeApi.writePoint(point);
+    }
+
+    @Override
+    public List<Map<String, Object>> readSensorReadings(String deviceId, String start, String stop) {
+        return executeQuery(sensorDataTemplate(RangeBound.of(start), RangeBound.of(stop), false),
+                sensorDataParams(deviceId, start, stop, null));
+    }
+
+    @Override
+    public void streamSensorReadings(String deviceId, String start, String stop, Duration window,
+                                     Consumer<Map<String, Object>> consumer) {
+        streamQuery(sensorDataTemplate(RangeBound.of(start), RangeBound.of(stop), window != null),
+                sensorDataParams(deviceId, start, stop, window), consumer);
+    }
+
+    private FluxTemplate sensorDataTemplate(RangeBound start, RangeBound stop, boolean windowed) {
+        return template("sensor_data", start + "/" + stop + "/" + windowed, () -> """
+                from(bucket: params.bucketParam)
+                  |> range(start: %s, stop: %s)
+                  |> filter(fn: (r) => r._measurement == params.measurementParam)
+                  |> filter(fn: (r) => r.deviceId == params.deviceIdParam)
+                %s  |> pivot(rowKey:["_time"], columnKey: ["_field"], valueColumn: "_value")
+                """.formatted(start.expression("startParam"), stop.expression("stopParam"), windowed ? WINDOW_STAGE : ""));
+    }
+
+    private Map<String, Object> sensorDataParams(String deviceId, String start, String stop, Duration window) {
+        Map<String, Object> params = rangeParams("startParam", start, stop, window);
+        params.put("deviceIdParam", deviceId);
+        return params;
+    }
+
+    private Map<String, Object> rangeParams(String startName, String start, String stop, Duration window) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("bucketParam", bucket);
+        params.put("measurementParam", Measurement.SENSOR_READINGS.getValue());
+        params.put(startName, relative(start));
+        if (stop != null) {
+            params.put("stopParam", relative(stop));
+        }
+        if (window != null) {
+            params.put("windowParam", window.toSeconds() + "s");
+        }
+        return params;
+    }
+
+    @Override
+    public void streamSensorReadings(Collection<String> deviceIds, Collection<String> fields, String start,
+                                     String stop, Duration window, Consumer<Map<String, Object>> consumer) {
+        if (deviceIds.isEmpty()) {
+            return;
+        }
+        boolean filterFields = fields != null && !fields.isEmpty();
+
+        Map<String, Object> params = rangeParams("startParam", start, stop, window);
+        params.put("deviceIdsParam", List.copyOf(deviceIds));
+        if (filterFields) {
+            params.put("fieldsParam", List.copyOf(fields));
+        }
+        streamQuery(multiDeviceTemplate(RangeBound.of(start), RangeBound.of(stop), window != null, filterFields),
+                params, consumer);
+    }
+
+    /**
+     * One query for the whole device set; pivot keeps {@code deviceId} in the group key, so the
+     * result arrives as one table per device.
+     */
+    private FluxTemplate multiDeviceTemplate(RangeBound start, RangeBound stop, boolean windowed, boolean filterFields) {
+        return template("multi_device_data", start + "/" + stop + "/" + windowed + "/" + filterFields, () -> """
+                from(bucket: params.bucketParam)
+                  |> range(start: %s, stop: %s)
+                  |> filter(fn: (r) => r._measurement == params.measurementParam)
+                  |> filter(fn: (r) => contains(value: r.deviceId, set: params.deviceIdsParam))
+                %s%s  |> pivot(rowKey:["_time"], columnKey: ["_field"], valueColumn: "_value")
+                """.formatted(start.expression("startParam"), stop.expression("stopParam"),
+                        filterFields ? FIELDS_STAGE : "", windowed ? WINDOW_STAGE : ""));
+    }
+
+    @Override
+    public Optional<Double> aggregateSensorReadings(String deviceId, String field, String start,
+                                                    AggregateFunction aggregateFunction) {
+        FluxTemplate template = template("aggregate_" + aggregateFunction.toFluxFunction(), "", () -> """
+                from(bucket: params.bucketParam)
+                  |> range(start: duration(v: params.rangeParam))
+                  |> filter(fn: (r) => r._measurement == params.measurementParam)
+                  |> filter(fn: (r) => r.deviceId == params.deviceIdParam)
+                  |> filter(fn: (r) => r._field == params.fieldParam)
+                  |> %s()
+                """.formatted(aggregateFunction.toFluxFunction()));
+
+        Map<String, Object> params = rangeParams("rangeParam", start, null, null);
+        params.put("deviceIdParam", deviceId);
+        params.put("fieldParam", field);
+
+        List<Map<String, Object>> result = executeQuery(template, params);
+        return extractAggregateResult(result);
+    }
+
+    private Optional<Double> extractAggregateResult(List<Map<String, Object>> result) {
+        if (result.isEmpty()) {
+            return Optional.empty();
+        }
+        Object value = result.getFirst().get("_value");
+        if (value instanceof Number number) {
+            return Optional.of(number.doubleValue());
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public void writeLogEntry(Instant time, LogLevel level, String loggerName, String message) {
+        writeApi.writePoint(logPoint(time, level, loggerName, message));
+    }
+
+    @Override
+    public void writeLogEntries(List<LogEntry> entries) {
+        List<Point> points = new ArrayList<>(entries.size());
+        for (LogEntry entry : entries) {
+            points.add(logPoint(entry.time(), entry.level(), entry.loggerName(), entry.message()));
+        }
+        writeApi.writePoints(points);
+    }
+
+    private static Point logPoint(Instant time, LogLevel level, String loggerName, String message) {
+        return Point.measurement(Measurement.SYSTEM_LOGS.getValue())
+                .addTag("level", level.name())
+                .addTag("loggerName", loggerName)
+                .addField("message", message)
+                .time(time, WritePrecision.MS);
+    }
+
+    @Override
+    public List<Map<String, Object>> readLogHistory(String start) {
+        FluxTemplate template = template("log_history", "", () -> """
+                from(bucket: params.bucketParam)
+                  |> range(start: duration(v: params.rangeParam))
+                  |> filter(fn: (r) => r._measurement == params.measurementParam and r._field == "message")
+                  |> tail(n: 1000)
+                  |> group()
+                  |> sort(columns: ["_time"])
+                  |> tail(n: 1000)
+                  |> rename(columns: {_value: "message"})
+                """);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("bucketParam", bucket);
+        params.put("measurementParam", Measurement.SYSTEM_LOGS.getValue());
+        params.put("rangeParam", relative(start));
+        return executeQuery(template, params);
+    }
+
+    @Override
+    public void streamLogEntries(LogQuery query, Consumer<Map<String, Object>> consumer) {
+        boolean filterLevels = !query.levels().isEmpty();
+        boolean filterLogger = query.loggerPrefix() != null;
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("bucketParam", bucket);
+        params.put("measurementParam", Measurement.SYSTEM_LOGS.getValue());
+        params.put("fromParam", query.from().toString());
+        params.put("toParam", query.to().toString());
+        params.put("limitParam", query.limit());
+        if (filterLevels) {
+            params.put("levelsParam", query.levels().stream().map(LogLevel::name).sorted().toList());
+        }
+        if (filterLogger) {
+            params.put("loggerPrefixParam", query.loggerPrefix());
+        }
+        streamQuery(logPageTemplate(query.newest(), filterLevels, filterLogger), params, consumer);
+    }
+
+    /**
+     * Level and logger are tags, so both filters are pushed down to the storage engine and every
+     * level/logger pair is its own series. Cutting each series to the page size before merging bounds
+     * the sort by page size times series count, however many entries the range holds; logs have a
+     * single field, so no pivot is needed either.
+     */
+    private FluxTemplate logPageTemplate(boolean newest, boolean filterLevels, boolean filterLogger) {
+        String selector = newest ? "tail" : "limit";
+        return template("log_page", newest + "/" + filterLevels + "/" + filterLogger, () -> """
+                %sfrom(bucket: params.bucketParam)
+                  |> range(start: time(v: params.fromParam), stop: time(v: params.toParam))
+                  |> filter(fn: (r) => r._measurement == params.measurementParam and r._field == "message")
+                %s%s  |> %s(n: params.limitParam)
+                  |> group()
+                  |> sort(columns: ["_time"])
+                  |> %s(n: params.limitParam)
+                  |> rename(columns: {_value: "message"})
+                  |> keep(columns: ["_time", "_measurement", "level", "loggerName", "message"])
+                """.formatted(
+                filterLogger ? "import \"strings\"\n\n" : "",
+                filterLevels ? "  |> filter(fn: (r) => contains(value: r.level, set: params.levelsParam))\n" : "",
+                filterLogger ? "  |> filter(fn: (r) => strings.hasPrefix(v: r.loggerName, prefix: params.loggerPrefixParam))\n" : "",
+                selector, selector));
+    }
+}
@@ -0,0 +1,28 @@
+package com.michalbykowy.iotsim.service.store;
+
+import com.michalbykowy.iotsim.model.LogLevel;
+
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * One page of log entries with {@code _time} in {@code [from, to)}: the {@code limit} newest entries
+ * when {@code newest} is set, otherwise the {@code limit} oldest. An empty {@code levels} set and a
+ * {@code null} {@code loggerPrefix} match every entry.
+ */
+public record LogQuery(Instant from, Instant to, boolean newest, int limit, Set<LogLevel> levels, String loggerPrefix) {
+
+    public LogQuery {
+        levels = levels == null ? Set.of() : Set.copyOf(levels);
+    }
+
+    public boolean matches(long millis, String level, String loggerName) {
+        if (millis < from.toEpochMilli() || millis >= to.toEpochMilli()) {
+            return false;
+        }
+        if (!levels.isEmpty() && levels.stream().noneMatch(candidate -> candidate.name().equals(level))) {
+            return false;
+        }
+        return loggerPrefix == null || loggerName.startsWith(loggerPrefix);
+    }
+}
@@ -0,0 +1,63 @@
+package com.michalbykowy.iotsim.service.store;
+
+import com.michalbykowy.iotsim.dto.LogEntry;
+import com.michalbykowy.iotsim.model.AggregateFunction;
+import com.michalbykowy.iotsim.model.LogLevel;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Storage backend for sensor readings and system logs.
+ * <p>
+ * Range bounds use the syntax of the REST API: relative durations such as {@code -1h} (the leading
+ * dash may be omitted) or RFC3339 timestamps. A {@code null} stop means now. Records are returned
+ * pivoted, one map per timestamp with {@code _time}, {@code deviceId} and one entry per field.
+ * </p>
+ */
+public interface TimeSeriesStore {
+
+    void writeSensorReading(String deviceId, Instant time, Map<String, Double> fields);
+
+    List<Map<String, Object>> readSensorReadings(String deviceId, String start, String stop);
+
+    /**
+     * Streams readings in time order. With a {@code window}, emits the per-window mean of every
+     * field instead, stamped with the window end, like {@code aggregateWindow(fn: mean)}.
+     */
+    void streamSensorReadings(String deviceId, String start, String stop, Duration window,
+                              Consumer<Map<String, Object>> consumer);
+
+    /**
+     * Streams the readings of several devices in one pass, limited to {@code fields} (every field when
+     * empty). Records are grouped by device and in time order within a device; {@code window} works as above.
+     */
+    void streamSensorReadings(Collection<String> deviceIds, Collection<String> fields, String start, String stop,
+                              Duration window, Consumer<Map<String, Object>> consumer);
+
+    Optional<Double> aggregateSensorReadings(String deviceId, String field, String start, AggregateFunction function);
+
+    void writeLogEntry(Instant time, LogLevel level, String loggerName, String message);
+
+    default void writeLogEntries(List<LogEntry> entries) {
+        for (LogEntry entry : entries) {
+            writeLogEntry(entry.time(), entry.level(), entry.loggerName(), entry.message());
+        }
+    }
+
+    /**
+     * Returns at most the 1000 most recent log entries since {@code start}, oldest first.
+     */
+    List<Map<String, Object>> readLogHistory(String start);
+
+    /**
+     * Streams one page of log entries oldest first, each with {@code _time}, {@code _measurement},
+     * {@code level}, {@code loggerName} and {@code message}. Only the page is read, never the whole range.
+     */
+    void streamLogEntries(LogQuery query, Consumer<Map<String, Object>> consumer);
+}
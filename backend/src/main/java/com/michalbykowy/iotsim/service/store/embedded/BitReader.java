@@ -0,0 +1,47 @@
+package com.michalbykowy.iotsim.service.store.embedded;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a {@link BitWriter} stream from a (typically memory-mapped) buffer without copying it.
+ */
+final class BitReader {
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private long bitPosition;
+
+    BitReader(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    boolean readBit() {
+        int current = buffer.get(offset + (int) (bitPosition >>> 3)) & 0xFF;
+        boolean bit = ((current >>> (7 - (bitPosition & 7))) & 1) == 1;
+        bitPosition++;
+        return bit;
+    }
+
+    long read(int bits) {
+        long result = 0;
+        while (bits > 0) {
+            int current = buffer.get(offset + (int) (bitPosition >>> 3)) & 0xFF;
+            int available = 8 - (int) (bitPosition & 7);
+            int take = Math.min(available, bits);
+            int chunk = (current >>> (available - take)) & ((1 << take) - 1);
+            result = (result << take) | chunk;
+            bits -= take;
+            bitPosition += take;
+        }
+        return result;
+    }
+
+    /**
+     * Reads {@code bits} bits as a two's complement number.
+     */
+    long readSigned(int bits) {
+        long value = read(bits);
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+}
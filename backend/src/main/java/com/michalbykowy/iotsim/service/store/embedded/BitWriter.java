@@ -0,0 +1,60 @@
+package com.michalbykowy.iotsim.service.store.embedded;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable most-significant-bit-first bit stream backed by a {@code long[]}.
+ */
+final class BitWriter {
+
+    private long[] words = new long[32];
+    private long bitCount;
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Appends the lowest {@code bits} bits of {@code value}, 1 to 64.
+     */
+    void write(long value, int bits) {
+        int wordIndex = (int) (bitCount >>> 6);
+        int used = (int) (bitCount & 63);
+        if (wordIndex + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        long masked = bits == 64 ? value : value & ((1L << bits) - 1);
+        int free = 64 - used;
+        if (bits <= free) {
+            words[wordIndex] |= masked << (free - bits);
+        } else {
+            int spill = bits - free;
+            words[wordIndex] |= masked >>> spill;
+            words[wordIndex + 1] |= masked << (64 - spill);
+        }
+        bitCount += bits;
+    }
+
+    long bitCount() {
+        return bitCount;
+    }
+
+    int byteLength() {
+        return (int) ((bitCount + 7) >>> 3);
+    }
+
+    void writeTo(ByteBuffer target) {
+        writeTo(target, 0);
+    }
+
+    /**
+     * Writes the bytes from {@code fromByte} on, including a trailing partially filled byte.
+     */
+    void writeTo(ByteBuffer target, int fromByte) {
+        int length = byteLength();
+        for (int i = fromByte; i < length; i++) {
+            target.put((byte) (words[i >>> 3] >>> (56 - 8 * (i & 7))));
+        }
+    }
+}
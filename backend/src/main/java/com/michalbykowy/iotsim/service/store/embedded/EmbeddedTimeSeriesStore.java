@@ -0,0 +1,632 @@
+package com.michalbykowy.iotsim.service.store.embedded;
+
+import com.michalbykowy.iotsim.model.AggregateFunction;
+import com.michalbykowy.iotsim.model.LogLevel;
+import com.michalbykowy.iotsim.model.Measurement;
+import com.michalbykowy.iotsim.service.history.HistoryRange;
+import com.michalbykowy.iotsim.service.history.WindowedMean;
+import com.michalbykowy.iotsim.service.store.LogQuery;
+import com.michalbykowy.iotsim.service.store.TimeSeriesStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * File-backed columnar {@link TimeSeriesStore} for deployments without InfluxDB.
+ * <p>
+ * Readings are split into time partitions ({@code sensors/<partition>/<device>/<field>.<n>.gor}),
+ * one Gorilla-compressed chunk file per device field. The newest chunk of every series is built in
+ * memory; each flush appends only the bytes encoded since the previous one to {@code <chunk>.open}
+ * and then rewrites the header, and sealing renames the file to its final name. A crash loses at
+ * most one flush interval: open files left behind are repaired on startup, keeping the points in
+ * front of a torn tail. Sealed chunks are immutable and read through memory mapping. Logs go to one
+ * append-only file per partition. Partitions older than the retention period are deleted.
+ * Timestamps are kept with millisecond precision.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "timeseries.store", havingValue = "embedded")
+public class EmbeddedTimeSeriesStore implements TimeSeriesStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedTimeSeriesStore.class);
+
+    static final int MAX_POINTS_PER_CHUNK = 8192;
+    private static final int LOG_HISTORY_LIMIT = 1000;
+    private static final String CHUNK_SUFFIX = ".gor";
+    private static final String OPEN_SUFFIX = ".open";
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Path sensorsDirectory;
+    private final Path logsDirectory;
+    private final long partitionMillis;
+    private final long retentionMillis;
+
+    private final Map<String, Map<String, SeriesHead>> heads = new ConcurrentHashMap<>();
+
+    private final Object logLock = new Object();
+    private DataOutputStream logOutput;
+    private long logPartition = Long.MIN_VALUE;
+    private long purgedPartition = Long.MIN_VALUE;
+
+    public EmbeddedTimeSeriesStore(
+            @Value("${timeseries.embedded.directory}") Path directory,
+            @Value("${timeseries.embedded.partition-minutes}") long partitionMinutes,
+            @Value("${timeseries.embedded.retention-hours}") long retentionHours) {
+        this.sensorsDirectory = directory.resolve("sensors");
+        this.logsDirectory = directory.resolve("logs");
+        this.partitionMillis = Duration.ofMinutes(partitionMinutes).toMillis();
+        this.retentionMillis = Duration.ofHours(retentionHours).toMillis();
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(sensorsDirectory);
+        Files.createDirectories(logsDirectory);
+        purgeExpired();
+        repairOpenChunks();
+        logger.info("Embedded time-series store at {}", sensorsDirectory.getParent());
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+        synchronized (logLock) {
+            closeLogOutput();
+        }
+    }
+
+    // --- sensor readings ---
+
+    @Override
+    public void writeSensorReading(String deviceId, Instant time, Map<String, Double> fields) {
+        long millis = time.toEpochMilli();
+        long partition = partitionOf(millis);
+        Map<String, SeriesHead> deviceHeads = heads.computeIfAbsent(deviceId, id -> new ConcurrentHashMap<>());
+        fields.forEach((field, value) -> append(deviceId, deviceHeads, field, partition, millis, value));
+    }
+
+    private void append(String deviceId, Map<String, SeriesHead> deviceHeads, String field,
+                        long partition, long millis, double value) {
+        while (true) {
+            SeriesHead head = deviceHeads.computeIfAbsent(field,
+                    key -> new SeriesHead(key, partition, nextChunkFile(deviceId, key, partition)));
+            synchronized (head) {
+                if (head.sealed) {
+                    continue;
+                }
+                if (partition > head.partition || head.encoder.count() >= MAX_POINTS_PER_CHUNK) {
+                    seal(deviceHeads, head);
+                    continue;
+                }
+                // a reading racing a partition boundary may land in the previous partition's chunk
+                head.encoder.append(millis, value);
+                head.dirty = true;
+                return;
+            }
+        }
+    }
+
+    private Path nextChunkFile(String deviceId, String field, long partition) {
+        Path deviceDirectory = sensorsDirectory.resolve(Long.toString(partition)).resolve(encodeName(deviceId));
+        String prefix = encodeName(field) + ".";
+        for (int sequence = 0; ; sequence++) {
+            Path file = deviceDirectory.resolve(prefix + sequence + CHUNK_SUFFIX);
+            if (!Files.exists(file) && !Files.exists(openFileOf(file))) {
+                return file;
+            }
+        }
+    }
+
+    private static Path openFileOf(Path chunkFile) {
+        return chunkFile.resolveSibling(chunkFile.getFileName() + OPEN_SUFFIX);
+    }
+
+    private void seal(Map<String, SeriesHead> deviceHeads, SeriesHead head) {
+        flush(head);
+        if (!head.dirty) {
+            try {
+                Files.move(openFileOf(head.file), head.file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.error("Failed to seal chunk {}: {}", head.file, e.getMessage());
+            }
+        }
+        head.sealed = true;
+        deviceHeads.remove(head.field, head);
+    }
+
+    @Override
+    public List<Map<String, Object>> readSensorReadings(String deviceId, String start, String stop) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        streamSensorReadings(deviceId, start, stop, null, result::add);
+        return result;
+    }
+
+    @Override
+    public void streamSensorReadings(String deviceId, String start, String stop, Duration window,
+                                     Consumer<Map<String, Object>> consumer) {
+        streamDevice(deviceId, Set.of(), HistoryRange.resolve(start, stop, Instant.now()), window, consumer);
+    }
+
+    @Override
+    public void streamSensorReadings(Collection<String> deviceIds, Collection<String> fields, String start,
+                                     String stop, Duration window, Consumer<Map<String, Object>> consumer) {
+        // chunks are local files, so a loop over the devices is as good as a single query
+        HistoryRange range = HistoryRange.resolve(start, stop, Instant.now());
+        Set<String> fieldSet = fields != null ? Set.copyOf(fields) : Set.of();
+        for (String deviceId : new LinkedHashSet<>(deviceIds)) {
+            streamDevice(deviceId, fieldSet, range, window, consumer);
+        }
+    }
+
+    /**
+     * Streams one device, limited to {@code fields} unless empty.
+     */
+    private void streamDevice(String deviceId, Set<String> fields, HistoryRange range, Duration window,
+                              Consumer<Map<String, Object>> consumer) {
+        long fromMillis = range.start().toEpochMilli();
+        long toMillis = range.stop().toEpochMilli();
+
+        WindowedMean windowedMean = window != null ? new WindowedMean(window, range.stop(), consumer) : null;
+        Consumer<Map<String, Object>> sink = windowedMean != null ? windowedMean : consumer;
+
+        Map<Long, List<Chunk>> chunksByPartition = chunks(deviceId, fromMillis, toMillis);
+        for (List<Chunk> partitionChunks : chunksByPartition.values()) {
+            // pivot: one row per timestamp, one column per field
+            TreeMap<Long, Map<String, Object>> rows = new TreeMap<>();
+            for (Chunk chunk : partitionChunks) {
+                if (!fields.isEmpty() && !fields.contains(chunk.field())) {
+                    continue;
+                }
+                GorillaChunk.Decoder decoder = new GorillaChunk.Decoder(chunk.buffer());
+                while (decoder.next()) {
+                    long time = decoder.time();
+                    if (time >= fromMillis && time < toMillis) {
+                        rows.computeIfAbsent(time, key -> newRecord(deviceId, key)).put(chunk.field(), decoder.value());
+                    }
+                }
+            }
+            rows.values().forEach(sink);
+        }
+        if (windowedMean != null) {
+            windowedMean.finish();
+        }
+    }
+
+    @Override
+    public Optional<Double> aggregateSensorReadings(String deviceId, String field, String start,
+                                                    AggregateFunction function) {
+        HistoryRange range = HistoryRange.resolve(start, null, Instant.now());
+        long fromMillis = range.start().toEpochMilli();
+        long toMillis = range.stop().toEpochMilli();
+
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        long count = 0;
+        for (List<Chunk> partitionChunks : chunks(deviceId, fromMillis, toMillis).values()) {
+            for (Chunk chunk : partitionChunks) {
+                if (!chunk.field().equals(field)) {
+                    continue;
+                }
+                GorillaChunk.Header header = GorillaChunk.Header.read(chunk.buffer());
+                if (header.within(fromMillis, toMillis - 1)) {
+                    // whole chunk in range, the header summary is enough
+                    sum += header.sum();
+                    min = Math.min(min, header.min());
+                    max = Math.max(max, header.max());
+                    count += header.count();
+                    continue;
+                }
+                GorillaChunk.Decoder decoder = new GorillaChunk.Decoder(chunk.buffer());
+                while (decoder.next()) {
+                    if (decoder.time() >= fromMillis && decoder.time() < toMillis) {
+                        double value = decoder.value();
+                        sum += value;
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                        count++;
+                    }
+                }
+            }
+        }
+
+        if (count == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(switch (function) {
+            case MEAN -> sum / count;
+            case MAX -> max;
+            case MIN -> min;
+            case SUM -> sum;
+            case COUNT -> (double) count;
+        });
+    }
+
+    private record Chunk(String field, ByteBuffer buffer) {}
+
+    /**
+     * Collects the chunks of a device overlapping {@code [fromMillis, toMillis]}, grouped by partition
+     * in time order. Open heads are snapshotted and replace their possibly stale chunk file.
+     */
+    private Map<Long, List<Chunk>> chunks(String deviceId, long fromMillis, long toMillis) {
+        Map<Long, List<Chunk>> chunksByPartition = new TreeMap<>();
+        Set<Path> openFiles = new HashSet<>();
+
+        Map<String, SeriesHead> deviceHeads = heads.getOrDefault(deviceId, Map.of());
+        for (SeriesHead head : deviceHeads.values()) {
+            synchronized (head) {
+                if (head.sealed) {
+                    continue;
+                }
+                openFiles.add(head.file);
+                ByteBuffer buffer = ByteBuffer.wrap(head.encoder.toByteArray());
+                if (GorillaChunk.Header.read(buffer).overlaps(fromMillis, toMillis)) {
+                    chunksByPartition.computeIfAbsent(head.partition, key -> new ArrayList<>())
+                            .add(new Chunk(head.field, buffer));
+                }
+            }
+        }
+
+        String deviceName = encodeName(deviceId);
+        for (long partition : partitions(sensorsDirectory, "", fromMillis, toMillis)) {
+            Path deviceDirectory = sensorsDirectory.resolve(Long.toString(partition)).resolve(deviceName);
+            if (!Files.isDirectory(deviceDirectory)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.list(deviceDirectory)) {
+                for (Path file : files.filter(path -> path.toString().endsWith(CHUNK_SUFFIX)).toList()) {
+                    if (openFiles.contains(file)) {
+                        continue;
+                    }
+                    ByteBuffer buffer = map(file);
+                    if (buffer != null && GorillaChunk.Header.read(buffer).overlaps(fromMillis, toMillis)) {
+                        chunksByPartition.computeIfAbsent(partition, key -> new ArrayList<>())
+                                .add(new Chunk(decodeName(fieldOf(file)), buffer));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot list " + deviceDirectory, e);
+            }
+        }
+        return chunksByPartition;
+    }
+
+    private static String fieldOf(Path chunkFile) {
+        String name = chunkFile.getFileName().toString();
+        return name.substring(0, name.indexOf('.'));
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < GorillaChunk.HEADER_BYTES) {
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            // removed by retention while listing
+            return null;
+        }
+    }
+
+    // --- logs ---
+
+    @Override
+    public void writeLogEntry(Instant time, LogLevel level, String loggerName, String message) {
+        long millis = time.toEpochMilli();
+        long partition = partitionOf(millis);
+        synchronized (logLock) {
+            try {
+                if (logOutput == null || partition > logPartition) {
+                    closeLogOutput();
+                    Path file = logsDirectory.resolve(partition + LOG_SUFFIX);
+                    logOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+                    logPartition = partition;
+                }
+                logOutput.writeLong(millis);
+                writeString(logOutput, level.name());
+                writeString(logOutput, loggerName);
+                writeString(logOutput, message);
+            } catch (IOException e) {
+                // the appender reports failures on stderr
+                throw new UncheckedIOException("Cannot write log entry", e);
+            }
+        }
+    }
+
+    @Override
+    public List<Map<String, Object>> readLogHistory(String start) {
+        Instant from = HistoryRange.resolve(start, null, Instant.now()).start();
+        List<Map<String, Object>> entries = new ArrayList<>();
+        streamLogEntries(new LogQuery(from, Instant.ofEpochMilli(Long.MAX_VALUE), true, LOG_HISTORY_LIMIT, Set.of(), null),
+                entries::add);
+        return entries;
+    }
+
+    @Override
+    public void streamLogEntries(LogQuery query, Consumer<Map<String, Object>> consumer) {
+        synchronized (logLock) {
+            flushLogOutput();
+        }
+
+        List<Long> partitions = new ArrayList<>(partitions(logsDirectory, LOG_SUFFIX,
+                query.from().toEpochMilli(), query.to().toEpochMilli() - 1));
+        if (query.newest()) {
+            Collections.reverse(partitions);
+        }
+        // start at the end the page is taken from, stop once enough entries are collected
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (int i = 0; i < partitions.size() && entries.size() < query.limit(); i++) {
+            entries.addAll(readLogPartition(logsDirectory.resolve(partitions.get(i) + LOG_SUFFIX), query));
+        }
+
+        entries.sort(Comparator.comparing(entry -> (Instant) entry.get("_time")));
+        int size = entries.size();
+        List<Map<String, Object>> page = query.newest()
+                ? entries.subList(Math.max(0, size - query.limit()), size)
+                : entries.subList(0, Math.min(size, query.limit()));
+        page.forEach(consumer);
+    }
+
+    private List<Map<String, Object>> readLogPartition(Path file, LogQuery query) {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        try {
+            ByteBuffer buffer = map(file);
+            if (buffer == null) {
+                return entries;
+            }
+            while (buffer.hasRemaining()) {
+                long millis = buffer.getLong();
+                String level = readString(buffer);
+                String loggerName = readString(buffer);
+                String message = readString(buffer);
+                if (query.matches(millis, level, loggerName)) {
+                    Map<String, Object> entry = new LinkedHashMap<>();
+                    entry.put("_time", Instant.ofEpochMilli(millis));
+                    entry.put("_measurement", Measurement.SYSTEM_LOGS.getValue());
+                    entry.put("level", level);
+                    entry.put("loggerName", loggerName);
+                    entry.put("message", message);
+                    entries.add(entry);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            // torn last entry after a crash
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + file, e);
+        }
+        return entries;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void flushLogOutput() {
+        if (logOutput != null) {
+            try {
+                logOutput.flush();
+            } catch (IOException e) {
+                logger.error("Failed to flush log partition: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void closeLogOutput() {
+        if (logOutput != null) {
+            try {
+                logOutput.close();
+            } catch (IOException e) {
+                logger.error("Failed to close log partition: {}", e.getMessage());
+            }
+            logOutput = null;
+        }
+    }
+
+    // --- maintenance ---
+
+    /**
+     * Writes dirty heads to disk and seals heads of partitions that have ended.
+     */
+    @Scheduled(fixedDelayString = "${timeseries.embedded.flush-interval-ms}")
+    public void flush() {
+        long currentPartition = partitionOf(System.currentTimeMillis());
+        for (Map<String, SeriesHead> deviceHeads : heads.values()) {
+            for (SeriesHead head : deviceHeads.values()) {
+                synchronized (head) {
+                    if (head.sealed) {
+                        continue;
+                    }
+                    if (head.partition < currentPartition) {
+                        seal(deviceHeads, head);
+                    } else {
+                        flush(head);
+                    }
+                }
+            }
+        }
+        synchronized (logLock) {
+            flushLogOutput();
+        }
+        if (currentPartition != purgedPartition) {
+            purgeExpired();
+        }
+    }
+
+    private void flush(SeriesHead head) {
+        if (!head.dirty) {
+            return;
+        }
+        try {
+            Files.createDirectories(head.file.getParent());
+            try (FileChannel channel = FileChannel.open(openFileOf(head.file),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // the new bytes first, so the header never counts points that are not on disk yet;
+                // the last partially filled byte is written again with the bits added since
+                writeFully(channel, head.encoder.body(head.flushedBytes), GorillaChunk.HEADER_BYTES + head.flushedBytes);
+                writeFully(channel, head.encoder.header(), 0);
+            }
+            head.flushedBytes = head.encoder.completeBytes();
+            head.dirty = false;
+        } catch (IOException e) {
+            logger.error("Failed to flush chunk {}: {}", head.file, e.getMessage());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Turns the open chunk files of a previous run into sealed chunks. A crash during a flush can
+     * leave a header counting more points than the bit stream holds, so points are decoded until
+     * the count is reached or the stream runs out, and re-encoded.
+     */
+    private void repairOpenChunks() throws IOException {
+        List<Path> openFiles;
+        try (Stream<Path> paths = Files.walk(sensorsDirectory)) {
+            openFiles = paths.filter(path -> path.toString().endsWith(CHUNK_SUFFIX + OPEN_SUFFIX)).toList();
+        }
+        for (Path openFile : openFiles) {
+            String name = openFile.getFileName().toString();
+            Path file = openFile.resolveSibling(name.substring(0, name.length() - OPEN_SUFFIX.length()));
+            GorillaChunk.Encoder encoder = new GorillaChunk.Encoder();
+            try {
+                GorillaChunk.Decoder decoder = new GorillaChunk.Decoder(ByteBuffer.wrap(Files.readAllBytes(openFile)));
+                while (decoder.next()) {
+                    encoder.append(decoder.time(), decoder.value());
+                }
+            } catch (IllegalStateException | IndexOutOfBoundsException | BufferUnderflowException e) {
+                // torn header or tail: keep what was decoded before it
+                logger.warn("Recovered {} points from torn chunk {}", encoder.count(), openFile);
+            }
+            if (encoder.count() > 0) {
+                Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(temporary, encoder.toByteArray());
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.delete(openFile);
+        }
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        purgedPartition = partitionOf(now);
+        long oldestKept = partitionOf(now - retentionMillis);
+        try {
+            for (long partition : partitions(sensorsDirectory, "", Long.MIN_VALUE, oldestKept - 1)) {
+                if (partition < oldestKept) {
+                    deleteRecursively(sensorsDirectory.resolve(Long.toString(partition)));
+                }
+            }
+            for (long partition : partitions(logsDirectory, LOG_SUFFIX, Long.MIN_VALUE, oldestKept - 1)) {
+                if (partition < oldestKept && partition != logPartition) {
+                    Files.deleteIfExists(logsDirectory.resolve(partition + LOG_SUFFIX));
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Failed to purge expired partitions: {}", e.getMessage());
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Partition start times found in {@code directory} that may hold data in {@code [fromMillis, toMillis]}.
+     */
+    private TreeSet<Long> partitions(Path directory, String suffix, long fromMillis, long toMillis) {
+        TreeSet<Long> partitions = new TreeSet<>();
+        long firstPartition = fromMillis == Long.MIN_VALUE ? Long.MIN_VALUE : partitionOf(fromMillis);
+        try (Stream<Path> entries = Files.list(directory)) {
+            entries.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(suffix))
+                    .map(name -> name.substring(0, name.length() - suffix.length()))
+                    .filter(name -> name.matches("-?\\d+"))
+                    .map(Long::parseLong)
+                    .filter(partition -> partition >= firstPartition && partition <= toMillis)
+                    .forEach(partitions::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list " + directory, e);
+        }
+        return partitions;
+    }
+
+    private long partitionOf(long millis) {
+        return Math.floorDiv(millis, partitionMillis) * partitionMillis;
+    }
+
+    private static Map<String, Object> newRecord(String deviceId, long millis) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("_time", Instant.ofEpochMilli(millis));
+        values.put("_measurement", Measurement.SENSOR_READINGS.getValue());
+        values.put("deviceId", deviceId);
+        return values;
+    }
+
+    private static String encodeName(String name) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeName(String encoded) {
+        return new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,255 @@
+package com.michalbykowy.iotsim.service.store.embedded;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One compressed run of {@code (timestamp, value)} pairs of a single series, using the encoding
+ * from Facebook's Gorilla paper: delta-of-delta timestamps and XOR-ed doubles.
+ * <p>
+ * Serialized layout: a fixed header with the point count and summary statistics, so range checks
+ * and aggregates over whole chunks never need to decode, followed by the bit stream.
+ * </p>
+ */
+final class GorillaChunk {
+
+    static final int MAGIC = 0x474F5231; // "GOR1"
+    static final int HEADER_BYTES = 4 + 4 + 8 * 5;
+
+    private GorillaChunk() {
+    }
+
+    /**
+     * Summary written in front of every chunk.
+     */
+    record Header(int count, long minTime, long maxTime, double sum, double min, double max) {
+
+        boolean overlaps(long fromMillis, long toMillis) {
+            return count > 0 && maxTime >= fromMillis && minTime <= toMillis;
+        }
+
+        boolean within(long fromMillis, long toMillis) {
+            return count > 0 && minTime >= fromMillis && maxTime <= toMillis;
+        }
+
+        static Header read(ByteBuffer buffer) {
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+                throw new IllegalStateException("Not a chunk file");
+            }
+            return new Header(buffer.getInt(4), buffer.getLong(8), buffer.getLong(16),
+                    buffer.getDouble(24), buffer.getDouble(32), buffer.getDouble(40));
+        }
+    }
+
+    static final class Encoder {
+
+        private final BitWriter out = new BitWriter();
+        private int count;
+        private long previousTime;
+        private long previousDelta;
+        private long previousValueBits;
+        private int previousLeading = -1;
+        private int previousTrailing;
+
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        void append(long timeMillis, double value) {
+            long valueBits = Double.doubleToRawLongBits(value);
+            if (count == 0) {
+                out.write(timeMillis, 64);
+                out.write(valueBits, 64);
+            } else {
+                writeTimestamp(timeMillis);
+                writeValue(valueBits);
+            }
+            previousTime = timeMillis;
+            previousValueBits = valueBits;
+            count++;
+
+            minTime = Math.min(minTime, timeMillis);
+            maxTime = Math.max(maxTime, timeMillis);
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        private void writeTimestamp(long timeMillis) {
+            long delta = timeMillis - previousTime;
+            long deltaOfDelta = delta - previousDelta;
+            previousDelta = delta;
+
+            if (deltaOfDelta == 0) {
+                out.writeBit(false);
+            } else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+                out.write(0b10, 2);
+                out.write(deltaOfDelta, 7);
+            } else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+                out.write(0b110, 3);
+                out.write(deltaOfDelta, 9);
+            } else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+                out.write(0b1110, 4);
+                out.write(deltaOfDelta, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(deltaOfDelta, 64);
+            }
+        }
+
+        private void writeValue(long valueBits) {
+            long xor = valueBits ^ previousValueBits;
+            if (xor == 0) {
+                out.writeBit(false);
+                return;
+            }
+            out.writeBit(true);
+
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                // meaningful bits fit in the previous block
+                out.writeBit(false);
+                out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                out.writeBit(true);
+                out.write(leading, 5);
+                // 64 meaningful bits do not fit in 6 bits and are stored as 0
+                out.write(meaningful == 64 ? 0 : meaningful, 6);
+                out.write(xor >>> trailing, meaningful);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+
+        int count() {
+            return count;
+        }
+
+        long minTime() {
+            return minTime;
+        }
+
+        int serializedSize() {
+            return HEADER_BYTES + out.byteLength();
+        }
+
+        byte[] toByteArray() {
+            ByteBuffer buffer = ByteBuffer.allocate(serializedSize());
+            writeHeader(buffer);
+            out.writeTo(buffer);
+            return buffer.array();
+        }
+
+        ByteBuffer header() {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+            writeHeader(buffer);
+            return buffer.flip();
+        }
+
+        /**
+         * The bit stream from byte {@code fromByte} on, for appending to a partially written chunk.
+         */
+        ByteBuffer body(int fromByte) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(0, out.byteLength() - fromByte));
+            out.writeTo(buffer, fromByte);
+            return buffer.flip();
+        }
+
+        /**
+         * Bytes of the bit stream that later appends can no longer change.
+         */
+        int completeBytes() {
+            return (int) (out.bitCount() >>> 3);
+        }
+
+        private void writeHeader(ByteBuffer buffer) {
+            buffer.putInt(MAGIC)
+                    .putInt(count)
+                    .putLong(minTime)
+                    .putLong(maxTime)
+                    .putDouble(sum)
+                    .putDouble(min)
+                    .putDouble(max);
+        }
+    }
+
+    /**
+     * Iterates the points of a serialized chunk in insertion order.
+     */
+    static final class Decoder {
+
+        private final BitReader in;
+        private final int count;
+        private int position;
+
+        private long time;
+        private long delta;
+        private long valueBits;
+        private int leading;
+        private int trailing;
+
+        Decoder(ByteBuffer buffer) {
+            this.count = Header.read(buffer).count();
+            this.in = new BitReader(buffer, HEADER_BYTES);
+        }
+
+        boolean next() {
+            if (position == count) {
+                return false;
+            }
+            if (position == 0) {
+                time = in.read(64);
+                valueBits = in.read(64);
+            } else {
+                readTimestamp();
+                readValue();
+            }
+            position++;
+            return true;
+        }
+
+        long time() {
+            return time;
+        }
+
+        double value() {
+            return Double.longBitsToDouble(valueBits);
+        }
+
+        private void readTimestamp() {
+            long deltaOfDelta;
+            if (!in.readBit()) {
+                deltaOfDelta = 0;
+            } else if (!in.readBit()) {
+                deltaOfDelta = in.readSigned(7);
+            } else if (!in.readBit()) {
+                deltaOfDelta = in.readSigned(9);
+            } else if (!in.readBit()) {
+                deltaOfDelta = in.readSigned(12);
+            } else {
+                deltaOfDelta = in.read(64);
+            }
+            delta += deltaOfDelta;
+            time += delta;
+        }
+
+        private void readValue() {
+            if (!in.readBit()) {
+                return;
+            }
+            if (in.readBit()) {
+                leading = (int) in.read(5);
+                int meaningful = (int) in.read(6);
+                if (meaningful == 0) {
+                    meaningful = 64;
+                }
+                trailing = 64 - leading - meaningful;
+            }
+            int meaningful = 64 - leading - trailing;
+            valueBits ^= in.read(meaningful) << trailing;
+        }
+    }
+}
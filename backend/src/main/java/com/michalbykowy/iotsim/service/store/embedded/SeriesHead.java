@@ -0,0 +1,25 @@
+package com.michalbykowy.iotsim.service.store.embedded;
+
+import java.nio.file.Path;
+
+/**
+ * The open, still growing chunk of one device field, kept in memory and periodically
+ * appended to its open chunk file. Guarded by its own monitor.
+ */
+final class SeriesHead {
+
+    final String field;
+    final long partition;
+    final Path file;
+    final GorillaChunk.Encoder encoder = new GorillaChunk.Encoder();
+    /** Bytes of the bit stream already on disk that later appends leave unchanged. */
+    int flushedBytes;
+    boolean dirty;
+    boolean sealed;
+
+    SeriesHead(String field, long partition, Path file) {
+        this.field = field;
+        this.partition = partition;
+        this.file = file;
+    }
+}
@@ -0,0 +1,75 @@
+package com.michalbykowy.iotsim;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.michalbykowy.iotsim.dto.DeviceFilter;
+import com.michalbykowy.iotsim.dto.DevicePageResponse;
+import com.michalbykowy.iotsim.dto.DeviceRequest;
+import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceType;
+import com.michalbykowy.iotsim.repository.DeviceRepository;
+import com.michalbykowy.iotsim.service.DeviceService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:iotsim;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH")
+@ActiveProfiles({"test", "h2"})
+class H2BackendTests {
+
+	@Autowired
+	private DeviceService deviceService;
+
+	@Autowired
+	private DeviceRepository deviceRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Test
+	void schema_ShouldIndexRuleTriggersAndActiveSimulations() {
+		List<String> indexes = jdbcTemplate.queryForList(
+				"SELECT index_name FROM information_schema.indexes WHERE index_name LIKE 'idx_%'", String.class);
+
+		assertTrue(indexes.contains("idx_rules_trigger_device_id"));
+		assertTrue(indexes.contains("idx_device_simulation_active"));
+	}
+
+	@Test
+	void handleDeviceEvent_ShouldPersistState() throws Exception {
+		deviceService.handleDeviceEvent(Map.of("deviceId", "h2-device", "state", "{\"temp\": 21}"));
+		deviceService.handleDeviceEvent(Map.of("deviceId", "h2-device", "state", "{\"temp\": 22}"));
+
+		Device stored = deviceRepository.findAllById(List.of("h2-device")).getFirst();
+		assertEquals(objectMapper.readTree("{\"temp\": 22}"), stored.getCurrentState());
+		assertTrue(stored.isOnline());
+	}
+
+	@Test
+	void getDevicePage_ShouldFilterAndPageOnTheDatabase() {
+		for (String name : List.of("Pump 1", "pump 2", "Valve")) {
+			deviceService.createDevice(new DeviceRequest(name, DeviceType.VIRTUAL, DeviceRole.ACTUATOR));
+		}
+		DeviceFilter filter = new DeviceFilter(DeviceType.VIRTUAL, DeviceRole.ACTUATOR, false, false, "PUMP");
+
+		DevicePageResponse first = deviceService.getDevicePage(filter, null, 1, List.of("name", "online"));
+		DevicePageResponse second = deviceService.getDevicePage(filter, first.nextCursor(), 1, null);
+
+		assertNotNull(first.nextCursor());
+		assertNull(second.nextCursor());
+		assertEquals(Set.of("Pump 1", "pump 2"),
+				Set.of(first.devices().getFirst().get("name"), second.devices().getFirst().get("name")));
+		assertEquals("{}", second.devices().getFirst().get("currentState"));
+	}
+}
@@ -0,0 +1,51 @@
+package com.michalbykowy.iotsim.config;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class DeviceStateMigrationTest {
+
+    @TempDir
+    Path dataDir;
+
+    private JdbcTemplate jdbcTemplate;
+    private DeviceStateMigration migration;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:sqlite:" + dataDir.resolve("test.db"));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        migration = new DeviceStateMigration(jdbcTemplate, new DataSourceTransactionManager(dataSource),
+                mock(EntityManagerFactory.class));
+
+        // the schema before the state moved out, plus the new table as the schema update adds it
+        jdbcTemplate.execute("CREATE TABLE device (id VARCHAR PRIMARY KEY, name VARCHAR, current_state VARCHAR(4096), online BOOLEAN)");
+        jdbcTemplate.execute("CREATE TABLE device_state (device_id VARCHAR PRIMARY KEY, current_state VARCHAR(4096),"
+                + " online BOOLEAN, version BIGINT)");
+        jdbcTemplate.update("INSERT INTO device VALUES ('dev-1', 'Device1', '{\"temp\":20}', 1)");
+    }
+
+    @Test
+    void migrate_ShouldCopyTheLegacyState_AndDropItsColumns() {
+        migration.migrate();
+        migration.migrate();
+
+        Map<String, Object> state = jdbcTemplate.queryForMap("SELECT * FROM device_state WHERE device_id = 'dev-1'");
+        assertEquals("{\"temp\":20}", state.get("current_state"));
+        assertEquals(0L, ((Number) state.get("version")).longValue());
+        List<String> columns = jdbcTemplate.queryForList("SELECT name FROM pragma_table_info('device')", String.class);
+        assertEquals(List.of("id", "name"), columns);
+    }
+}
@@ -0,0 +1,75 @@
+package com.michalbykowy.iotsim.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogEventRingTest {
+
+    @Test
+    void offer_ShouldFail_WhenRingIsFull_AndSucceedAgainAfterDrain() {
+        LogEventRing<Integer> ring = new LogEventRing<>(3);
+        assertEquals(4, ring.capacity());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(2, ring.drainTo(drained, 2));
+        assertEquals(List.of(0, 1), drained);
+        assertTrue(ring.offer(4));
+        assertEquals(3, ring.size());
+    }
+
+    @Test
+    void drainTo_ShouldReceiveEveryElement_FromConcurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 50_000;
+        LogEventRing<long[]> ring = new LogEventRing<>(1024);
+        CountDownLatch start = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(producers)) {
+            for (int p = 0; p < producers; p++) {
+                long producer = p;
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (long i = 0; i < perProducer; i++) {
+                        while (!ring.offer(new long[] {producer, i})) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                });
+            }
+            start.countDown();
+
+            long[] nextExpected = new long[producers];
+            List<long[]> batch = new ArrayList<>();
+            int received = 0;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (received < producers * perProducer && System.nanoTime() < deadline) {
+                ring.drainTo(batch, 256);
+                for (long[] element : batch) {
+                    // per producer, elements arrive in the order they were offered
+                    assertEquals(nextExpected[(int) element[0]]++, element[1]);
+                }
+                received += batch.size();
+                batch.clear();
+            }
+            assertEquals(producers * perProducer, received);
+        }
+    }
+}
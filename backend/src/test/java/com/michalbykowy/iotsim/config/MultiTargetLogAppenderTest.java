@@ -0,0 +1,120 @@
+package com.michalbykowy.iotsim.config;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.michalbykowy.iotsim.api.LogMessage;
+import com.michalbykowy.iotsim.dto.LogEntry;
+import com.michalbykowy.iotsim.service.logs.LogStreamBroadcaster;
+import com.michalbykowy.iotsim.service.store.TimeSeriesStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class MultiTargetLogAppenderTest {
+
+    @Mock
+    private LogStreamBroadcaster broadcaster;
+    @Mock
+    private TimeSeriesStore timeSeriesStore;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final LoggerContext loggerContext = new LoggerContext();
+
+    private MultiTargetLogAppender startAppender(String sampling, String rateLimits) {
+        MultiTargetLogAppender appender = new MultiTargetLogAppender(broadcaster, timeSeriesStore,
+                1024, 100, Duration.ofMillis(20), sampling, rateLimits, meterRegistry);
+        appender.setContext(loggerContext);
+        appender.start();
+        return appender;
+    }
+
+    private LoggingEvent event(String loggerName, Level level, String message) {
+        Logger logger = loggerContext.getLogger(loggerName);
+        return new LoggingEvent(Logger.class.getName(), logger, level, message, null, null);
+    }
+
+    private double events(String outcome) {
+        return meterRegistry.get("logs.appender.events").tag("outcome", outcome).counter().count();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void append_ShouldDeliverEveryEvent_InBatchedFramesAndStoreWrites() throws Exception {
+        MultiTargetLogAppender appender = startAppender("", "");
+
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(event("com.michalbykowy.iotsim.service.RuleService", Level.INFO, "rule fired " + i));
+        }
+        appender.stop();
+
+        ArgumentCaptor<List<LogMessage>> frames = ArgumentCaptor.forClass(List.class);
+        verify(broadcaster, atLeastOnce()).broadcast(frames.capture());
+        List<List<LogMessage>> sentFrames = frames.getAllValues();
+        assertTrue(sentFrames.size() < 1000, "Frames should carry batches, not single events");
+        assertEquals(1000, sentFrames.stream().mapToInt(List::size).sum());
+        assertEquals("rule fired 0", sentFrames.getFirst().getFirst().getMessage());
+
+        ArgumentCaptor<List<LogEntry>> writes = ArgumentCaptor.forClass(List.class);
+        verify(timeSeriesStore, atLeastOnce()).writeLogEntries(writes.capture());
+        assertEquals(1000, writes.getAllValues().stream().mapToInt(List::size).sum());
+        assertEquals(1000, events("accepted"));
+    }
+
+    @Test
+    void append_ShouldSampleOutInfo_ButKeepWarnings() {
+        MultiTargetLogAppender appender = startAppender("com.michalbykowy.iotsim.service:0", "");
+
+        appender.doAppend(event("com.michalbykowy.iotsim.service.RuleService", Level.INFO, "noise"));
+        appender.doAppend(event("com.michalbykowy.iotsim.service.RuleService", Level.WARN, "important"));
+        appender.stop();
+
+        assertEquals(1, events("sampled"));
+        assertEquals(1, events("accepted"));
+    }
+
+    @Test
+    void append_ShouldApplyRateLimit_PerLoggerPrefix() {
+        MultiTargetLogAppender appender = startAppender("",
+                "com.michalbykowy.iotsim:1000,com.michalbykowy.iotsim.service.RuleService:10");
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            LoggingEvent ruleEvent = event("com.michalbykowy.iotsim.service.RuleService", Level.INFO, "rule " + i);
+            ruleEvent.setTimeStamp(now);
+            appender.doAppend(ruleEvent);
+            LoggingEvent otherEvent = event("com.michalbykowy.iotsim.service.DeviceService", Level.INFO, "device " + i);
+            otherEvent.setTimeStamp(now);
+            appender.doAppend(otherEvent);
+        }
+        appender.stop();
+
+        assertEquals(40, events("rate_limited"));
+        assertEquals(60, events("accepted"));
+    }
+
+    @Test
+    void append_ShouldIgnoreInfluxClientLoggers() throws Exception {
+        MultiTargetLogAppender appender = startAppender("", "");
+
+        appender.doAppend(event("com.influxdb.client.write", Level.ERROR, "write failed"));
+        appender.stop();
+
+        verify(broadcaster, never()).broadcast(any());
+        assertEquals(0, events("accepted"));
+    }
+}
@@ -0,0 +1,63 @@
+package com.michalbykowy.iotsim.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SlowConsumerWebSocketHandlerTest {
+
+    @Mock
+    private MessageChannel clientInboundChannel;
+    @Mock
+    private SubscribableChannel clientOutboundChannel;
+    @Mock
+    private WebSocketSession session;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private SlowConsumerWebSocketHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        handler = new SlowConsumerWebSocketHandler(clientInboundChannel, clientOutboundChannel,
+                SlowConsumerPolicy.DROP, meterRegistry);
+        handler.setDefaultProtocolHandler(new StompSubProtocolHandler());
+        handler.setSendBufferSizeLimit(1024);
+        handler.setSendTimeLimit(500);
+        when(session.getId()).thenReturn("s1");
+    }
+
+    @Test
+    void decorateSession_ShouldApplyLimits_AndExposeTheBacklogPerSession() {
+        WebSocketSession decorated = handler.decorateSession(session);
+
+        ConcurrentWebSocketSessionDecorator concurrent = assertInstanceOf(ConcurrentWebSocketSessionDecorator.class, decorated);
+        assertEquals(1024, concurrent.getBufferSizeLimit());
+        assertEquals(500, concurrent.getSendTimeLimit());
+        assertEquals(0, meterRegistry.get("websocket.session.send.buffer").tag("session", "s1").gauge().value());
+        assertEquals(0, meterRegistry.get("websocket.session.send.time").tag("session", "s1").gauge().value());
+    }
+
+    @Test
+    void afterConnectionClosed_ShouldRemoveSessionMeters_AndCountSlowConsumerDisconnects() throws Exception {
+        handler.decorateSession(session);
+
+        handler.afterConnectionClosed(session, CloseStatus.SESSION_NOT_RELIABLE);
+
+        assertNull(meterRegistry.find("websocket.session.send.buffer").tag("session", "s1").gauge());
+        assertNull(meterRegistry.find("websocket.session.send.time").tag("session", "s1").gauge());
+        assertEquals(1, meterRegistry.get("websocket.slow.consumers.disconnected").counter().count());
+    }
+}
@@ -2,25 +2,46 @@ package com.michalbykowy.iotsim.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.michalbykowy.iotsim.api.exception.ResourceNotFoundException;
+import com.michalbykowy.iotsim.dto.DeviceChangesResponse;
+import com.michalbykowy.iotsim.dto.DeviceFilter;
+import com.michalbykowy.iotsim.dto.DevicePageResponse;
+import com.michalbykowy.iotsim.dto.DeviceSearchQuery;
+import com.michalbykowy.iotsim.dto.DeviceSearchResponse;
 import com.michalbykowy.iotsim.dto.DeviceRequest;
+import com.michalbykowy.iotsim.dto.DeviceStateMessage;
+import com.michalbykowy.iotsim.dto.FieldValueQuery;
+import com.michalbykowy.iotsim.dto.FieldValuesResponse;
+import com.michalbykowy.iotsim.dto.FleetStatsResponse;
+import com.michalbykowy.iotsim.dto.DownsamplingRequest;
+import com.michalbykowy.iotsim.dto.HistoryQueryRequest;
 import com.michalbykowy.iotsim.dto.RuleRequest;
 import com.michalbykowy.iotsim.dto.UpdateDeviceRequest;
 import com.michalbykowy.iotsim.model.*;
 import com.michalbykowy.iotsim.service.DeviceService;
 import com.michalbykowy.iotsim.service.RuleService;
 import com.michalbykowy.iotsim.service.TimeSeriesService;
+import com.michalbykowy.iotsim.service.store.LogQuery;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -50,6 +71,86 @@ class ApiControllerTest {
                 .andExpect(jsonPath("$.id").value("123"));
     }
 
+    @Test
+    void getDevices_ShouldReturnFilteredProjectedPage_WithEntityTag() throws Exception {
+        DeviceFilter filter = new DeviceFilter(DeviceType.VIRTUAL, null, true, null, "pump");
+        when(deviceService.getDeviceListTag(List.of("name"))).thenReturn("\"run-1-4\"");
+        when(deviceService.getDevicePage(filter, "ZGV2LTE", 2, List.of("name")))
+                .thenReturn(new DevicePageResponse(List.of(Map.of("id", "dev-2", "name", "Pump 2")), null));
+
+        mockMvc.perform(get("/api/devices").param("type", "VIRTUAL").param("online", "true")
+                        .param("namePrefix", "pump").param("cursor", "ZGV2LTE").param("limit", "2")
+                        .param("fields", "name"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"run-1-4\""))
+                .andExpect(jsonPath("$.devices[0].name").value("Pump 2"))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+    }
+
+    @Test
+    void getDevices_ShouldReturn304_WhenTheTagIsUnchanged() throws Exception {
+        when(deviceService.getDeviceListTag(isNull())).thenReturn("\"run-1-4-90\"");
+
+        mockMvc.perform(get("/api/devices").header("If-None-Match", "\"run-1-4-90\""))
+                .andExpect(status().isNotModified());
+
+        verify(deviceService, never()).getDevicePage(any(), any(), any(Integer.class), any());
+    }
+
+    @Test
+    void searchDevices_ShouldPassEveryCriterion_ToTheService() throws Exception {
+        DeviceSearchQuery query = new DeviceSearchQuery("kitchen", null, DeviceRole.SENSOR, true, null,
+                Set.of("temp", "humidity"), 50);
+        when(deviceService.searchDevices(query)).thenReturn(new DeviceSearchResponse(1, List.of(
+                new DeviceSummary("dev-1", "Kitchen sensor", DeviceType.PHYSICAL, DeviceRole.SENSOR, false, true))));
+
+        mockMvc.perform(get("/api/devices/search").param("q", "kitchen").param("role", "SENSOR")
+                        .param("online", "true").param("field", "temp").param("field", "humidity"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(1))
+                .andExpect(jsonPath("$.devices[0].name").value("Kitchen sensor"));
+    }
+
+    @Test
+    void getDeviceChanges_ShouldReturnChangesSinceTheGivenSequence() throws Exception {
+        DeviceStateMessage change = DeviceStateMessage.patch("dev-1", 3, 8, objectMapper.createObjectNode().put("online", false));
+        when(deviceService.getChangesSince("epoch-1", 7))
+                .thenReturn(new DeviceChangesResponse("epoch-1", 8, false, List.of(change), List.of("dev-2")));
+
+        mockMvc.perform(get("/api/devices/changes").param("epoch", "epoch-1").param("since", "7"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.sequence").value(8))
+                .andExpect(jsonPath("$.snapshot").value(false))
+                .andExpect(jsonPath("$.changes[0].patch.online").value(false))
+                .andExpect(jsonPath("$.removed[0]").value("dev-2"));
+    }
+
+    @Test
+    void getFleetStats_ShouldReturnTheMaintainedAggregates() throws Exception {
+        when(deviceService.getFleetStats()).thenReturn(new FleetStatsResponse(2, 1, 0,
+                Map.of(DeviceType.PHYSICAL, 2L), Map.of(DeviceRole.SENSOR, 2L),
+                Map.of("temp", new FleetStatsResponse.FieldStats(2, 18, 24, 21))));
+
+        mockMvc.perform(get("/api/fleet/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.online").value(1))
+                .andExpect(jsonPath("$.byType.PHYSICAL").value(2))
+                .andExpect(jsonPath("$.fields.temp.max").value(24.0))
+                .andExpect(jsonPath("$.fields.temp.average").value(21.0));
+    }
+
+    @Test
+    void getDevicesByFieldValue_ShouldPassRangeAndOrder() throws Exception {
+        FieldValueQuery query = new FieldValueQuery("temp", 20.0, null, Sort.Direction.DESC, 5);
+        when(deviceService.getDevicesByFieldValue(query)).thenReturn(new FieldValuesResponse("temp",
+                List.of(new FieldValuesResponse.FieldValue("dev-1", 31.5))));
+
+        mockMvc.perform(get("/api/fields/temp/devices").param("min", "20").param("order", "desc").param("limit", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.devices[0].deviceId").value("dev-1"))
+                .andExpect(jsonPath("$.devices[0].value").value(31.5));
+    }
+
     @Test
     void updateDevice_ShouldReturn404_WhenDeviceNotFound() throws Exception {
         UpdateDeviceRequest request = new UpdateDeviceRequest("New Name");
@@ -88,4 +189,165 @@ class ApiControllerTest {
 
         verify(deviceService).sendCommand(eq(deviceId), any());
     }
-}
\ No newline at end of file
+
+    @Test
+    void getDeviceHistory_ShouldStreamRecordsAsJsonArray() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<Map<String, Object>> consumer = invocation.getArgument(4);
+            consumer.accept(Map.of("_time", "2024-01-01T00:00:00Z", "temp", 21.5));
+            consumer.accept(Map.of("_time", "2024-01-01T00:00:01Z", "temp", 22.0));
+            return null;
+        }).when(timeSeriesService).streamSensorData(eq("dev-1"), eq("-1h"), any(), isNull(), any());
+
+        MvcResult result = mockMvc.perform(get("/api/devices/{id}/history", "dev-1").param("start", "1h"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[1].temp").value(22.0));
+    }
+
+    @Test
+    void getDeviceHistory_ShouldStreamNdjson_WhenRequested() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<Map<String, Object>> consumer = invocation.getArgument(4);
+            consumer.accept(Map.of("temp", 1));
+            consumer.accept(Map.of("temp", 2));
+            return null;
+        }).when(timeSeriesService).streamSensorData(eq("dev-1"), eq("-1h"), any(), isNull(), any());
+
+        MvcResult result = mockMvc.perform(get("/api/devices/{id}/history", "dev-1")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("{\"temp\":1}\n{\"temp\":2}\n"));
+    }
+
+    @Test
+    void getDeviceHistory_ShouldPassDownsamplingRequest_WhenMaxPointsGiven() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/devices/{id}/history", "dev-1")
+                        .param("maxPoints", "800")
+                        .param("downsample", "LTTB")
+                        .param("field", "temp"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+
+        verify(timeSeriesService).streamSensorData(eq("dev-1"), eq("-1h"), isNull(),
+                eq(new DownsamplingRequest(800, DownsampleMode.LTTB, "temp")), any());
+    }
+
+    @Test
+    void getDeviceHistory_ShouldRejectNonPositiveMaxPoints() throws Exception {
+        mockMvc.perform(get("/api/devices/{id}/history", "dev-1").param("maxPoints", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getDeviceHistory_ShouldReturn400BeforeStreaming_WhenLttbGetsTooFewPoints() throws Exception {
+        DownsamplingRequest downsampling = new DownsamplingRequest(2, DownsampleMode.LTTB, null);
+        doThrow(new IllegalArgumentException("maxPoints must be at least 3 for LTTB downsampling"))
+                .when(timeSeriesService).validateSensorDataQuery("-1h", null, downsampling);
+
+        mockMvc.perform(get("/api/devices/{id}/history", "dev-1")
+                        .param("maxPoints", "2")
+                        .param("downsample", "LTTB"))
+                .andExpect(status().isBadRequest());
+        verify(timeSeriesService, never()).streamSensorData(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void getDeviceHistory_ShouldReturn400BeforeStreaming_WhenRangeInvalid() throws Exception {
+        doThrow(new IllegalArgumentException("Invalid timestamp: 2024-13-01T00:00:00Z"))
+                .when(timeSeriesService).validateSensorDataQuery("2024-13-01T00:00:00Z", null, null);
+
+        mockMvc.perform(get("/api/devices/{id}/history", "dev-1").param("start", "2024-13-01T00:00:00Z"))
+                .andExpect(status().isBadRequest());
+        verify(timeSeriesService, never()).streamSensorData(any(), any(), any(), any());
+    }
+
+    @Test
+    void queryHistory_ShouldStreamRecordsOfAllRequestedDevices() throws Exception {
+        HistoryQueryRequest request = new HistoryQueryRequest(List.of("dev-1", "dev-2"), List.of("temp"), "-1h", null, "1m");
+        doAnswer(invocation -> {
+            Consumer<Map<String, Object>> consumer = invocation.getArgument(1);
+            consumer.accept(Map.of("deviceId", "dev-1", "temp", 21.5));
+            consumer.accept(Map.of("deviceId", "dev-2", "temp", 19.0));
+            return null;
+        }).when(timeSeriesService).streamHistory(eq(request), any());
+
+        MvcResult result = mockMvc.perform(post("/api/history/query")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[1].deviceId").value("dev-2"));
+    }
+
+    @Test
+    void queryHistory_ShouldReturn400_WhenNoDevicesGiven() throws Exception {
+        HistoryQueryRequest request = new HistoryQueryRequest(List.of(), null, "-1h", null, null);
+
+        mockMvc.perform(post("/api/history/query")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void queryHistory_ShouldReturn400_WhenWindowInvalid() throws Exception {
+        HistoryQueryRequest request = new HistoryQueryRequest(List.of("dev-1"), null, "-1h", null, "soon");
+        doThrow(new IllegalArgumentException("Invalid duration: soon"))
+                .when(timeSeriesService).validateHistoryQuery(request);
+
+        mockMvc.perform(post("/api/history/query")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getLogs_ShouldPassCursorAndFilters_AndStreamThePage() throws Exception {
+        Instant before = Instant.parse("2026-01-01T12:00:00Z");
+        LogQuery query = new LogQuery(before.minusSeconds(3600), before, true, 50, Set.of(LogLevel.WARN), "com.michalbykowy");
+        when(timeSeriesService.logPage(isNull(), eq(before), eq(50), eq(Set.of(LogLevel.WARN, LogLevel.ERROR)),
+                eq("com.michalbykowy"))).thenReturn(query);
+        doAnswer(invocation -> {
+            Consumer<Map<String, Object>> consumer = invocation.getArgument(1);
+            consumer.accept(Map.of("level", "WARN", "message", "disk almost full"));
+            return null;
+        }).when(timeSeriesService).streamLogs(eq(query), any());
+
+        MvcResult result = mockMvc.perform(get("/api/logs")
+                        .param("before", "2026-01-01T12:00:00Z")
+                        .param("limit", "50")
+                        .param("level", "WARN", "ERROR")
+                        .param("logger", "com.michalbykowy"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].message").value("disk almost full"));
+    }
+
+    @Test
+    void getLogs_ShouldReturn400_WhenPageSizeInvalid() throws Exception {
+        when(timeSeriesService.logPage(isNull(), isNull(), eq(0), isNull(), isNull()))
+                .thenThrow(new IllegalArgumentException("limit must be between 1 and 1000"));
+
+        mockMvc.perform(get("/api/logs").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -3,7 +3,7 @@ package com.michalbykowy.iotsim.integration;
 import com.influxdb.client.InfluxDBClient;
 import com.influxdb.client.InfluxDBClientFactory;
 import com.influxdb.query.FluxTable;
-import com.michalbykowy.iotsim.dto.DeviceResponse;
+import com.michalbykowy.iotsim.dto.DeviceStateMessage;
 import com.michalbykowy.iotsim.repository.DeviceRepository;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
@@ -89,7 +89,7 @@ class EndToEndIntegrationTest {
         String jsonPayload = "{\"sensors\": {\"temp\": 42.5}}";
         String topic = "iot/devices/" + deviceId + "/data";
 
-        BlockingQueue<DeviceResponse> blockingQueue = new LinkedBlockingQueue<>();
+        BlockingQueue<DeviceStateMessage> blockingQueue = new LinkedBlockingQueue<>();
         String wsUrl = "ws://localhost:" + port + "/ws";
 
         StompSession session = stompClient.connectAsync(wsUrl, new StompSessionHandlerAdapter() {
@@ -98,12 +98,12 @@ class EndToEndIntegrationTest {
         session.subscribe("/topic/devices", new StompFrameHandler() {
             @Override
             public Type getPayloadType(StompHeaders headers) {
-                return DeviceResponse.class;
+                return DeviceStateMessage[].class;
             }
 
             @Override
             public void handleFrame(StompHeaders headers, Object payload) {
-                blockingQueue.offer((DeviceResponse) payload);
+                blockingQueue.addAll(List.of((DeviceStateMessage[]) payload));
             }
         });
 
@@ -113,11 +113,11 @@ class EndToEndIntegrationTest {
         client.publish(topic, new MqttMessage(jsonPayload.getBytes(StandardCharsets.UTF_8)));
         client.disconnect();
 
-        DeviceResponse receivedUpdate = blockingQueue.poll(5, TimeUnit.SECONDS);
+        DeviceStateMessage receivedUpdate = blockingQueue.poll(5, TimeUnit.SECONDS);
         assertNotNull(receivedUpdate, "Frontend did not receive WebSocket update!");
         assertEquals(deviceId, receivedUpdate.id());
 
-        assertTrue(receivedUpdate.currentState().toString().contains("42.5"));
+        assertTrue(receivedUpdate.snapshot().get("currentState").toString().contains("42.5"));
 
         await().atMost(Duration.ofSeconds(5)).until(() ->
                 deviceRepository.existsById(deviceId)
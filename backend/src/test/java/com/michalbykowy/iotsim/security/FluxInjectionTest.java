@@ -6,13 +6,15 @@ import com.influxdb.client.QueryApi;
 import com.influxdb.client.WriteApi;
 import com.michalbykowy.iotsim.model.AggregateFunction;
 import com.michalbykowy.iotsim.service.TimeSeriesService;
+import com.michalbykowy.iotsim.service.history.RecentReadingsCache;
+import com.michalbykowy.iotsim.service.store.InfluxTimeSeriesStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.List;
 import java.util.Map;
@@ -32,14 +34,18 @@ class FluxInjectionTest {
     @Mock private QueryApi queryApi;
     @Mock private WriteApi writeApi;
     @Mock private ObjectMapper objectMapper;
+    @Mock private RecentReadingsCache recentReadings;
 
-    @InjectMocks
     private TimeSeriesService timeSeriesService;
 
+    @BeforeEach
+    void setUp() {
+        InfluxTimeSeriesStore store = new InfluxTimeSeriesStore(influxDBClient, writeApi, "test_bucket", "test_org", new SimpleMeterRegistry());
+        timeSeriesService = new TimeSeriesService(store, objectMapper, recentReadings);
+    }
+
     @Test
     void queryAggregate_ShouldUseParameterizedQuery_WhenInputContainsSpecialChars() {
-        ReflectionTestUtils.setField(timeSeriesService, "bucket", "test_bucket");
-        ReflectionTestUtils.setField(timeSeriesService, "org", "test_org");
 
         when(influxDBClient.getQueryApi()).thenReturn(queryApi);
         when(queryApi.query(anyString(), anyString(), anyMap())).thenReturn(List.of());
@@ -70,8 +76,6 @@ class FluxInjectionTest {
 
     @Test
     void queryAggregate_ShouldPrependDashToRange_WhenMissing() {
-        ReflectionTestUtils.setField(timeSeriesService, "bucket", "test_bucket");
-        ReflectionTestUtils.setField(timeSeriesService, "org", "test_org");
         when(influxDBClient.getQueryApi()).thenReturn(queryApi);
 
         timeSeriesService.queryAggregate("dev-1", "temp", "5m", AggregateFunction.COUNT);
@@ -3,29 +3,53 @@ package com.michalbykowy.iotsim.service;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.michalbykowy.iotsim.api.exception.ResourceNotFoundException;
+import com.michalbykowy.iotsim.dto.DeviceChangesResponse;
+import com.michalbykowy.iotsim.dto.DeviceFilter;
+import com.michalbykowy.iotsim.dto.DevicePageResponse;
 import com.michalbykowy.iotsim.dto.DeviceRequest;
+import com.michalbykowy.iotsim.dto.DeviceStateMessage;
+import com.michalbykowy.iotsim.dto.FieldValueQuery;
+import com.michalbykowy.iotsim.dto.FieldValuesResponse;
 import com.michalbykowy.iotsim.dto.SimulationRequest;
 import com.michalbykowy.iotsim.event.VirtualDeviceCommandLoopbackEvent;
 import com.michalbykowy.iotsim.integration.MqttGateway;
 import com.michalbykowy.iotsim.model.Device;
 import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceSummary;
 import com.michalbykowy.iotsim.model.DeviceType;
 import com.michalbykowy.iotsim.repository.DeviceRepository;
+import com.michalbykowy.iotsim.service.devices.DeviceLocks;
+import com.michalbykowy.iotsim.service.devices.DeviceRegistry;
+import com.michalbykowy.iotsim.service.devices.DeviceSearchIndex;
+import com.michalbykowy.iotsim.service.devices.DeviceStateBroadcaster;
+import com.michalbykowy.iotsim.service.devices.FleetStatistics;
+import com.michalbykowy.iotsim.service.devices.LatestValueIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.ArgumentMatchers.eq;
@@ -37,7 +61,7 @@ class DeviceServiceTest {
     @Mock
     private DeviceRepository deviceRepository;
     @Mock
-    private SimpMessagingTemplate messagingTemplate;
+    private DeviceStateBroadcaster broadcaster;
     @Mock
     private SimulationService simulationService;
     @Mock
@@ -50,9 +74,43 @@ class DeviceServiceTest {
     @Spy
     private ObjectMapper objectMapper = new ObjectMapper();
 
-    @InjectMocks
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DeviceLocks deviceLocks;
     private DeviceService deviceService;
 
+    /** Runs transactions without a database, with synchronization, so locks are held until completion. */
+    private static class SynchronizingTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        DeviceSearchIndex searchIndex = new DeviceSearchIndex(meterRegistry);
+        FleetStatistics fleetStatistics = new FleetStatistics(mock(SimpMessagingTemplate.class), destination -> false);
+        LatestValueIndex latestValues = new LatestValueIndex(meterRegistry);
+        DeviceRegistry deviceRegistry = new DeviceRegistry(deviceRepository,
+                List.of(searchIndex, fleetStatistics, latestValues), 100, 3, meterRegistry);
+        deviceLocks = new DeviceLocks(16, 200, 3, 50, meterRegistry);
+        deviceService = new DeviceService(deviceRepository, deviceRegistry, deviceLocks, searchIndex, fleetStatistics,
+                latestValues, broadcaster, simulationService, objectMapper, timeSeriesService, mqttGateway, eventPublisher,
+                new SynchronizingTransactionManager());
+    }
+
     // Test for getAllDevices
     @Test
     void getAllDevices_ShouldReturnAllDevicesFromRepository() {
@@ -77,7 +135,123 @@ class DeviceServiceTest {
         assertNotNull(result);
         assertEquals("New Device", result.getName());
         verify(deviceRepository).save(any(Device.class));
-        verify(messagingTemplate).convertAndSend(anyString(), Optional.ofNullable(any()));
+        verify(broadcaster).publish(any(Device.class));
+    }
+
+    @Test
+    void getDevicePage_ShouldReadSummariesOnly_WhenNoJsonFieldIsRequested() {
+        DeviceFilter filter = new DeviceFilter(null, DeviceRole.SENSOR, null, null, "50%_");
+        when(deviceRepository.findSummaryPage("", null, DeviceRole.SENSOR, null, null, "50!%!_%", Limit.of(3)))
+                .thenReturn(List.of(
+                        new DeviceSummary("a", "50%_ A", DeviceType.VIRTUAL, DeviceRole.SENSOR, false, true),
+                        new DeviceSummary("b", "50%_ B", DeviceType.VIRTUAL, DeviceRole.SENSOR, false, null),
+                        new DeviceSummary("c", "50%_ C", DeviceType.VIRTUAL, DeviceRole.SENSOR, true, false)));
+
+        DevicePageResponse page = deviceService.getDevicePage(filter, null, 2, List.of("name", "online"));
+
+        assertEquals(List.of(Map.of("id", "a", "name", "50%_ A", "online", true),
+                Map.of("id", "b", "name", "50%_ B", "online", false)), page.devices());
+        assertNotNull(page.nextCursor());
+        verify(deviceRepository, never()).findPage(any(), any(), any(), any(), any(), any(), any());
+
+        // the cursor continues after the last device of the page
+        when(deviceRepository.findPage("b", null, null, null, null, null, Limit.of(3))).thenReturn(List.of());
+        DevicePageResponse next = deviceService.getDevicePage(new DeviceFilter(null, null, null, null, null),
+                page.nextCursor(), 2, null);
+        assertTrue(next.devices().isEmpty());
+        assertNull(next.nextCursor());
+    }
+
+    @Test
+    void getDevicePage_ShouldRejectUnknownFieldsAndOversizedPages() {
+        DeviceFilter filter = new DeviceFilter(null, null, null, null, null);
+
+        assertThrows(IllegalArgumentException.class, () -> deviceService.getDevicePage(filter, null, 10, List.of("secret")));
+        assertThrows(IllegalArgumentException.class, () -> deviceService.getDevicePage(filter, null, 5000, null));
+    }
+
+    @Test
+    void getDeviceListTag_ShouldIgnoreStateWrites_WhenNoStateFieldIsListed() {
+        when(broadcaster.epoch()).thenReturn("run-1");
+        String namesOnly = deviceService.getDeviceListTag(List.of("name"));
+        String withState = deviceService.getDeviceListTag(List.of("name", "online"));
+
+        Device device = new Device("1", "Device", DeviceType.PHYSICAL, DeviceRole.SENSOR, objectMapper.createObjectNode());
+        when(deviceRepository.findById("1")).thenReturn(Optional.of(device));
+        when(deviceRepository.updateState(eq("1"), any(), eq(true), anyLong())).thenReturn(1);
+        deviceService.updateDeviceStatus("1", true);
+
+        assertEquals(namesOnly, deviceService.getDeviceListTag(List.of("name")));
+        assertNotEquals(withState, deviceService.getDeviceListTag(List.of("name", "online")));
+    }
+
+    @Test
+    void getChangesSince_ShouldServeOneCachedSnapshot_WhileTheSequenceIsUnchanged() {
+        Device device = new Device("dev-1", "Device1", DeviceType.VIRTUAL, DeviceRole.SENSOR, objectMapper.createObjectNode());
+        List<DeviceStateMessage> snapshot = List.of(DeviceStateMessage.snapshot("dev-1", 4, 42, objectMapper.createObjectNode()));
+        when(broadcaster.changesSince(any(), anyLong())).thenReturn(Optional.empty());
+        when(broadcaster.sequence()).thenReturn(42L);
+        when(broadcaster.epoch()).thenReturn("epoch-2");
+        when(deviceRepository.findAll()).thenReturn(List.of(device));
+        when(broadcaster.snapshot(List.of(device))).thenReturn(snapshot);
+
+        DeviceChangesResponse first = deviceService.getChangesSince("epoch-1", 17);
+        DeviceChangesResponse second = deviceService.getChangesSince(null, 0);
+
+        assertTrue(first.snapshot());
+        assertEquals("epoch-2", first.epoch());
+        assertEquals(42, first.sequence());
+        assertEquals(snapshot, first.changes());
+        assertSame(first, second);
+        verify(deviceRepository, times(1)).findAll();
+    }
+
+    @Test
+    void getDeviceSnapshot_ShouldShareTheCachedSnapshot() {
+        Device device = new Device("dev-1", "Device1", DeviceType.VIRTUAL, DeviceRole.SENSOR, objectMapper.createObjectNode());
+        List<DeviceStateMessage> snapshot = List.of(DeviceStateMessage.snapshot("dev-1", 4, 42, objectMapper.createObjectNode()));
+        when(broadcaster.changesSince(any(), anyLong())).thenReturn(Optional.empty());
+        when(broadcaster.sequence()).thenReturn(42L);
+        when(deviceRepository.findAll()).thenReturn(List.of(device));
+        when(broadcaster.snapshot(List.of(device))).thenReturn(snapshot);
+
+        assertEquals(snapshot, deviceService.getDeviceSnapshot());
+        assertEquals(snapshot, deviceService.getDeviceSnapshot());
+        assertEquals(snapshot, deviceService.getChangesSince(null, 0).changes());
+        verify(deviceRepository, times(1)).findAll();
+    }
+
+    @Test
+    void getChangesSince_ShouldReplayChanges_AndReadOnlyTheStaleDevices() {
+        Device stale = new Device("dev-2", "Device2", DeviceType.VIRTUAL, DeviceRole.SENSOR, objectMapper.createObjectNode());
+        DeviceStateMessage replayed = DeviceStateMessage.patch("dev-1", 5, 6, objectMapper.createObjectNode().put("online", false));
+        DeviceStateMessage staleSnapshot = DeviceStateMessage.snapshot("dev-2", 3, 7, objectMapper.createObjectNode());
+        when(broadcaster.changesSince("epoch-1", 4)).thenReturn(Optional.of(
+                new DeviceStateBroadcaster.ReplayedChanges(7, List.of(replayed), Set.of("dev-2"), Set.of("dev-3"))));
+        when(broadcaster.epoch()).thenReturn("epoch-1");
+        when(deviceRepository.findAllById(Set.of("dev-2"))).thenReturn(List.of(stale));
+        when(broadcaster.snapshot(List.of(stale))).thenReturn(List.of(staleSnapshot));
+
+        DeviceChangesResponse response = deviceService.getChangesSince("epoch-1", 4);
+
+        assertFalse(response.snapshot());
+        assertEquals(7, response.sequence());
+        assertEquals(List.of(replayed, staleSnapshot), response.changes());
+        assertEquals(List.of("dev-3"), response.removed());
+        verify(deviceRepository, never()).findAll();
+    }
+
+    @Test
+    void getGroupSnapshot_ShouldQueryOnlyTheGroupsDevices() {
+        Device actuator = new Device("dev-1", "Device1", DeviceType.PHYSICAL, DeviceRole.ACTUATOR, objectMapper.createObjectNode());
+        List<DeviceStateMessage> snapshot = List.of(DeviceStateMessage.snapshot("dev-1", 1, 3, objectMapper.createObjectNode()));
+        when(deviceRepository.findByRole(DeviceRole.ACTUATOR)).thenReturn(List.of(actuator));
+        when(broadcaster.snapshot(List.of(actuator))).thenReturn(snapshot);
+
+        assertEquals(snapshot, deviceService.getGroupSnapshot("Actuator"));
+        assertEquals(List.of(), deviceService.getGroupSnapshot("unknown"));
+        verify(deviceRepository, never()).findAll();
+        verify(deviceRepository, never()).findByType(any());
     }
 
     // Tests for updateDeviceName
@@ -91,7 +265,7 @@ class DeviceServiceTest {
 
         assertEquals("New Name", result.getName());
         verify(deviceRepository).save(existingDevice);
-        verify(messagingTemplate).convertAndSend(anyString(), Optional.ofNullable(any()));
+        verify(broadcaster).publish(any(Device.class));
     }
 
     @Test
@@ -129,7 +303,7 @@ class DeviceServiceTest {
 
         assertTrue(device.isOnline());
         verify(deviceRepository).save(device);
-        verify(messagingTemplate).convertAndSend(anyString(), Optional.ofNullable(any()));
+        verify(broadcaster).publish(any(Device.class));
     }
 
     @Test
@@ -141,7 +315,7 @@ class DeviceServiceTest {
         deviceService.updateDeviceStatus("1", true);
 
         verify(deviceRepository, never()).save(any(Device.class));
-        verify(messagingTemplate, never()).convertAndSend(anyString(), Optional.ofNullable(any()));
+        verify(broadcaster, never()).publish(any(Device.class));
     }
 
     @Test
@@ -152,7 +326,7 @@ class DeviceServiceTest {
 
         verify(deviceRepository).findById("99");
         verifyNoMoreInteractions(deviceRepository);
-        verifyNoInteractions(messagingTemplate);
+        verifyNoInteractions(broadcaster);
     }
     // Tests for configureSimulation
     @Test
@@ -167,7 +341,7 @@ class DeviceServiceTest {
         assertTrue(result.isSimulationActive());
         assertNotNull(result.getSimulationConfig());
         verify(deviceRepository).save(device);
-        verify(messagingTemplate).convertAndSend(anyString(), Optional.ofNullable(any()));
+        verify(broadcaster).publish(any(Device.class));
     }
 
     @Test
@@ -199,7 +373,7 @@ class DeviceServiceTest {
 
         assertFalse(result.isSimulationActive());
         verify(deviceRepository).save(device);
-        verify(messagingTemplate).convertAndSend(anyString(), Optional.ofNullable(any()));
+        verify(broadcaster).publish(any(Device.class));
     }
 
     @Test
@@ -244,22 +418,88 @@ class DeviceServiceTest {
         verify(timeSeriesService).writeSensorData(deviceId, "{\"temp\":50}");
     }
     @Test
-    void testHandleDeviceEvent_ShouldThrottleDatabaseWrites() throws JsonProcessingException {
-        String deviceId = "throttle-dev";
-        Device existing = new Device(deviceId, "Throttle Device", DeviceType.PHYSICAL, DeviceRole.SENSOR, objectMapper.readTree("{}"));
+    void testHandleDeviceEvent_ShouldPersistAndPublishEveryUpdate() throws JsonProcessingException {
+        String deviceId = "busy-dev";
+        Device existing = new Device(deviceId, "Busy Device", DeviceType.PHYSICAL, DeviceRole.SENSOR, objectMapper.readTree("{}"));
         when(deviceRepository.findById(deviceId)).thenReturn(Optional.of(existing));
-        when(deviceRepository.save(any(Device.class))).thenAnswer(i -> i.getArguments()[0]);
+        when(deviceRepository.updateState(eq(deviceId), any(), eq(true), anyLong())).thenReturn(1);
 
-        // First update (should save)
+        // First update
         deviceService.handleDeviceEvent(Map.of("deviceId", deviceId, "state", "{\"v\": 1}"));
 
-        // Second update immediately after (should be throttled)
+        // Second update immediately after, coalescing is left to the broadcaster
         deviceService.handleDeviceEvent(Map.of("deviceId", deviceId, "state", "{\"v\": 2}"));
 
-        verify(deviceRepository, times(1)).save(any(Device.class));
+        // looked up once, then only the state row is written
+        verify(deviceRepository, times(1)).findById(deviceId);
+        verify(deviceRepository, times(2)).updateState(eq(deviceId), any(), eq(true), anyLong());
+        verify(deviceRepository, never()).save(any(Device.class));
+        verify(broadcaster, times(2)).publish(existing);
         verify(timeSeriesService, times(2)).writeSensorData(eq(deviceId), anyString());
     }
 
+    @Test
+    void getDevicesByFieldValue_ShouldFollowIngestedState() throws JsonProcessingException {
+        for (String deviceId : List.of("dev-1", "dev-2")) {
+            Device existing = new Device(deviceId, deviceId, DeviceType.PHYSICAL, DeviceRole.SENSOR, objectMapper.readTree("{}"));
+            when(deviceRepository.findById(deviceId)).thenReturn(Optional.of(existing));
+            when(deviceRepository.updateState(eq(deviceId), any(), eq(true), anyLong())).thenReturn(1);
+        }
+        deviceService.handleDeviceEvent(Map.of("deviceId", "dev-1", "state", "{\"temp\": 30}"));
+        deviceService.handleDeviceEvent(Map.of("deviceId", "dev-2", "state", "{\"temp\": 25}"));
+        deviceService.handleDeviceEvent(Map.of("deviceId", "dev-1", "state", "{\"temp\": 20}"));
+
+        FieldValuesResponse top = deviceService.getDevicesByFieldValue(
+                new FieldValueQuery("temp", null, null, Sort.Direction.DESC, 1));
+        assertEquals(List.of(new FieldValuesResponse.FieldValue("dev-2", 25)), top.devices());
+        assertThrows(IllegalArgumentException.class, () -> deviceService.getDevicesByFieldValue(
+                new FieldValueQuery("temp", 30.0, 20.0, Sort.Direction.ASC, 10)));
+    }
+
+    @Test
+    void handleDeviceEvent_ShouldDropFieldsTheDeviceNoLongerReports() throws JsonProcessingException {
+        String deviceId = "dev-1";
+        Device existing = new Device(deviceId, deviceId, DeviceType.PHYSICAL, DeviceRole.SENSOR,
+                objectMapper.readTree("{\"temp\": 20, \"humidity\": 40}"));
+        when(deviceRepository.findById(deviceId)).thenReturn(Optional.of(existing));
+        when(deviceRepository.updateState(eq(deviceId), any(), eq(true), anyLong())).thenReturn(1);
+
+        Device result = deviceService.handleDeviceEvent(Map.of("deviceId", deviceId, "state", "{\"temp\": 21}"));
+
+        assertEquals(objectMapper.readTree("{\"temp\": 21}"), result.getCurrentState());
+        assertTrue(deviceService.getDevicesByFieldValue(
+                new FieldValueQuery("humidity", null, null, Sort.Direction.ASC, 10)).devices().isEmpty());
+    }
+
+    @Test
+    void handleDeviceEvent_ShouldRetry_WhenTheRulesOfTwoDevicesUpdateEachOther() throws Exception {
+        for (String deviceId : List.of("dev-a", "dev-b")) {
+            Device existing = new Device(deviceId, deviceId, DeviceType.PHYSICAL, DeviceRole.SENSOR, objectMapper.readTree("{}"));
+            when(deviceRepository.findById(deviceId)).thenReturn(Optional.of(existing));
+            when(deviceRepository.updateState(eq(deviceId), any(), eq(true), anyLong())).thenReturn(1);
+        }
+        // both readings hold the lock of their own device before their rule locks the other one
+        CountDownLatch bothLocked = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            Device device = invocation.getArgument(0);
+            bothLocked.countDown();
+            bothLocked.await(5, TimeUnit.SECONDS);
+            deviceLocks.runWithLock(device.getId().equals("dev-a") ? "dev-b" : "dev-a", () -> {});
+            return null;
+        }).when(simulationService).processEvent(any(Device.class));
+
+        CompletableFuture<Device> first = CompletableFuture.supplyAsync(
+                () -> deviceService.handleDeviceEvent(Map.of("deviceId", "dev-a", "state", "{\"temp\": 1}")));
+        CompletableFuture<Device> second = CompletableFuture.supplyAsync(
+                () -> deviceService.handleDeviceEvent(Map.of("deviceId", "dev-b", "state", "{\"temp\": 2}")));
+
+        assertEquals(objectMapper.readTree("{\"temp\": 1}"), first.get(10, TimeUnit.SECONDS).getCurrentState());
+        assertEquals(objectMapper.readTree("{\"temp\": 2}"), second.get(10, TimeUnit.SECONDS).getCurrentState());
+        assertTrue(meterRegistry.get("devices.locks.retries").counter().count() >= 1);
+        verify(timeSeriesService).writeSensorData("dev-a", "{\"temp\":1}");
+        verify(timeSeriesService).writeSensorData("dev-b", "{\"temp\":2}");
+    }
+
     @Test
     void testSendCommand_ShouldPublishToMqtt() {
         String deviceId = "actuator-1";
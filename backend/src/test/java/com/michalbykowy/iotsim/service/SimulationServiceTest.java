@@ -7,6 +7,11 @@ import com.michalbykowy.iotsim.event.DeviceCommandEvent;
 import com.michalbykowy.iotsim.model.*;
 import com.michalbykowy.iotsim.repository.DeviceRepository;
 import com.michalbykowy.iotsim.repository.RuleRepository;
+import com.michalbykowy.iotsim.service.devices.DeviceLocks;
+import com.michalbykowy.iotsim.service.devices.DeviceRegistry;
+import com.michalbykowy.iotsim.service.devices.DeviceSearchIndex;
+import com.michalbykowy.iotsim.service.devices.DeviceStateBroadcaster;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -16,7 +21,6 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 
 import java.io.IOException;
 import java.util.List;
@@ -24,6 +28,8 @@ import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -31,7 +37,7 @@ class SimulationServiceTest {
 
     @Mock private RuleRepository ruleRepository;
     @Mock private DeviceRepository deviceRepository;
-    @Mock private SimpMessagingTemplate messagingTemplate;
+    @Mock private DeviceStateBroadcaster broadcaster;
     @Mock private TimeSeriesService timeSeriesService;
     @Mock private ApplicationEventPublisher eventPublisher;
 
@@ -47,11 +53,13 @@ class SimulationServiceTest {
 
     @BeforeEach
     void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
         simulationService = new SimulationService(
                 3, // maxRecursionDepth
                 ruleRepository,
-                deviceRepository,
-                messagingTemplate,
+                new DeviceRegistry(deviceRepository, List.of(new DeviceSearchIndex(meterRegistry)), 100, 3, meterRegistry),
+                new DeviceLocks(16, 1000, 3, 10, meterRegistry),
+                broadcaster,
                 objectMapper,
                 timeSeriesService,
                 eventPublisher
@@ -79,11 +87,31 @@ class SimulationServiceTest {
 
         verify(eventPublisher).publishEvent(any(DeviceCommandEvent.class));
         // check frontend is notified
-        verify(messagingTemplate).convertAndSend(eq("/topic/devices"), deviceCaptor.capture());
+        verify(broadcaster).publish(deviceCaptor.capture());
         assertEquals("dev-b", deviceCaptor.getValue().getId());
     }
 
 
+    @Test
+    void processEvent_ShouldSetOnlyTheFieldsOfTheAction_OnTheTargetDevice() throws IOException {
+        Device deviceA = new Device("dev-a", "Device A", DeviceType.PHYSICAL, DeviceRole.SENSOR, objectMapper.readTree("{\"temp\": 25}"));
+        Device deviceB = new Device("dev-b", "Device B", DeviceType.PHYSICAL, DeviceRole.ACTUATOR,
+                objectMapper.readTree("{\"temperature\": 21.5, \"relay\": \"OFF\"}"));
+        String triggerJson = "{\"deviceId\":\"dev-a\",\"path\":\"$.temp\",\"operator\":\"GREATER_THAN\",\"value\":\"20\"}";
+        Rule rule = createTestRule("rule-1", triggerJson, "{\"deviceId\":\"dev-b\",\"newState\":{\"relay\":\"ON\"}}", "dev-a");
+
+        when(ruleRepository.findByTriggerDeviceId("dev-a")).thenReturn(List.of(rule));
+        when(deviceRepository.findById("dev-b")).thenReturn(Optional.of(deviceB));
+        when(deviceRepository.updateState(eq("dev-b"), any(), anyBoolean(), eq(0L))).thenReturn(1);
+
+        simulationService.processEvent(deviceA);
+
+        assertEquals(objectMapper.readTree("{\"temperature\": 21.5, \"relay\": \"ON\"}"), deviceB.getCurrentState());
+        assertEquals(1, deviceB.getStateVersion());
+        verify(deviceRepository, never()).save(any(Device.class));
+    }
+
+
     @Test
     void processEvent_ShouldNotTriggerAction_WhenConditionNotMet() throws IOException {
         Device deviceA = new Device("dev-a", "Device A", DeviceType.PHYSICAL, DeviceRole.SENSOR, objectMapper.readTree("{\"temp\": 15}"));
@@ -95,7 +123,7 @@ class SimulationServiceTest {
         simulationService.processEvent(deviceA);
 
         verify(eventPublisher, never()).publishEvent(any());
-        verify(messagingTemplate, never()).convertAndSend(anyString(), Optional.ofNullable(any()));
+        verify(broadcaster, never()).publish(any());
     }
 
 
@@ -203,6 +231,6 @@ class SimulationServiceTest {
         // publishevent should be called 3 times (initial + 2 loops), then stop
         verify(eventPublisher, times(3)).publishEvent(any(DeviceCommandEvent.class));
         // check frontend is notified for each update
-        verify(messagingTemplate, times(3)).convertAndSend(eq("/topic/devices"), any(Device.class));
+        verify(broadcaster, times(3)).publish(any(Device.class));
     }
 }
\ No newline at end of file
@@ -1,27 +1,41 @@
 package com.michalbykowy.iotsim.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.influxdb.Cancellable;
 import com.influxdb.client.InfluxDBClient;
 import com.influxdb.client.QueryApi;
 import com.influxdb.client.WriteApi;
 import com.influxdb.client.write.Point;
 import com.influxdb.query.FluxRecord;
 import com.influxdb.query.FluxTable;
+import com.michalbykowy.iotsim.dto.DownsamplingRequest;
+import com.michalbykowy.iotsim.dto.HistoryQueryRequest;
 import com.michalbykowy.iotsim.model.AggregateFunction;
+import com.michalbykowy.iotsim.model.DownsampleMode;
+import com.michalbykowy.iotsim.model.LogLevel;
+import com.michalbykowy.iotsim.service.history.RecentReadingsCache;
+import com.michalbykowy.iotsim.service.store.InfluxTimeSeriesStore;
+import com.michalbykowy.iotsim.service.store.LogQuery;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -36,11 +50,14 @@ class TimeSeriesServiceTest {
     private WriteApi writeApi;
     @Mock
     private QueryApi queryApi;
+    @Mock
+    private RecentReadingsCache recentReadings;
 
     @Spy
     private ObjectMapper objectMapper = new ObjectMapper();
 
-    @InjectMocks
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     private TimeSeriesService timeSeriesService;
 
     @Captor
@@ -50,10 +67,18 @@ class TimeSeriesServiceTest {
     @Captor
     private ArgumentCaptor<Point> pointCaptor;
 
+    private static BiConsumer<Cancellable, FluxRecord> anyOnNext() {
+        return any();
+    }
+
+    private static Consumer<? super Throwable> anyOnError() {
+        return any();
+    }
+
     @BeforeEach
     void setUp() {
-        ReflectionTestUtils.setField(timeSeriesService, "bucket", "test-bucket");
-        ReflectionTestUtils.setField(timeSeriesService, "org", "test-org");
+        InfluxTimeSeriesStore store = new InfluxTimeSeriesStore(influxDBClient, writeApi, "test-bucket", "test-org", meterRegistry);
+        timeSeriesService = new TimeSeriesService(store, objectMapper, recentReadings);
     }
 
     @Test
@@ -72,6 +97,19 @@ class TimeSeriesServiceTest {
         assertEquals(25.5, result.get());
     }
 
+    @Test
+    void queryAggregate_ShouldReuseTemplateText_AndRecordLatencyPerTemplate() {
+        when(influxDBClient.getQueryApi()).thenReturn(queryApi);
+
+        timeSeriesService.queryAggregate("dev-1", "temp", "1h", AggregateFunction.MAX);
+        timeSeriesService.queryAggregate("dev-2", "load", "5m", AggregateFunction.MAX);
+
+        verify(queryApi, times(2)).query(queryCaptor.capture(), eq("test-org"), paramsCaptor.capture());
+        assertSame(queryCaptor.getAllValues().get(0), queryCaptor.getAllValues().get(1));
+        assertEquals("dev-2", paramsCaptor.getAllValues().get(1).get("deviceIdParam"));
+        assertEquals(2, meterRegistry.get("influx.query").tag("template", "aggregate_max").timer().count());
+    }
+
     // Test for readSensorData
     @Test
     void readSensorData_ShouldConstructCorrectQuery() {
@@ -89,6 +127,165 @@ class TimeSeriesServiceTest {
         assertEquals("dev-1", capturedParams.get("deviceIdParam"));
     }
 
+    // Test for streamSensorData
+    @Test
+    void streamSensorData_ShouldPassRecordsToConsumer_AsTheyArrive() {
+        when(influxDBClient.getQueryApi()).thenReturn(queryApi);
+
+        FluxRecord first = mock(FluxRecord.class);
+        FluxRecord second = mock(FluxRecord.class);
+        when(first.getValues()).thenReturn(Map.of("temp", 1.0));
+        when(second.getValues()).thenReturn(Map.of("temp", 2.0));
+
+        doAnswer(invocation -> {
+            BiConsumer<Cancellable, FluxRecord> onNext = invocation.getArgument(2);
+            Runnable onComplete = invocation.getArgument(4);
+            onNext.accept(mock(Cancellable.class), first);
+            onNext.accept(mock(Cancellable.class), second);
+            onComplete.run();
+            return null;
+        }).when(queryApi).query(anyString(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), anyMap());
+
+        List<Map<String, Object>> received = new ArrayList<>();
+        timeSeriesService.streamSensorData("dev-1", "1h", null, received::add);
+
+        assertEquals(List.of(Map.of("temp", 1.0), Map.of("temp", 2.0)), received);
+    }
+
+    @Test
+    void streamSensorData_ShouldAggregateWindow_SizedToMaxPoints() {
+        when(influxDBClient.getQueryApi()).thenReturn(queryApi);
+        doAnswer(invocation -> {
+            Runnable onComplete = invocation.getArgument(4);
+            onComplete.run();
+            return null;
+        }).when(queryApi).query(anyString(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), anyMap());
+
+        timeSeriesService.streamSensorData("dev-1", "-24h", null,
+                new DownsamplingRequest(1440, DownsampleMode.WINDOW, null), record -> {});
+
+        verify(queryApi).query(queryCaptor.capture(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), paramsCaptor.capture());
+        assertTrue(queryCaptor.getValue().contains("aggregateWindow(every: duration(v: params.windowParam), fn: mean"));
+        assertEquals("60s", paramsCaptor.getValue().get("windowParam"));
+    }
+
+    @Test
+    void validateSensorDataQuery_ShouldRejectTooFewLttbPoints_AndInvalidRanges() {
+        timeSeriesService.validateSensorDataQuery("-1h", null, new DownsamplingRequest(3, DownsampleMode.LTTB, null));
+        timeSeriesService.validateSensorDataQuery("-1h", null, new DownsamplingRequest(2, DownsampleMode.WINDOW, null));
+
+        assertThrows(IllegalArgumentException.class, () -> timeSeriesService.validateSensorDataQuery(
+                "-1h", null, new DownsamplingRequest(2, DownsampleMode.LTTB, null)));
+        assertThrows(IllegalArgumentException.class,
+                () -> timeSeriesService.validateSensorDataQuery("2024-13-01T00:00:00Z", null, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> timeSeriesService.validateSensorDataQuery("-1h", "yesterday", null));
+    }
+
+    @Test
+    void streamSensorData_ShouldServeFromRecentReadings_WhenRangeIsCovered() {
+        when(recentReadings.coveredFrom("dev-1")).thenReturn(Optional.of(Instant.now().minusSeconds(7200)));
+
+        timeSeriesService.streamSensorData("dev-1", "-1h", null, record -> {});
+
+        verify(recentReadings).stream(eq("dev-1"), any(Instant.class), any(Instant.class), any());
+        verifyNoInteractions(queryApi);
+    }
+
+    @Test
+    void streamSensorData_ShouldQueryInflux_OnlyForRangeOlderThanCache() {
+        when(influxDBClient.getQueryApi()).thenReturn(queryApi);
+        Instant cachedFrom = Instant.now().minusSeconds(600);
+        when(recentReadings.coveredFrom("dev-1")).thenReturn(Optional.of(cachedFrom));
+        doAnswer(invocation -> {
+            Runnable onComplete = invocation.getArgument(4);
+            onComplete.run();
+            return null;
+        }).when(queryApi).query(anyString(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), anyMap());
+
+        timeSeriesService.streamSensorData("dev-1", "-1h", null, record -> {});
+
+        verify(queryApi).query(queryCaptor.capture(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), paramsCaptor.capture());
+        assertTrue(queryCaptor.getValue().contains("stop: time(v: params.stopParam)"));
+        assertEquals(cachedFrom.toString(), paramsCaptor.getValue().get("stopParam"));
+        verify(recentReadings).stream(eq("dev-1"), any(Instant.class), any(Instant.class), any());
+    }
+
+    @Test
+    void streamHistory_ShouldQueryUncachedDevices_InOneFluxQuery() {
+        when(influxDBClient.getQueryApi()).thenReturn(queryApi);
+        when(recentReadings.coveredFrom("dev-1")).thenReturn(Optional.empty());
+        when(recentReadings.coveredFrom("dev-2")).thenReturn(Optional.empty());
+        when(recentReadings.coveredFrom("dev-3")).thenReturn(Optional.of(Instant.now().minusSeconds(7200)));
+        doAnswer(invocation -> {
+            Runnable onComplete = invocation.getArgument(4);
+            onComplete.run();
+            return null;
+        }).when(queryApi).query(anyString(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), anyMap());
+
+        timeSeriesService.streamHistory(new HistoryQueryRequest(
+                List.of("dev-1", "dev-2", "dev-3", "dev-1"), List.of("temp"), "-1h", null, "1m"), record -> {});
+
+        verify(queryApi).query(queryCaptor.capture(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), paramsCaptor.capture());
+        String query = queryCaptor.getValue();
+        Map<String, Object> params = paramsCaptor.getValue();
+        assertTrue(query.contains("contains(value: r.deviceId, set: params.deviceIdsParam)"));
+        assertTrue(query.contains("contains(value: r._field, set: params.fieldsParam)"));
+        assertEquals(List.of("dev-1", "dev-2"), params.get("deviceIdsParam"));
+        assertEquals(List.of("temp"), params.get("fieldsParam"));
+        assertEquals("60s", params.get("windowParam"));
+        verify(recentReadings).streamAggregated(eq("dev-3"), any(Instant.class), any(Instant.class),
+                eq(Duration.ofMinutes(1)), any());
+    }
+
+    @Test
+    void streamHistory_ShouldProjectCachedRecords_ToRequestedFields() {
+        when(recentReadings.coveredFrom("dev-1")).thenReturn(Optional.of(Instant.now().minusSeconds(7200)));
+        doAnswer(invocation -> {
+            Consumer<Map<String, Object>> consumer = invocation.getArgument(3);
+            consumer.accept(new HashMap<>(Map.of("deviceId", "dev-1", "temp", 1.0, "humidity", 40.0)));
+            consumer.accept(new HashMap<>(Map.of("deviceId", "dev-1", "humidity", 41.0)));
+            return null;
+        }).when(recentReadings).stream(eq("dev-1"), any(Instant.class), any(Instant.class), any());
+
+        List<Map<String, Object>> received = new ArrayList<>();
+        timeSeriesService.streamHistory(new HistoryQueryRequest(List.of("dev-1"), List.of("temp"), "-1h", null, null),
+                received::add);
+
+        assertEquals(List.of(Map.of("deviceId", "dev-1", "temp", 1.0)), received);
+        verifyNoInteractions(queryApi);
+    }
+
+    @Test
+    void streamHistory_ShouldPassAnAbsoluteStart_AsATime() {
+        when(influxDBClient.getQueryApi()).thenReturn(queryApi);
+        when(recentReadings.coveredFrom("dev-1")).thenReturn(Optional.empty());
+        doAnswer(invocation -> {
+            Runnable onComplete = invocation.getArgument(4);
+            onComplete.run();
+            return null;
+        }).when(queryApi).query(anyString(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), anyMap());
+        HistoryQueryRequest request = new HistoryQueryRequest(
+                List.of("dev-1"), null, "2026-10-01T00:00:00Z", "2026-10-02T00:00:00Z", null);
+
+        timeSeriesService.validateHistoryQuery(request);
+        timeSeriesService.streamHistory(request, record -> {});
+        timeSeriesService.streamSensorData("dev-1", "2026-10-01T00:00:00Z", null, record -> {});
+
+        verify(queryApi, times(2)).query(queryCaptor.capture(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), paramsCaptor.capture());
+        assertTrue(queryCaptor.getAllValues().get(0).contains(
+                "range(start: time(v: params.startParam), stop: time(v: params.stopParam))"));
+        assertTrue(queryCaptor.getAllValues().get(1).contains("range(start: time(v: params.startParam), stop: now())"));
+        assertEquals("2026-10-01T00:00:00Z", paramsCaptor.getAllValues().get(1).get("startParam"));
+    }
+
+    @Test
+    void validateHistoryQuery_ShouldRejectSubSecondWindow() {
+        HistoryQueryRequest request = new HistoryQueryRequest(List.of("dev-1"), null, "-1h", null, "500ms");
+
+        assertThrows(IllegalArgumentException.class, () -> timeSeriesService.validateHistoryQuery(request));
+    }
+
     // Test for readLogHistory
     @Test
     void readLogHistory_ShouldConstructCorrectQuery() {
@@ -104,6 +301,52 @@ class TimeSeriesServiceTest {
         assertEquals("system_logs", capturedParams.get("measurementParam"));
     }
 
+    @Test
+    void streamLogs_ShouldPushFiltersAndPageSizeIntoTheQuery() {
+        when(influxDBClient.getQueryApi()).thenReturn(queryApi);
+        doAnswer(invocation -> {
+            Runnable onComplete = invocation.getArgument(4);
+            onComplete.run();
+            return null;
+        }).when(queryApi).query(anyString(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), anyMap());
+        Instant before = Instant.parse("2026-01-01T12:00:00Z");
+
+        LogQuery query = timeSeriesService.logPage(null, before, 200, Set.of(LogLevel.ERROR, LogLevel.WARN), "com.michalbykowy");
+        timeSeriesService.streamLogs(query, record -> {});
+
+        verify(queryApi).query(queryCaptor.capture(), eq("test-org"), anyOnNext(), anyOnError(), any(Runnable.class), paramsCaptor.capture());
+        String flux = queryCaptor.getValue();
+        assertTrue(flux.contains("contains(value: r.level, set: params.levelsParam)"));
+        assertTrue(flux.contains("strings.hasPrefix(v: r.loggerName, prefix: params.loggerPrefixParam)"));
+        assertTrue(flux.contains("|> tail(n: params.limitParam)"));
+        assertFalse(flux.contains("pivot"));
+        Map<String, Object> params = paramsCaptor.getValue();
+        assertEquals(List.of("ERROR", "WARN"), params.get("levelsParam"));
+        assertEquals(200, params.get("limitParam"));
+        assertEquals("2026-01-01T12:00:00Z", params.get("toParam"));
+        assertEquals("2025-12-31T12:00:00Z", params.get("fromParam"));
+    }
+
+    @Test
+    void logPage_ShouldPageForward_FromAfterCursor() {
+        Instant after = Instant.parse("2026-01-01T12:00:00Z");
+
+        LogQuery query = timeSeriesService.logPage(after, null, 100, null, " ");
+
+        assertFalse(query.newest());
+        assertEquals(after.plusMillis(1), query.from());
+        assertNull(query.loggerPrefix());
+    }
+
+    @Test
+    void logPage_ShouldRejectInvalidCursorsAndPageSizes() {
+        Instant now = Instant.now();
+
+        assertThrows(IllegalArgumentException.class, () -> timeSeriesService.logPage(now, now, 100, null, null));
+        assertThrows(IllegalArgumentException.class, () -> timeSeriesService.logPage(null, null, 0, null, null));
+        assertThrows(IllegalArgumentException.class, () -> timeSeriesService.logPage(null, null, 1001, null, null));
+    }
+
     // Test for writeSensorData
     @Test
     void writeSensorData_ShouldWritePoint_WhenPayloadIsWrapped() {
@@ -117,6 +360,7 @@ class TimeSeriesServiceTest {
         assertTrue(capturedPoint.hasFields());
         assertTrue(capturedPoint.toLineProtocol().contains("temperature=22.5"));
         assertTrue(capturedPoint.toLineProtocol().contains("humidity=45.0"));
+        verify(recentReadings).record(eq("dev-1"), any(Instant.class), eq(Map.of("temperature", 22.5, "humidity", 45.0)));
     }
 
     // Test for writeSensorData
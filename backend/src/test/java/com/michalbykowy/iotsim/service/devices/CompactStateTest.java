@@ -0,0 +1,53 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactStateTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void of_ShouldShareTheLayout_OfStatesWithTheSameFields() throws Exception {
+        CompactState first = CompactState.of(objectMapper.readTree("{\"temp\": 21.5, \"label\": \"a\", \"on\": true}"));
+        CompactState second = CompactState.of(objectMapper.readTree("{\"on\": false, \"temp\": 19, \"label\": \"b\"}"));
+
+        assertSame(first.layout(), second.layout());
+        assertEquals(3, first.size());
+        int temp = first.layout().slotOf("temp");
+        assertEquals("temp", first.name(temp));
+        assertEquals(21.5, first.value(temp));
+        assertFalse(first.isNumeric(first.layout().slotOf("label")));
+        assertTrue(second.hasValue("temp", 19));
+        assertFalse(second.hasValue("humidity", 19));
+        assertTrue(first.layout().slotOf("humidity") < 0);
+    }
+
+    @Test
+    void equals_ShouldCompareTheNumbers_AndIgnoreNonNumericValues() throws Exception {
+        CompactState state = CompactState.of(objectMapper.readTree("{\"temp\": 20, \"label\": \"a\"}"));
+
+        assertEquals(state, CompactState.of(objectMapper.readTree("{\"label\": \"b\", \"temp\": 20.0}")));
+        assertNotEquals(state, CompactState.of(objectMapper.readTree("{\"label\": \"a\", \"temp\": 21}")));
+        assertNotEquals(state, CompactState.of(objectMapper.readTree("{\"temp\": 20}")));
+        assertSame(CompactState.EMPTY, CompactState.of(objectMapper.readTree("{}")));
+        assertSame(CompactState.EMPTY, CompactState.of(null));
+    }
+
+    @Test
+    void of_ShouldNotKeepLayouts_NoStateRefersTo() throws Exception {
+        WeakReference<FieldLayout> layout = new WeakReference<>(
+                CompactState.of(objectMapper.readTree("{\"reading-1760000000\": 1}")).layout());
+
+        for (int attempt = 0; attempt < 50 && layout.get() != null; attempt++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(layout.get());
+    }
+}
@@ -0,0 +1,106 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceLocksTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DeviceLocks locks = new DeviceLocks(1000, 50, 3, 10, meterRegistry);
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    /** A device hashed onto another stripe than {@code deviceId}. */
+    private String otherStripeThan(String deviceId) {
+        for (int i = 0; ; i++) {
+            if (locks.stripeOf("other-" + i) != locks.stripeOf(deviceId)) {
+                return "other-" + i;
+            }
+        }
+    }
+
+    @Test
+    void withLock_ShouldSerializeOneDevice_AndLetOtherDevicesThrough() throws Exception {
+        assertEquals(1024, locks.stripes());
+        String other = otherStripeThan("dev-1");
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> locks.runWithLock("dev-1", () -> {
+            holding.countDown();
+            awaitQuietly(release);
+        }));
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> sameDevice = CompletableFuture.supplyAsync(() -> locks.withLock("dev-1", () -> "same"));
+        assertEquals("other", CompletableFuture.supplyAsync(() -> locks.withLock(other, () -> "other"))
+                .get(5, TimeUnit.SECONDS));
+        assertThrows(TimeoutException.class, () -> sameDevice.get(100, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        assertEquals("same", sameDevice.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void withLock_ShouldHoldTheLockUntilTheTransactionCompletes() throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        locks.runWithLock("dev-1", () -> {});
+        locks.runWithLock("dev-1", () -> {});
+
+        CompletableFuture<String> waiting = CompletableFuture.supplyAsync(() -> locks.withLock("dev-1", () -> "done"));
+        assertThrows(TimeoutException.class, () -> waiting.get(100, TimeUnit.MILLISECONDS));
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        assertEquals(1, synchronizations.size());
+        synchronizations.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        assertEquals("done", waiting.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void withLock_ShouldTimeOut_WhenAFurtherDeviceStaysLocked() throws Exception {
+        String other = otherStripeThan("dev-1");
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> locks.runWithLock(other, () -> {
+            holding.countDown();
+            awaitQuietly(release);
+        }));
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        TransactionSynchronizationManager.initSynchronization();
+        locks.runWithLock("dev-1", () -> {});
+        assertThrows(CannotAcquireLockException.class, () -> locks.runWithLock(other, () -> {}));
+        assertEquals(1, meterRegistry.get("devices.locks.timeouts").counter().count());
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
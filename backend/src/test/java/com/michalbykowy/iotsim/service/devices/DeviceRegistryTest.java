@@ -0,0 +1,151 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceState;
+import com.michalbykowy.iotsim.model.DeviceType;
+import com.michalbykowy.iotsim.repository.DeviceRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceRegistryTest {
+
+    @Mock
+    private DeviceRepository deviceRepository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DeviceRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new DeviceRegistry(deviceRepository, List.of(new DeviceSearchIndex(meterRegistry)), 2, 3, meterRegistry);
+    }
+
+    private Device device(String id) {
+        return new Device(id, "Device " + id, DeviceType.PHYSICAL, DeviceRole.SENSOR, objectMapper.createObjectNode());
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("devices.cache.requests").tag("result", result).counter().count();
+    }
+
+    @Test
+    void find_ShouldReadThroughOnce_AndServeLaterLookupsFromMemory() {
+        Device device = device("dev-1");
+        when(deviceRepository.findById("dev-1")).thenReturn(Optional.of(device));
+
+        assertSame(device, registry.find("dev-1").orElseThrow());
+        assertSame(device, registry.find("dev-1").orElseThrow());
+
+        verify(deviceRepository, times(1)).findById("dev-1");
+        assertEquals(1, requests("hit"));
+        assertEquals(1, requests("miss"));
+    }
+
+    @Test
+    void find_ShouldEvictLeastRecentlyUsedDevice_WhenFull() {
+        when(deviceRepository.save(any(Device.class))).thenAnswer(i -> i.getArgument(0));
+        registry.save(device("dev-1"));
+        registry.save(device("dev-2"));
+        registry.find("dev-1");
+        registry.save(device("dev-3"));
+
+        when(deviceRepository.findById("dev-2")).thenReturn(Optional.empty());
+        assertTrue(registry.find("dev-2").isEmpty());
+        assertTrue(registry.find("dev-1").isPresent());
+        assertEquals(2, registry.size());
+        assertEquals(1, meterRegistry.get("devices.cache.evictions").counter().count());
+    }
+
+    @Test
+    void mergeState_ShouldWriteOnlyTheStateRow_AndFallBackToSave_WithoutOne() throws Exception {
+        Device known = device("dev-1");
+        Device unknown = device("dev-2");
+        JsonNode changes = objectMapper.readTree("{\"temp\": 21}");
+        when(deviceRepository.updateState("dev-1", changes, true, 0)).thenReturn(1);
+        when(deviceRepository.save(unknown)).thenReturn(unknown);
+
+        registry.mergeState(known, changes, true);
+        registry.mergeState(unknown, changes, true);
+
+        verify(deviceRepository, never()).save(known);
+        assertEquals(1, known.getStateVersion());
+        assertEquals(changes, unknown.getCurrentState());
+        assertSame(known, registry.find("dev-1").orElseThrow());
+        assertSame(unknown, registry.find("dev-2").orElseThrow());
+    }
+
+    @Test
+    void mergeState_ShouldMergeOntoTheCommittedState_WhenAnotherWriterGotThereFirst() throws Exception {
+        Device device = new Device("dev-1", "Device", DeviceType.PHYSICAL, DeviceRole.ACTUATOR,
+                objectMapper.readTree("{\"temp\": 20, \"relay\": \"OFF\"}"));
+        DeviceState committed = mock(DeviceState.class);
+        when(committed.getCurrentState()).thenReturn(objectMapper.readTree("{\"temp\": 22, \"relay\": \"OFF\"}"));
+        when(committed.isOnline()).thenReturn(true);
+        when(committed.getVersion()).thenReturn(4L);
+        when(deviceRepository.findState("dev-1")).thenReturn(Optional.of(committed));
+        when(deviceRepository.updateState(eq("dev-1"), any(), anyBoolean(), eq(0L))).thenReturn(0);
+        when(deviceRepository.updateState(eq("dev-1"), any(), anyBoolean(), eq(4L))).thenReturn(1);
+
+        registry.mergeState(device, objectMapper.readTree("{\"relay\": \"ON\"}"), null);
+
+        assertEquals(objectMapper.readTree("{\"temp\": 22, \"relay\": \"ON\"}"), device.getCurrentState());
+        assertTrue(device.isOnline());
+        assertEquals(5, device.getStateVersion());
+        assertEquals(1, meterRegistry.get("devices.state.conflicts").counter().count());
+
+        // a row that keeps moving fails the write after the retries
+        when(deviceRepository.updateState(eq("dev-1"), any(), anyBoolean(), eq(4L))).thenReturn(0);
+        device.setStateVersion(0);
+        assertThrows(ObjectOptimisticLockingFailureException.class,
+                () -> registry.mergeState(device, objectMapper.readTree("{\"relay\": \"OFF\"}"), null));
+        assertEquals(5, meterRegistry.get("devices.state.conflicts").counter().count());
+    }
+
+    @Test
+    void replaceState_ShouldDropUnreportedFields_AndKeepWhatAConcurrentWriterSet() throws Exception {
+        Device device = new Device("dev-1", "Device", DeviceType.PHYSICAL, DeviceRole.ACTUATOR,
+                objectMapper.readTree("{\"temp\": 20, \"humidity\": 40}"));
+        DeviceState committed = mock(DeviceState.class);
+        when(committed.getCurrentState()).thenReturn(objectMapper.readTree("{\"temp\": 20, \"humidity\": 40, \"relay\": \"ON\"}"));
+        when(committed.getVersion()).thenReturn(1L);
+        when(deviceRepository.findState("dev-1")).thenReturn(Optional.of(committed));
+        when(deviceRepository.updateState(eq("dev-1"), any(), anyBoolean(), eq(0L))).thenReturn(0);
+        when(deviceRepository.updateState(eq("dev-1"), any(), anyBoolean(), eq(1L))).thenReturn(1);
+
+        registry.replaceState(device, objectMapper.readTree("{\"temp\": 21}"), true);
+
+        assertEquals(objectMapper.readTree("{\"temp\": 21, \"relay\": \"ON\"}"), device.getCurrentState());
+        assertEquals(2, device.getStateVersion());
+    }
+
+    @Test
+    void remove_ShouldInvalidateDevice_SoTheNextLookupReadsTheDatabase() {
+        when(deviceRepository.save(any(Device.class))).thenAnswer(i -> i.getArgument(0));
+        registry.save(device("dev-1"));
+
+        registry.remove("dev-1");
+
+        when(deviceRepository.findById("dev-1")).thenReturn(Optional.empty());
+        assertTrue(registry.find("dev-1").isEmpty());
+        verify(deviceRepository).findById("dev-1");
+    }
+}
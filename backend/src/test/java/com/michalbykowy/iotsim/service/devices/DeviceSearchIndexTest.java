@@ -0,0 +1,92 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.michalbykowy.iotsim.dto.DeviceSearchQuery;
+import com.michalbykowy.iotsim.dto.DeviceSearchResponse;
+import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceSummary;
+import com.michalbykowy.iotsim.model.DeviceType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceSearchIndexTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private DeviceSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new DeviceSearchIndex(new SimpleMeterRegistry());
+    }
+
+    private Device device(String id, String name, DeviceType type, String state) throws Exception {
+        return new Device(id, name, type, DeviceRole.SENSOR, objectMapper.readTree(state));
+    }
+
+    private void changed(Device device) {
+        index.deviceChanged(device, CompactState.of(device.getCurrentState()));
+    }
+
+    private List<String> ids(DeviceSearchResponse response) {
+        return response.devices().stream().map(DeviceSummary::id).toList();
+    }
+
+    private DeviceSearchQuery query(String text, DeviceType type, Boolean online, Set<String> fields) {
+        return new DeviceSearchQuery(text, type, null, online, null, fields, 10);
+    }
+
+    @Test
+    void search_ShouldIntersectNamePrefixes_WithTheOtherCriteria() throws Exception {
+        Device kitchen = device("1", "Kitchen Temp-Sensor", DeviceType.PHYSICAL, "{\"temp\": 21, \"humidity\": 40}");
+        kitchen.setOnline(true);
+        changed(kitchen);
+        changed(device("2", "Garage temperature", DeviceType.VIRTUAL, "{\"temp\": 12}"));
+        changed(device("3", "Kitchen light", DeviceType.PHYSICAL, "{\"on\": true}"));
+
+        assertEquals(List.of("1", "2"), ids(index.search(query("TEMP", null, null, null))));
+        assertEquals(List.of("1"), ids(index.search(query("kit te", null, null, null))));
+        assertEquals(List.of("1"), ids(index.search(query(null, null, true, Set.of("temp")))));
+        assertEquals(List.of("3"), ids(index.search(query("kitchen", DeviceType.PHYSICAL, false, null))));
+        assertEquals(0, index.search(query(null, null, null, Set.of("temp", "on"))).total());
+        assertEquals(3, index.search(query(null, null, null, null)).total());
+    }
+
+    @Test
+    void deviceChanged_ShouldReplaceTheOldTerms_AndRemovalShouldFreeTheSlot() throws Exception {
+        Device device = device("1", "Boiler", DeviceType.VIRTUAL, "{\"pressure\": 2}");
+        changed(device);
+        device.setName("Heat pump");
+        device.setCurrentState(objectMapper.readTree("{\"flow\": 3}"));
+        changed(device);
+
+        assertEquals(0, index.search(query("boiler", null, null, null)).total());
+        assertEquals(0, index.search(query(null, null, null, Set.of("pressure"))).total());
+        assertEquals(List.of("1"), ids(index.search(query("pump", null, null, Set.of("flow")))));
+
+        index.deviceRemoved("1");
+        changed(device("2", "Heat meter", DeviceType.VIRTUAL, "{}"));
+
+        assertEquals(List.of("2"), ids(index.search(query("heat", null, null, null))));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void search_ShouldCountEveryMatch_ButReturnAtMostTheLimit() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            changed(device("dev-" + i, "Sensor " + i, DeviceType.VIRTUAL, "{}"));
+        }
+
+        DeviceSearchResponse response = index.search(query("sensor", DeviceType.VIRTUAL, null, null));
+
+        assertEquals(25, response.total());
+        assertEquals(10, response.devices().size());
+        assertEquals("dev-0", response.devices().getFirst().id());
+    }
+}
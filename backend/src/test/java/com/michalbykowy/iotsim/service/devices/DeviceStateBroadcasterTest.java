@@ -0,0 +1,210 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.michalbykowy.iotsim.dto.DeviceStateMessage;
+import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceStateBroadcasterTest {
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Set<String> subscribed = new HashSet<>(Set.of("/topic/devices"));
+    private DeviceStateBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        broadcaster = new DeviceStateBroadcaster(messagingTemplate, subscribed::contains, objectMapper, meterRegistry, 4);
+    }
+
+    private Device device(String id, int value) {
+        Device device = new Device(id, "Device " + id, DeviceType.VIRTUAL, DeviceRole.SENSOR,
+                objectMapper.createObjectNode().put("v", value).put("unit", "C"));
+        device.setSimulationConfig(objectMapper.createObjectNode().put("intervalMs", 1000));
+        device.setOnline(true);
+        return device;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<DeviceStateMessage>> sentFrames(int count) {
+        ArgumentCaptor<List<DeviceStateMessage>> frames = ArgumentCaptor.forClass(List.class);
+        verify(messagingTemplate, times(count)).convertAndSend(eq("/topic/devices"), frames.capture());
+        return frames.getAllValues();
+    }
+
+    @Test
+    void flush_ShouldSendLatestStateOfEveryDirtyDevice_InOneFrame() {
+        for (int i = 1; i <= 50; i++) {
+            broadcaster.publish(device("dev-1", i));
+        }
+        broadcaster.publish(device("dev-2", 7));
+
+        broadcaster.flush();
+
+        List<DeviceStateMessage> messages = sentFrames(1).getFirst().stream()
+                .sorted(Comparator.comparing(DeviceStateMessage::id))
+                .toList();
+        assertEquals(2, messages.size());
+        assertEquals(50, messages.get(0).snapshot().get("currentState").get("v").asInt());
+        assertEquals(7, messages.get(1).snapshot().get("currentState").get("v").asInt());
+        assertEquals(49, meterRegistry.get("devices.broadcast.updates").tag("outcome", "coalesced").counter().count());
+    }
+
+    @Test
+    void flush_ShouldSendOnlyChangedFields_WithIncreasingVersions() {
+        broadcaster.publish(device("dev-1", 1));
+        broadcaster.flush();
+        broadcaster.publish(device("dev-1", 2));
+        broadcaster.flush();
+
+        List<List<DeviceStateMessage>> frames = sentFrames(2);
+        DeviceStateMessage first = frames.get(0).getFirst();
+        DeviceStateMessage second = frames.get(1).getFirst();
+        assertEquals(1, first.version());
+        assertNotNull(first.snapshot());
+        assertEquals(2, second.version());
+        assertNull(second.snapshot());
+        assertEquals("{\"currentState\":{\"v\":2}}", second.patch().toString());
+    }
+
+    @Test
+    void flush_ShouldSkipDevicesWhoseStateDidNotChange() {
+        broadcaster.publish(device("dev-1", 1));
+        broadcaster.flush();
+        broadcaster.publish(device("dev-1", 1));
+        broadcaster.flush();
+
+        sentFrames(1);
+        assertEquals(1, meterRegistry.get("devices.broadcast.updates").tag("outcome", "unchanged").counter().count());
+    }
+
+    @Test
+    void snapshot_ShouldReturnLastSentStateAndVersion_AndVersionZeroForUnsentDevices() {
+        Device sentDevice = device("dev-1", 1);
+        broadcaster.publish(sentDevice);
+        broadcaster.flush();
+        // saved but not flushed yet, later deltas still build on the sent state
+        Device changed = device("dev-1", 2);
+        broadcaster.publish(changed);
+
+        List<DeviceStateMessage> snapshot = broadcaster.snapshot(List.of(changed, device("dev-2", 5)));
+
+        assertEquals(1, snapshot.get(0).version());
+        assertEquals(1, snapshot.get(0).snapshot().get("currentState").get("v").asInt());
+        assertEquals(0, snapshot.get(1).version());
+        assertEquals(5, snapshot.get(1).snapshot().get("currentState").get("v").asInt());
+    }
+
+    @Test
+    void flush_ShouldNotResendForgottenDevices() {
+        broadcaster.publish(device("dev-1", 1));
+        broadcaster.forget("dev-1");
+
+        broadcaster.flush();
+
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(Object.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldFanOutToDeviceAndGroupDestinations_ThatHaveSubscribers() {
+        subscribed.clear();
+        subscribed.addAll(Set.of("/topic/devices/dev-1", "/topic/groups/physical"));
+        broadcaster.publish(device("dev-1", 1));
+        broadcaster.publish(device("dev-2", 2));
+        broadcaster.publish(new Device("dev-3", "Device dev-3", DeviceType.PHYSICAL, DeviceRole.ACTUATOR,
+                objectMapper.createObjectNode()));
+
+        broadcaster.flush();
+
+        ArgumentCaptor<List<DeviceStateMessage>> deviceFrame = ArgumentCaptor.forClass(List.class);
+        verify(messagingTemplate).convertAndSend(eq("/topic/devices/dev-1"), deviceFrame.capture());
+        assertEquals(List.of("dev-1"), deviceFrame.getValue().stream().map(DeviceStateMessage::id).toList());
+        ArgumentCaptor<List<DeviceStateMessage>> groupFrame = ArgumentCaptor.forClass(List.class);
+        verify(messagingTemplate).convertAndSend(eq("/topic/groups/physical"), groupFrame.capture());
+        assertEquals(List.of("dev-3"), groupFrame.getValue().stream().map(DeviceStateMessage::id).toList());
+        verify(messagingTemplate, never()).convertAndSend(eq("/topic/devices"), any(Object.class));
+        assertEquals(1, meterRegistry.get("devices.broadcast.updates").tag("outcome", "unobserved").counter().count());
+    }
+
+    @Test
+    void flush_ShouldResendFullState_AfterAPeriodWithoutSubscribers() {
+        broadcaster.publish(device("dev-1", 1));
+        broadcaster.flush();
+        subscribed.clear();
+        broadcaster.publish(device("dev-1", 2));
+        broadcaster.flush();
+        assertEquals(2, broadcaster.snapshot(List.of(device("dev-1", 2))).getFirst().version());
+
+        subscribed.add("/topic/devices");
+        broadcaster.publish(device("dev-1", 3));
+        broadcaster.flush();
+
+        DeviceStateMessage resumed = sentFrames(2).get(1).getFirst();
+        assertEquals(3, resumed.version());
+        assertNotNull(resumed.snapshot());
+        assertEquals(3, resumed.snapshot().get("currentState").get("v").asInt());
+    }
+
+    @Test
+    void changesSince_ShouldReplaySentMessages_AndReportUnsentAndRemovedDevices() {
+        broadcaster.publish(device("dev-1", 1));
+        broadcaster.publish(device("dev-2", 1));
+        broadcaster.flush();
+        long since = broadcaster.sequence();
+        broadcaster.publish(device("dev-1", 2));
+        broadcaster.flush();
+        subscribed.clear();
+        broadcaster.publish(device("dev-2", 2));
+        broadcaster.flush();
+        broadcaster.forget("dev-1");
+
+        DeviceStateBroadcaster.ReplayedChanges changes = broadcaster.changesSince(broadcaster.epoch(), since).orElseThrow();
+
+        assertEquals(since + 3, changes.sequence());
+        assertEquals(List.of(), changes.messages());
+        assertEquals(Set.of("dev-2"), changes.stale());
+        assertEquals(Set.of("dev-1"), changes.removed());
+    }
+
+    @Test
+    void changesSince_ShouldBeEmpty_ForAnotherEpochOrAnEvictedSequence() {
+        for (int i = 1; i <= 6; i++) {
+            broadcaster.publish(device("dev-1", i));
+            broadcaster.flush();
+        }
+
+        assertTrue(broadcaster.changesSince("another-run", 5).isEmpty());
+        assertTrue(broadcaster.changesSince(broadcaster.epoch(), 1).isEmpty());
+        assertTrue(broadcaster.changesSince(broadcaster.epoch(), 7).isEmpty());
+        List<DeviceStateMessage> replayed = broadcaster.changesSince(broadcaster.epoch(), 3).orElseThrow().messages();
+        assertEquals(List.of(4L, 5L, 6L), replayed.stream().map(DeviceStateMessage::sequence).toList());
+        assertEquals(List.of(4L, 5L, 6L), replayed.stream().map(DeviceStateMessage::version).toList());
+    }
+}
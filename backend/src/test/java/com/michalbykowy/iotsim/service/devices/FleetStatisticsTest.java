@@ -0,0 +1,112 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.michalbykowy.iotsim.dto.FleetStatsResponse;
+import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FleetStatisticsTest {
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private boolean subscribed = true;
+    private FleetStatistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = new FleetStatistics(messagingTemplate, destination -> subscribed);
+    }
+
+    private Device device(String id, DeviceType type, boolean online, String state) throws Exception {
+        Device device = new Device(id, "Device " + id, type, DeviceRole.SENSOR, objectMapper.readTree(state));
+        device.setOnline(online);
+        return device;
+    }
+
+    private void changed(Device device) {
+        statistics.deviceChanged(device, CompactState.of(device.getCurrentState()));
+    }
+
+    @Test
+    void deviceChanged_ShouldReplaceThePreviousContribution_OfTheSameDevice() throws Exception {
+        changed(device("1", DeviceType.PHYSICAL, true, "{\"temp\": 20, \"label\": \"a\"}"));
+        changed(device("2", DeviceType.VIRTUAL, false, "{\"temp\": 30, \"humidity\": 50}"));
+        changed(device("3", DeviceType.VIRTUAL, true, "{\"temp\": 10}"));
+        changed(device("3", DeviceType.VIRTUAL, false, "{\"temp\": 40}"));
+
+        FleetStatsResponse stats = statistics.snapshot();
+        assertEquals(3, stats.devices());
+        assertEquals(1, stats.online());
+        assertEquals(Map.of(DeviceType.PHYSICAL, 1L, DeviceType.VIRTUAL, 2L), stats.byType());
+        assertEquals(Map.of(DeviceRole.SENSOR, 3L), stats.byRole());
+        assertEquals(new FleetStatsResponse.FieldStats(3, 20, 40, 30), stats.fields().get("temp"));
+        assertEquals(new FleetStatsResponse.FieldStats(1, 50, 50, 50), stats.fields().get("humidity"));
+        assertFalse(stats.fields().containsKey("label"));
+    }
+
+    @Test
+    void deviceRemoved_ShouldRestoreTheExtremes_OfTheRemainingDevices() throws Exception {
+        changed(device("1", DeviceType.PHYSICAL, true, "{\"temp\": 20}"));
+        changed(device("2", DeviceType.PHYSICAL, true, "{\"temp\": 35}"));
+        changed(device("3", DeviceType.PHYSICAL, true, "{\"temp\": 35, \"co2\": 400}"));
+
+        statistics.deviceRemoved("3");
+        assertEquals(new FleetStatsResponse.FieldStats(2, 20, 35, 27.5), statistics.snapshot().fields().get("temp"));
+        statistics.deviceRemoved("2");
+
+        FleetStatsResponse stats = statistics.snapshot();
+        assertEquals(1, stats.devices());
+        assertEquals(1, stats.online());
+        assertEquals(new FleetStatsResponse.FieldStats(1, 20, 20, 20), stats.fields().get("temp"));
+        assertFalse(stats.fields().containsKey("co2"));
+    }
+
+    @Test
+    void deviceRemoved_ShouldKeepTheSmallValues_WhenALargeOneLeaves() throws Exception {
+        changed(device("1", DeviceType.PHYSICAL, true, "{\"temp\": 1e16}"));
+        for (int i = 1; i <= 1000; i++) {
+            changed(device("2", DeviceType.PHYSICAL, true, "{\"temp\": " + (i % 10) / 10.0 + "}"));
+        }
+        changed(device("2", DeviceType.PHYSICAL, true, "{\"temp\": 1.5}"));
+
+        statistics.deviceRemoved("1");
+
+        assertEquals(new FleetStatsResponse.FieldStats(1, 1.5, 1.5, 1.5), statistics.snapshot().fields().get("temp"));
+    }
+
+    @Test
+    void push_ShouldSendOnlyChangedStatistics_ToSubscribers() throws Exception {
+        subscribed = false;
+        changed(device("1", DeviceType.PHYSICAL, true, "{\"temp\": 20}"));
+        statistics.push();
+        verifyNoInteractions(messagingTemplate);
+
+        subscribed = true;
+        statistics.push();
+        statistics.push();
+        changed(device("1", DeviceType.PHYSICAL, true, "{\"temp\": 20}"));
+        statistics.push();
+        verify(messagingTemplate, times(1)).convertAndSend(eq(FleetStatistics.DESTINATION), any(FleetStatsResponse.class));
+
+        changed(device("1", DeviceType.PHYSICAL, true, "{\"temp\": 21}"));
+        statistics.push();
+        verify(messagingTemplate, times(2)).convertAndSend(eq(FleetStatistics.DESTINATION), any(FleetStatsResponse.class));
+    }
+}
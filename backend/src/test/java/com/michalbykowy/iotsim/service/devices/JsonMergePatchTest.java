@@ -0,0 +1,45 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonMergePatchTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private JsonNode json(String text) throws Exception {
+        return objectMapper.readTree(text);
+    }
+
+    @Test
+    void diff_ShouldContainOnlyChangedMembers_RecursingIntoObjects() throws Exception {
+        JsonNode source = json("{\"name\":\"a\",\"state\":{\"temp\":20,\"hum\":40},\"config\":{\"rate\":1},\"tags\":[1,2]}");
+        JsonNode target = json("{\"name\":\"a\",\"state\":{\"temp\":21,\"hum\":40},\"config\":{\"rate\":1},\"tags\":[1,3]}");
+
+        assertEquals(json("{\"state\":{\"temp\":21},\"tags\":[1,3]}"), JsonMergePatch.diff(source, target));
+    }
+
+    @Test
+    void diff_ShouldRemoveMissingMembers_WithNull() throws Exception {
+        JsonNode source = json("{\"state\":{\"temp\":20,\"door\":\"open\"},\"config\":{\"rate\":1}}");
+        JsonNode target = json("{\"state\":{\"temp\":20}}");
+
+        assertEquals(json("{\"state\":{\"door\":null},\"config\":null}"), JsonMergePatch.diff(source, target));
+        assertTrue(JsonMergePatch.diff(target, target).isEmpty());
+    }
+
+    @Test
+    void apply_ShouldSetAndRemoveMembers_AndLeaveTheTargetUntouched() throws Exception {
+        JsonNode target = json("{\"temp\":20,\"relay\":\"OFF\",\"door\":\"open\",\"config\":{\"rate\":1,\"mode\":\"a\"}}");
+        JsonNode patch = json("{\"relay\":\"ON\",\"door\":null,\"config\":{\"mode\":\"b\"}}");
+
+        JsonNode merged = json("{\"temp\":20,\"relay\":\"ON\",\"config\":{\"rate\":1,\"mode\":\"b\"}}");
+
+        assertEquals(merged, JsonMergePatch.apply(target, patch));
+        assertEquals(json("{\"temp\":20,\"relay\":\"OFF\",\"door\":\"open\",\"config\":{\"rate\":1,\"mode\":\"a\"}}"), target);
+        assertEquals(merged, JsonMergePatch.apply(target, JsonMergePatch.diff(target, merged)));
+    }
+}
@@ -0,0 +1,69 @@
+package com.michalbykowy.iotsim.service.devices;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.michalbykowy.iotsim.dto.FieldValueQuery;
+import com.michalbykowy.iotsim.dto.FieldValuesResponse;
+import com.michalbykowy.iotsim.model.Device;
+import com.michalbykowy.iotsim.model.DeviceRole;
+import com.michalbykowy.iotsim.model.DeviceType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatestValueIndexTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private LatestValueIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new LatestValueIndex(new SimpleMeterRegistry());
+    }
+
+    private void report(String id, String state) throws Exception {
+        Device device = new Device(id, id, DeviceType.PHYSICAL, DeviceRole.SENSOR, objectMapper.readTree(state));
+        index.deviceChanged(device, CompactState.of(device.getCurrentState()));
+    }
+
+    private List<String> ids(Double min, Double max, Sort.Direction direction, int limit) {
+        return index.query(new FieldValueQuery("temp", min, max, direction, limit)).devices().stream()
+                .map(FieldValuesResponse.FieldValue::deviceId)
+                .toList();
+    }
+
+    @Test
+    void query_ShouldAnswerRangesAndTopAndBottomK_InValueThenIdOrder() throws Exception {
+        report("a", "{\"temp\": 20}");
+        report("b", "{\"temp\": 35, \"humidity\": 40}");
+        report("c", "{\"temp\": 20}");
+        report("d", "{\"temp\": 27.5}");
+        report("e", "{\"label\": \"no numbers\"}");
+
+        assertEquals(List.of("a", "c", "d"), ids(20.0, 30.0, Sort.Direction.ASC, 10));
+        assertEquals(List.of("d", "b"), ids(21.0, null, Sort.Direction.ASC, 10));
+        assertEquals(List.of("b", "d"), ids(null, null, Sort.Direction.DESC, 2));
+        assertEquals(List.of("a"), ids(null, null, Sort.Direction.ASC, 1));
+        assertEquals(List.of("d", "c", "a"), ids(null, 30.0, Sort.Direction.DESC, 10));
+        assertTrue(index.query(new FieldValueQuery("pressure", null, null, Sort.Direction.ASC, 10)).devices().isEmpty());
+    }
+
+    @Test
+    void deviceChanged_ShouldMoveTheDevice_AndDropFieldsItNoLongerReports() throws Exception {
+        report("a", "{\"temp\": 20, \"humidity\": 40}");
+        report("b", "{\"temp\": 25}");
+
+        report("a", "{\"temp\": 30}");
+        assertEquals(List.of("a"), ids(26.0, null, Sort.Direction.ASC, 10));
+        assertEquals(1, index.fieldCount());
+
+        index.deviceRemoved("a");
+        assertEquals(List.of("b"), ids(null, null, Sort.Direction.ASC, 10));
+        index.deviceRemoved("b");
+        assertEquals(0, index.fieldCount());
+    }
+}
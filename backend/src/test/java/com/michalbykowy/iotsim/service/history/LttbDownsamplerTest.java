@@ -0,0 +1,60 @@
+package com.michalbykowy.iotsim.service.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LttbDownsamplerTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+
+    private static Map<String, Object> reading(long second, double value) {
+        return Map.of("_time", START.plusSeconds(second), "deviceId", "dev-1", "temp", value);
+    }
+
+    @Test
+    void finish_ShouldKeepFirstAndLastPoints_AndRespectMaxPoints() {
+        HistoryRange range = new HistoryRange(START, START.plusSeconds(10_000));
+        List<Map<String, Object>> output = new ArrayList<>();
+        LttbDownsampler downsampler = new LttbDownsampler(range, 100, null, output::add);
+
+        for (int i = 0; i < 10_000; i++) {
+            downsampler.accept(reading(i, Math.sin(i / 50.0)));
+        }
+        downsampler.finish();
+
+        assertTrue(output.size() <= 100, "got " + output.size() + " points");
+        assertEquals(reading(0, 0.0), output.getFirst());
+        assertEquals(reading(9_999, Math.sin(9_999 / 50.0)), output.getLast());
+    }
+
+    @Test
+    void accept_ShouldKeepSpike_ThatAveragingWouldHide() {
+        HistoryRange range = new HistoryRange(START, START.plusSeconds(1_000));
+        List<Map<String, Object>> output = new ArrayList<>();
+        LttbDownsampler downsampler = new LttbDownsampler(range, 10, "temp", output::add);
+
+        for (int i = 0; i < 1_000; i++) {
+            downsampler.accept(reading(i, i == 500 ? 100.0 : 0.0));
+        }
+        downsampler.finish();
+
+        assertTrue(output.stream().anyMatch(point -> point.get("temp").equals(100.0)));
+    }
+
+    @Test
+    void resolve_ShouldParseFluxDurations() {
+        Instant now = Instant.parse("2024-01-02T00:00:00Z");
+
+        HistoryRange range = HistoryRange.resolve("-1h30m", null, now);
+
+        assertEquals(now.minusSeconds(5_400), range.start());
+        assertEquals(now, range.stop());
+        assertThrows(IllegalArgumentException.class, () -> HistoryRange.resolve("-1x", null, now));
+    }
+}
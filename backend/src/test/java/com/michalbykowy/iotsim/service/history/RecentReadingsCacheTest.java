@@ -0,0 +1,102 @@
+package com.michalbykowy.iotsim.service.history;
+
+import com.michalbykowy.iotsim.model.AggregateFunction;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecentReadingsCacheTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+
+    private static RecentReadingsCache newCache(int capacity, long maxBytes) {
+        return new RecentReadingsCache(capacity, maxBytes, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void coveredFrom_ShouldMoveForward_OnceRingWrapsAround() {
+        RecentReadingsCache cache = newCache(10, 1 << 20);
+
+        for (int i = 0; i < 15; i++) {
+            cache.record("dev-1", START.plusSeconds(i), Map.of("temp", (double) i));
+        }
+
+        assertEquals(Optional.of(START.plusSeconds(4).plusNanos(1)), cache.coveredFrom("dev-1"));
+        List<Map<String, Object>> records = new ArrayList<>();
+        cache.stream("dev-1", START, START.plusSeconds(60), records::add);
+        assertEquals(10, records.size());
+        assertEquals(START.plusSeconds(5), records.getFirst().get("_time"));
+        assertEquals(14.0, records.getLast().get("temp"));
+    }
+
+    @Test
+    void record_ShouldEvictLeastRecentlyWrittenDevice_WhenBudgetIsExceeded() throws InterruptedException {
+        int capacity = 100;
+        long perDevice = DeviceReadingRing.baseBytes(capacity) + capacity * Double.BYTES;
+        RecentReadingsCache cache = newCache(capacity, perDevice * 2);
+
+        cache.record("dev-1", START, Map.of("temp", 1.0));
+        Thread.sleep(5);
+        cache.record("dev-2", START, Map.of("temp", 2.0));
+        Thread.sleep(5);
+        cache.record("dev-3", START, Map.of("temp", 3.0));
+
+        assertTrue(cache.coveredFrom("dev-1").isEmpty());
+        assertTrue(cache.coveredFrom("dev-2").isPresent());
+        assertTrue(cache.coveredFrom("dev-3").isPresent());
+        assertTrue(cache.usedBytes() <= perDevice * 2);
+    }
+
+    @Test
+    void record_ShouldKeepARewrittenDevice_WhenEvicting() {
+        int capacity = 100;
+        long perDevice = DeviceReadingRing.baseBytes(capacity) + capacity * Double.BYTES;
+        RecentReadingsCache cache = newCache(capacity, perDevice * 2);
+
+        cache.record("dev-1", START, Map.of("temp", 1.0));
+        cache.record("dev-2", START, Map.of("temp", 2.0));
+        cache.record("dev-1", START.plusSeconds(1), Map.of("temp", 1.5));
+        cache.record("dev-3", START, Map.of("temp", 3.0));
+
+        assertTrue(cache.coveredFrom("dev-1").isPresent());
+        assertTrue(cache.coveredFrom("dev-2").isEmpty());
+        assertTrue(cache.coveredFrom("dev-3").isPresent());
+        assertEquals(2, cache.deviceCount());
+    }
+
+    @Test
+    void aggregate_ShouldSkipReadingsWithoutTheField() {
+        RecentReadingsCache cache = newCache(100, 1 << 20);
+        cache.record("dev-1", START, Map.of("temp", 10.0));
+        cache.record("dev-1", START.plusSeconds(1), Map.of("humidity", 50.0));
+        cache.record("dev-1", START.plusSeconds(2), Map.of("temp", 20.0, "humidity", 60.0));
+
+        assertEquals(Optional.of(15.0), cache.aggregate("dev-1", "temp", START, AggregateFunction.MEAN));
+        assertEquals(Optional.of(2.0), cache.aggregate("dev-1", "humidity", START, AggregateFunction.COUNT));
+        assertEquals(Optional.empty(), cache.aggregate("dev-1", "pressure", START, AggregateFunction.MAX));
+    }
+
+    @Test
+    void streamAggregated_ShouldAverageEpochAlignedWindows() {
+        RecentReadingsCache cache = newCache(100, 1 << 20);
+        for (int i = 0; i < 6; i++) {
+            cache.record("dev-1", START.plusSeconds(i), Map.of("temp", (double) i));
+        }
+
+        List<Map<String, Object>> windows = new ArrayList<>();
+        cache.streamAggregated("dev-1", START, START.plusSeconds(60), Duration.ofSeconds(3), windows::add);
+
+        assertEquals(2, windows.size());
+        assertEquals(START.plusSeconds(3), windows.get(0).get("_time"));
+        assertEquals(1.0, windows.get(0).get("temp"));
+        assertEquals(4.0, windows.get(1).get("temp"));
+    }
+}
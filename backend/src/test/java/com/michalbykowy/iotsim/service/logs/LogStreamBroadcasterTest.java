@@ -0,0 +1,102 @@
+package com.michalbykowy.iotsim.service.logs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.michalbykowy.iotsim.api.LogMessage;
+import com.michalbykowy.iotsim.model.LogLevel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class LogStreamBroadcasterTest {
+
+    @Mock
+    private MessageChannel clientOutboundChannel;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private LogStreamBroadcaster broadcaster;
+
+    private final List<LogMessage> batch = List.of(
+            new LogMessage(Instant.EPOCH, LogLevel.INFO, "com.michalbykowy.iotsim.service.RuleService", "Rule fired for dev-1"),
+            new LogMessage(Instant.EPOCH, LogLevel.WARN, "com.michalbykowy.iotsim.service.DeviceService", "dev-2 went offline"),
+            new LogMessage(Instant.EPOCH, LogLevel.ERROR, "com.michalbykowy.iotsim.service.RuleService", "Rule failed for dev-2"));
+
+    @BeforeEach
+    void setUp() {
+        broadcaster = new LogStreamBroadcaster(clientOutboundChannel, objectMapper);
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination, Map<String, String> filterHeaders) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        filterHeaders.forEach(accessor::setNativeHeader);
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        broadcaster.handleSubscribe(new SessionSubscribeEvent(this, message));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void broadcast_ShouldSendOnlyMatchingLines_ToEachSubscription() throws Exception {
+        subscribe("s1", "sub-0", "/topic/logs", Map.of());
+        subscribe("s2", "sub-0", "/topic/logs", Map.of("minLevel", "warn", "deviceId", "dev-2"));
+        subscribe("s3", "sub-1", "/topic/logs", Map.of("loggerPrefix", "com.michalbykowy.iotsim.service.DeviceService",
+                "minLevel", "ERROR"));
+        subscribe("s4", "sub-0", "/topic/devices", Map.of());
+
+        broadcaster.broadcast(batch);
+
+        ArgumentCaptor<Message<byte[]>> sent = ArgumentCaptor.forClass(Message.class);
+        verify(clientOutboundChannel, times(2)).send(sent.capture());
+        Map<String, Message<byte[]>> bySession = new HashMap<>();
+        for (Message<byte[]> message : sent.getAllValues()) {
+            bySession.put(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()), message);
+        }
+
+        JsonNode all = objectMapper.readTree(bySession.get("s1").getPayload());
+        assertEquals(3, all.size());
+        JsonNode filtered = objectMapper.readTree(bySession.get("s2").getPayload());
+        assertEquals(2, filtered.size());
+        assertEquals("dev-2 went offline", filtered.get(0).get("message").asText());
+        assertEquals("sub-0", SimpMessageHeaderAccessor.getSubscriptionId(bySession.get("s2").getHeaders()));
+        assertEquals("/topic/logs", SimpMessageHeaderAccessor.getDestination(bySession.get("s2").getHeaders()));
+    }
+
+    @Test
+    void broadcast_ShouldForgetSubscriptions_OfDisconnectedSessions() throws Exception {
+        subscribe("s1", "sub-0", "/topic/logs", Map.of());
+        Message<byte[]> closeMessage = MessageBuilder.createMessage(new byte[0],
+                StompHeaderAccessor.create(StompCommand.DISCONNECT).getMessageHeaders());
+        broadcaster.handleDisconnect(new SessionDisconnectEvent(this, closeMessage, "s1", CloseStatus.NORMAL));
+
+        broadcaster.broadcast(batch);
+
+        assertEquals(0, broadcaster.subscriptionCount());
+        verify(clientOutboundChannel, never()).send(any());
+    }
+}
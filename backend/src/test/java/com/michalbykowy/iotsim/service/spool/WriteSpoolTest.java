@@ -0,0 +1,222 @@
+package com.michalbykowy.iotsim.service.spool;
+
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.InfluxDBClientFactory;
+import com.influxdb.client.WriteApi;
+import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.client.write.Point;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class WriteSpoolTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    // batches containing it are answered with 400 Bad Request by the stand-in
+    private static final String REJECTED_FIELD = "malformed";
+
+    @TempDir
+    Path spoolDir;
+
+    private HttpServer influxStandIn;
+    private volatile boolean influxUp;
+    // larger writes are answered with 413 Request Entity Too Large by the stand-in
+    private volatile int maxLinesPerWrite = Integer.MAX_VALUE;
+    private final List<String> receivedLines = new CopyOnWriteArrayList<>();
+    private InfluxDBClient client;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // minimal local stand-in for the InfluxDB /ping and /api/v2/write endpoints
+        influxStandIn = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        influxStandIn.createContext("/ping", exchange -> {
+            exchange.sendResponseHeaders(influxUp ? 204 : 503, -1);
+            exchange.close();
+        });
+        influxStandIn.createContext("/api/v2/write", exchange -> {
+            int status = influxUp ? 204 : 503;
+            if (influxUp) {
+                String body = readBody(exchange.getRequestBody(), exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                if (body.contains(REJECTED_FIELD)) {
+                    status = 400;
+                } else if (body.lines().count() > maxLinesPerWrite) {
+                    status = 413;
+                } else {
+                    receivedLines.addAll(body.lines().toList());
+                }
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        influxStandIn.start();
+
+        String url = "http://localhost:" + influxStandIn.getAddress().getPort();
+        client = InfluxDBClientFactory.create(url, "token".toCharArray(), "org", "bucket");
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        influxStandIn.stop(0);
+    }
+
+    private WriteSpool newSpool(int maxSegments) throws IOException {
+        WriteSpool spool = new WriteSpool(client, spoolDir, SEGMENT_SIZE, maxSegments, 100, meterRegistry);
+        spool.recover();
+        return spool;
+    }
+
+    private static String readBody(InputStream body, String encoding) throws IOException {
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            body = new GZIPInputStream(body);
+        }
+        return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private double counter(String outcome) {
+        return meterRegistry.counter("influx.spool.points", "outcome", outcome).count();
+    }
+
+    @Test
+    void replay_ShouldDeliverSpooledPoints_OnceInfluxIsBack() throws IOException {
+        WriteSpool spool = newSpool(8);
+        spool.activate("test outage");
+
+        for (int i = 0; i < 250; i++) {
+            spool.append(WritePrecision.NS, "sensor_readings,deviceId=dev-1 temp=" + i + " " + (1_000L + i));
+        }
+
+        influxUp = false;
+        spool.replay();
+        assertTrue(receivedLines.isEmpty());
+        assertTrue(spool.isActive());
+
+        influxUp = true;
+        spool.replay();
+
+        assertEquals(250, receivedLines.size());
+        assertEquals("sensor_readings,deviceId=dev-1 temp=0 1000", receivedLines.getFirst());
+        assertFalse(spool.isActive());
+        assertEquals(0, spool.pendingRecords());
+        assertEquals(250, counter("spooled"));
+        assertEquals(250, counter("replayed"));
+        assertEquals(0, counter("dropped"));
+    }
+
+    @Test
+    void replay_ShouldSkipARejectedBatch_AndReplayTheRest() throws IOException {
+        WriteSpool spool = newSpool(8);
+        spool.activate("test outage");
+        // a different precision puts the rejected record into a batch of its own
+        spool.append(WritePrecision.MS, "sensor_readings,deviceId=dev-1 " + REJECTED_FIELD + "=1 1000");
+        spool.append(WritePrecision.NS, "sensor_readings,deviceId=dev-1 temp=1 2000");
+        spool.append(WritePrecision.NS, "sensor_readings,deviceId=dev-1 temp=2 3000");
+
+        influxUp = true;
+        spool.replay();
+
+        assertEquals(List.of("sensor_readings,deviceId=dev-1 temp=1 2000", "sensor_readings,deviceId=dev-1 temp=2 3000"),
+                receivedLines);
+        assertFalse(spool.isActive());
+        assertEquals(0, spool.pendingRecords());
+        assertEquals(1, counter("rejected"));
+        assertEquals(2, counter("replayed"));
+    }
+
+    @Test
+    void replay_ShouldSplitABatch_ThatIsTooLarge() throws IOException {
+        WriteSpool spool = newSpool(8);
+        spool.activate("test outage");
+        for (int i = 0; i < 250; i++) {
+            spool.append(WritePrecision.NS, "sensor_readings,deviceId=dev-1 temp=" + i + " " + (1_000L + i));
+        }
+
+        influxUp = true;
+        maxLinesPerWrite = 30;
+        spool.replay();
+
+        assertEquals(250, receivedLines.size());
+        assertEquals("sensor_readings,deviceId=dev-1 temp=249 1249", receivedLines.getLast());
+        assertEquals(0, spool.pendingRecords());
+        assertEquals(250, counter("replayed"));
+        assertEquals(0, counter("rejected"));
+    }
+
+    @Test
+    void append_ShouldEvictOldestSegment_WhenCapIsReached() throws IOException {
+        WriteSpool spool = newSpool(2);
+        spool.activate("test outage");
+
+        String line = "sensor_readings,deviceId=dev-1 temp=1.0 1000";
+        for (int i = 0; i < 500; i++) {
+            spool.append(WritePrecision.NS, line);
+        }
+
+        assertEquals(2, spool.segmentCount());
+        assertTrue(counter("dropped") > 0);
+        assertEquals(500, counter("spooled"));
+        assertEquals(500, spool.pendingRecords() + (long) counter("dropped"));
+    }
+
+    @Test
+    void recover_ShouldReloadUnreplayedSegments_AfterRestart() throws IOException {
+        WriteSpool first = newSpool(8);
+        first.activate("test outage");
+        first.append(WritePrecision.MS, "system_logs,level=INFO message=\"a\" 1000");
+        first.append(WritePrecision.MS, "system_logs,level=INFO message=\"b\" 1001");
+        first.close();
+
+        WriteSpool second = newSpool(8);
+
+        assertTrue(second.isActive());
+        assertEquals(2, second.pendingRecords());
+
+        influxUp = true;
+        second.replay();
+        assertEquals(2, receivedLines.size());
+    }
+
+    @Test
+    void spoolingWriteApi_ShouldDivertPoints_OnlyWhileSpoolIsActive() throws IOException {
+        WriteSpool spool = newSpool(8);
+        WriteApi delegate = mock(WriteApi.class);
+        SpoolingWriteApi writeApi = new SpoolingWriteApi(delegate, spool);
+
+        Point point = Point.measurement("sensor_readings")
+                .addTag("deviceId", "dev-1")
+                .addField("temp", 21.5)
+                .time(5_000L, WritePrecision.NS);
+
+        spool.activate("test outage");
+        writeApi.writePoint(point);
+
+        verify(delegate, never()).writePoint(point);
+        assertEquals(1, spool.pendingRecords());
+
+        influxUp = true;
+        spool.replay();
+        writeApi.writePoint(point);
+
+        verify(delegate).writePoint(point);
+        assertEquals(List.of("sensor_readings,deviceId=dev-1 temp=21.5 5000"), receivedLines);
+    }
+}
@@ -0,0 +1,220 @@
+package com.michalbykowy.iotsim.service.store.embedded;
+
+import com.michalbykowy.iotsim.model.AggregateFunction;
+import com.michalbykowy.iotsim.model.LogLevel;
+import com.michalbykowy.iotsim.service.store.LogQuery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddedTimeSeriesStoreTest {
+
+    @TempDir
+    Path dataDir;
+
+    private EmbeddedTimeSeriesStore store;
+    private Instant base;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = newStore();
+        base = Instant.now().truncatedTo(ChronoUnit.MINUTES).minus(Duration.ofMinutes(30));
+    }
+
+    private EmbeddedTimeSeriesStore newStore() throws IOException {
+        EmbeddedTimeSeriesStore newStore = new EmbeddedTimeSeriesStore(dataDir, 10, 24);
+        newStore.open();
+        return newStore;
+    }
+
+    /** A store whose current partition spans weeks, so heads written just now stay open. */
+    private EmbeddedTimeSeriesStore newLongPartitionStore() throws IOException {
+        EmbeddedTimeSeriesStore newStore = new EmbeddedTimeSeriesStore(dataDir, 100_000, 24);
+        newStore.open();
+        return newStore;
+    }
+
+    private List<Path> openChunkFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(dataDir)) {
+            return paths.filter(path -> path.toString().endsWith(".gor.open")).toList();
+        }
+    }
+
+    private void writeSeconds(Instant start, int from, int to) {
+        for (int i = from; i < to; i++) {
+            store.writeSensorReading("dev-1", start.plusSeconds(i), Map.of("temp", 20.0 + i % 10));
+        }
+    }
+
+    private void writeMinutes(int minutes) {
+        for (int i = 0; i < minutes * 60; i++) {
+            store.writeSensorReading("dev-1", base.plusSeconds(i), Map.of("temp", 20.0 + i % 10, "humidity", 40.0));
+        }
+    }
+
+    @Test
+    void streamSensorReadings_ShouldPivotFieldsAcrossPartitions() {
+        writeMinutes(25);
+
+        List<Map<String, Object>> records = new ArrayList<>();
+        store.streamSensorReadings("dev-1", "-1h", null, null, records::add);
+
+        assertEquals(25 * 60, records.size());
+        assertEquals(base, records.getFirst().get("_time"));
+        assertEquals(20.0, records.getFirst().get("temp"));
+        assertEquals(40.0, records.getFirst().get("humidity"));
+        assertEquals("dev-1", records.getFirst().get("deviceId"));
+        assertEquals(base.plusSeconds(25 * 60 - 1), records.getLast().get("_time"));
+    }
+
+    @Test
+    void streamSensorReadings_ShouldSurviveRestart_AfterFlush() throws IOException {
+        writeMinutes(5);
+        store.close();
+
+        store = newStore();
+        store.writeSensorReading("dev-1", base.plusSeconds(5 * 60), Map.of("temp", 99.0));
+
+        List<Map<String, Object>> records = store.readSensorReadings("dev-1", "-1h", null);
+        assertEquals(5 * 60 + 1, records.size());
+        assertEquals(99.0, records.getLast().get("temp"));
+    }
+
+    @Test
+    void flush_ShouldAppendToTheOpenChunk_AndKeepItReadableAfterACrash() throws IOException {
+        store = newLongPartitionStore();
+        Instant start = Instant.now().minusSeconds(300).truncatedTo(ChronoUnit.SECONDS);
+        writeSeconds(start, 0, 60);
+        store.flush();
+        Path openFile = openChunkFiles().getFirst();
+        byte[] first = Files.readAllBytes(openFile);
+
+        writeSeconds(start, 60, 120);
+        store.flush();
+        byte[] second = Files.readAllBytes(openFile);
+
+        assertTrue(second.length > first.length);
+        // everything but the header and the last, partially filled byte stays in place
+        assertArrayEquals(Arrays.copyOfRange(first, GorillaChunk.HEADER_BYTES, first.length - 1),
+                Arrays.copyOfRange(second, GorillaChunk.HEADER_BYTES, first.length - 1));
+
+        store = newLongPartitionStore();
+        List<Map<String, Object>> records = store.readSensorReadings("dev-1", "-1h", null);
+        assertEquals(120, records.size());
+        assertEquals(start.plusSeconds(119), records.getLast().get("_time"));
+        assertTrue(openChunkFiles().isEmpty());
+    }
+
+    @Test
+    void open_ShouldKeepThePointsBeforeATornTail() throws IOException {
+        store = newLongPartitionStore();
+        Instant start = Instant.now().minusSeconds(300).truncatedTo(ChronoUnit.SECONDS);
+        writeSeconds(start, 0, 60);
+        store.flush();
+        Path openFile = openChunkFiles().getFirst();
+        try (FileChannel channel = FileChannel.open(openFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 4);
+        }
+
+        store = newLongPartitionStore();
+        List<Map<String, Object>> records = store.readSensorReadings("dev-1", "-1h", null);
+        assertTrue(records.size() > 0 && records.size() < 60, "recovered " + records.size());
+        assertEquals(start, records.getFirst().get("_time"));
+        assertEquals(20.0, records.getFirst().get("temp"));
+        assertTrue(openChunkFiles().isEmpty());
+    }
+
+    @Test
+    void streamSensorReadings_ShouldAverageWindows_WhenWindowGiven() {
+        writeMinutes(2);
+
+        List<Map<String, Object>> windows = new ArrayList<>();
+        store.streamSensorReadings("dev-1", "-1h", null, Duration.ofSeconds(10), windows::add);
+
+        assertEquals(12, windows.size());
+        assertEquals(24.5, windows.getFirst().get("temp"));
+    }
+
+    @Test
+    void streamSensorReadings_ShouldGroupDevicesAndFilterFields_WhenQueryingSeveralDevices() {
+        writeMinutes(1);
+        for (int i = 0; i < 30; i++) {
+            store.writeSensorReading("dev-2", base.plusSeconds(i), Map.of("temp", 5.0, "pressure", 1000.0));
+        }
+
+        List<Map<String, Object>> records = new ArrayList<>();
+        store.streamSensorReadings(List.of("dev-2", "dev-1", "dev-3"), List.of("temp"), "-1h", null, null, records::add);
+
+        assertEquals(30 + 60, records.size());
+        assertTrue(records.subList(0, 30).stream().allMatch(values -> "dev-2".equals(values.get("deviceId"))));
+        assertTrue(records.subList(30, 90).stream().allMatch(values -> "dev-1".equals(values.get("deviceId"))));
+        assertTrue(records.stream().noneMatch(values -> values.containsKey("pressure") || values.containsKey("humidity")));
+        assertEquals(5.0, records.getFirst().get("temp"));
+    }
+
+    @Test
+    void aggregateSensorReadings_ShouldMatchRawData() {
+        writeMinutes(20);
+        store.flush();
+
+        assertEquals(Optional.of(1200.0), store.aggregateSensorReadings("dev-1", "temp", "1h", AggregateFunction.COUNT));
+        assertEquals(Optional.of(29.0), store.aggregateSensorReadings("dev-1", "temp", "1h", AggregateFunction.MAX));
+        assertEquals(Optional.of(24.5), store.aggregateSensorReadings("dev-1", "temp", "1h", AggregateFunction.MEAN));
+        assertEquals(Optional.empty(), store.aggregateSensorReadings("dev-1", "pressure", "1h", AggregateFunction.MEAN));
+    }
+
+    @Test
+    void readLogHistory_ShouldReturnEntriesOldestFirst() {
+        Instant now = Instant.now();
+        store.writeLogEntry(now.minusSeconds(7200), LogLevel.INFO, "test", "too old");
+        store.writeLogEntry(now.minusSeconds(20), LogLevel.WARN, "test", "first");
+        store.writeLogEntry(now.minusSeconds(10), LogLevel.ERROR, "test", "second");
+
+        List<Map<String, Object>> entries = store.readLogHistory("1h");
+
+        assertEquals(List.of("first", "second"), entries.stream().map(entry -> entry.get("message")).toList());
+        assertEquals("ERROR", entries.getLast().get("level"));
+    }
+
+    @Test
+    void streamLogEntries_ShouldReturnFilteredPages_FromEitherEnd() {
+        Instant start = Instant.now().minus(Duration.ofMinutes(40)).truncatedTo(ChronoUnit.SECONDS);
+        for (int i = 0; i < 30; i++) {
+            LogLevel level = i % 3 == 0 ? LogLevel.WARN : LogLevel.INFO;
+            String loggerName = i % 2 == 0 ? "com.example.rules.RuleEngine" : "com.example.mqtt.Client";
+            store.writeLogEntry(start.plus(Duration.ofMinutes(i)), level, loggerName, "entry " + i);
+        }
+        Instant end = start.plus(Duration.ofMinutes(30));
+
+        List<Map<String, Object>> newest = new ArrayList<>();
+        store.streamLogEntries(new LogQuery(start, end, true, 3, Set.of(LogLevel.WARN), "com.example.rules"), newest::add);
+        assertEquals(List.of("entry 12", "entry 18", "entry 24"), newest.stream().map(entry -> entry.get("message")).toList());
+
+        List<Map<String, Object>> older = new ArrayList<>();
+        store.streamLogEntries(new LogQuery(start, (Instant) newest.getFirst().get("_time"), true, 3,
+                Set.of(LogLevel.WARN), "com.example.rules"), older::add);
+        assertEquals(List.of("entry 0", "entry 6"), older.stream().map(entry -> entry.get("message")).toList());
+
+        List<Map<String, Object>> forward = new ArrayList<>();
+        store.streamLogEntries(new LogQuery(start.plusMillis(1), end, false, 2, Set.of(), null), forward::add);
+        assertEquals(List.of("entry 1", "entry 2"), forward.stream().map(entry -> entry.get("message")).toList());
+    }
+}
@@ -0,0 +1,63 @@
+package com.michalbykowy.iotsim.service.store.embedded;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GorillaChunkTest {
+
+    @Test
+    void decoder_ShouldReturnExactlyWhatWasEncoded() {
+        Random random = new Random(42);
+        long[] times = new long[5000];
+        double[] values = new double[times.length];
+        long time = 1_700_000_000_000L;
+        double value = 21.5;
+        for (int i = 0; i < times.length; i++) {
+            // mostly regular intervals with jitter, occasional gaps and out-of-order points
+            time += switch (i % 500) {
+                case 0 -> 3_600_000L;
+                case 250 -> -40L;
+                default -> 1000 + random.nextInt(21) - 10;
+            };
+            value = i % 100 == 0 ? random.nextGaussian() * 1e6 : value + (random.nextBoolean() ? 0 : 0.25);
+            times[i] = time;
+            values[i] = value;
+        }
+        values[10] = Double.MAX_VALUE;
+        values[11] = -0.0;
+        values[12] = Double.MIN_VALUE;
+
+        GorillaChunk.Encoder encoder = new GorillaChunk.Encoder();
+        for (int i = 0; i < times.length; i++) {
+            encoder.append(times[i], values[i]);
+        }
+
+        GorillaChunk.Decoder decoder = new GorillaChunk.Decoder(ByteBuffer.wrap(encoder.toByteArray()));
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(decoder.next());
+            assertEquals(times[i], decoder.time(), "time at " + i);
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoder.value()), "value at " + i);
+        }
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    void encoder_ShouldCompressRegularReadings() {
+        GorillaChunk.Encoder encoder = new GorillaChunk.Encoder();
+        for (int i = 0; i < 3600; i++) {
+            encoder.append(1_700_000_000_000L + i * 1000L, 20.0 + (i % 10) * 0.5);
+        }
+
+        // 16 bytes per raw point
+        assertTrue(encoder.serializedSize() < 3600 * 16 / 5, "size " + encoder.serializedSize());
+
+        GorillaChunk.Header header = GorillaChunk.Header.read(ByteBuffer.wrap(encoder.toByteArray()));
+        assertEquals(3600, header.count());
+        assertEquals(20.0, header.min());
+        assertEquals(24.5, header.max());
+    }
+}
@@ -10,13 +10,14 @@ import { useAppStore } from './stores/appStore';
 import { darkTheme, lightTheme } from './theme';
 import { GlobalSnackbar } from './components/GlobalSnackbar';
 import { LogsView } from './views/LogsView';
-import { ApiEndpoint, type Device } from './types';
+import { ApiEndpoint, type Device, type DeviceChanges, type DeviceStateMessage } from './types';
+import { DeviceStateTracker } from './utils/deviceStream';
 
 const STORE_FLUSH_INTERVAL_MS = 100;
 
 function App() {
     const subscriptionManager = useWebSocketSubscription();
-    const { updateDevicesBatch, appendChartData } = useAppStore();
+    const { updateDevicesBatch, replaceDevices, removeDevice, appendChartData } = useAppStore();
     const [isSystemReady, setIsSystemReady] = useState(false);
 
     // buffer MQTT
@@ -32,24 +33,71 @@ function App() {
     }
 
     // incoming data handler
+    const deviceStates = useRef(new DeviceStateTracker());
+    const resyncInFlight = useRef(false);
+
     useEffect(() => {
-        const subscription = subscriptionManager?.subscribe('/topic/devices', (message) => {
+        if (!subscriptionManager) {
+            return;
+        }
+        const queueUpdates = (devices: Device[]) => {
+            for (const device of devices) {
+                pendingDeviceUpdates.current.set(device.id, device);
+            }
+        };
+
+        // only the changes missed since the last sequence; the server falls back to a snapshot
+        const resync = async () => {
+            if (resyncInFlight.current) {
+                return;
+            }
+            resyncInFlight.current = true;
+            try {
+                const res = await fetch(`${ApiEndpoint.DEVICE_CHANGES}?${deviceStates.current.changesQuery()}`);
+                if (res.ok) {
+                    const { updated, removed, reset } = deviceStates.current.applyChanges(await res.json() as DeviceChanges);
+                    if (reset) {
+                        pendingDeviceUpdates.current.clear();
+                        replaceDevices(updated);
+                    } else {
+                        for (const deviceId of removed) {
+                            pendingDeviceUpdates.current.delete(deviceId);
+                            removeDevice(deviceId);
+                        }
+                        queueUpdates(updated);
+                    }
+                }
+            } catch {
+                // retried on the next gap or reconnect
+            } finally {
+                resyncInFlight.current = false;
+            }
+        };
+
+        const subscription = subscriptionManager.subscribe('/topic/devices', (message) => {
             if (!message.body) {
                 return;
             }
             try {
-                const updatedDevice: Device = JSON.parse(message.body);
-                // bypass store for performance
-                appendChartData(updatedDevice);
-                pendingDeviceUpdates.current.set(updatedDevice.id, updatedDevice);
+                // the server coalesces updates, one frame carries versioned deltas of every changed device
+                const { updated, gap } = deviceStates.current.apply(JSON.parse(message.body) as DeviceStateMessage[]);
+                for (const updatedDevice of updated) {
+                    // bypass store for performance
+                    appendChartData(updatedDevice);
+                }
+                queueUpdates(updated);
+                if (gap) {
+                    void resync();
+                }
             } catch {
                 // ignore parsing errors
             }
         });
+        void resync();
         return () => {
             subscription?.unsubscribe();
         };
-    }, [subscriptionManager, appendChartData]);
+    }, [subscriptionManager, appendChartData, replaceDevices, removeDevice]);
 
     // batch flusher
     useEffect(() => {
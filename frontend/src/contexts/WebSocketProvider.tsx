@@ -27,6 +27,7 @@ interface WebSocketContextType {
     subscribe: (
         destination: string,
         callback: (message: IMessage) => void,
+        headers?: Record<string, string>,
     ) => StompSubscription | null;
     isConnected: boolean;
 }
@@ -70,6 +71,7 @@ export const WebSocketProvider: React.FC<{ children: React.ReactNode }> = ({ chi
         (
             destination: string,
             callback: (message: IMessage) => void,
+            headers: Record<string, string> = {},
         ): StompSubscription | null => {
             const client = clientRef.current;
             if (!client) {
@@ -77,7 +79,7 @@ export const WebSocketProvider: React.FC<{ children: React.ReactNode }> = ({ chi
             }
             let subscription: LibStompSubscription | null = null;
             const subscribeAction = () => {
-                subscription = client.subscribe(destination, callback);
+                subscription = client.subscribe(destination, callback, headers);
             };
             if (client.connected) {
                 subscribeAction();
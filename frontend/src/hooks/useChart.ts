@@ -4,6 +4,7 @@ import type { Device, InfluxSensorRecord } from '../types';
 import { API_URL } from '../api/apiClient';
 
 const OPTIMIZED_POINT_COUNT = 1000;
+const MAX_SERVER_POINTS = 5000;
 
 // Helper to convert range string (e.g., "15m", "1h") to milliseconds
 const getRangeDurationMs = (range: string): number => {
@@ -53,7 +54,7 @@ export function useChart(deviceId: string | null) {
 
             try {
                 const response = await fetch(
-                    `${API_URL}/api/devices/${deviceId}/history?start=${range}`,
+                    `${API_URL}/api/devices/${deviceId}/history?start=${range}&maxPoints=${MAX_SERVER_POINTS}`,
                 );
                 if (!response.ok) {
                     throw new Error('Network response was not ok');
@@ -1,6 +1,6 @@
 import { useEffect, useRef, useState } from 'react';
 import type { IMessage } from '@stomp/stompjs';
-import type { LogMessage } from '../types';
+import type { LogLevel, LogMessage } from '../types';
 
 let logCounter = 0;
 const MAX_LOGS = 1000;
@@ -13,39 +13,67 @@ interface SubscriptionManager {
     subscribe: (
         destination: string,
         callback: (message: IMessage) => void,
+        headers?: Record<string, string>,
     ) => Subscription | null;
 }
 
-export function useLogStream(subscriptionManager: SubscriptionManager | null) {
+/**
+ * Filters applied by the server before log lines are sent, so only matching lines use bandwidth.
+ */
+export interface LogStreamFilter {
+    minLevel?: LogLevel;
+    loggerPrefix?: string;
+    deviceId?: string;
+}
+
+export function useLogStream(subscriptionManager: SubscriptionManager | null, filter: LogStreamFilter = {}) {
     const [logs, setLogs] = useState<LogMessage[]>([]);
     const bufferRef = useRef<LogMessage[]>([]);
 
+    const { minLevel, loggerPrefix, deviceId } = filter;
+
     useEffect(() => {
         if (subscriptionManager) {
+            const headers: Record<string, string> = {};
+            if (minLevel) {
+                headers.minLevel = minLevel;
+            }
+            if (loggerPrefix) {
+                headers.loggerPrefix = loggerPrefix;
+            }
+            if (deviceId) {
+                headers.deviceId = deviceId;
+            }
+
             const subscription = subscriptionManager.subscribe('/topic/logs', (message: IMessage) => {
                 try {
-                    const rawLog = JSON.parse(message.body);
-                    const currentId = logCounter;
-                    logCounter += 1;
-
-                    const newLog: LogMessage = {
-                        id: currentId,
-                        timestamp: rawLog.timestamp,
-                        level: rawLog.level,
-                        loggerName: rawLog.loggerName,
-                        message: rawLog.message,
-                    };
-                    bufferRef.current.push(newLog);
+                    // the server batches log lines, one frame carries an array of them
+                    const parsed = JSON.parse(message.body);
+                    const rawLogs = Array.isArray(parsed) ? parsed : [parsed];
+
+                    for (const rawLog of rawLogs) {
+                        const currentId = logCounter;
+                        logCounter += 1;
+
+                        const newLog: LogMessage = {
+                            id: currentId,
+                            timestamp: rawLog.timestamp,
+                            level: rawLog.level,
+                            loggerName: rawLog.loggerName,
+                            message: rawLog.message,
+                        };
+                        bufferRef.current.push(newLog);
+                    }
                 } catch {
                     // silent catch is acceptable for malformed log messages
                 }
-            });
+            }, headers);
 
             return () => {
                 subscription?.unsubscribe();
             };
         }
-    }, [subscriptionManager]);
+    }, [subscriptionManager, minLevel, loggerPrefix, deviceId]);
 
     useEffect(() => {
         let animationFrameId: number;
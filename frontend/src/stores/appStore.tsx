@@ -1,5 +1,5 @@
 import { create } from 'zustand';
-import { ApiEndpoint, type Device } from '../types';
+import { ApiEndpoint, type Device, type DevicePage } from '../types';
 import { apiClient } from '../api/apiClient';
 
 export interface ChartDataPoint {
@@ -21,6 +21,7 @@ export interface AppState {
     fetchDevices: () => Promise<void>;
     addOrUpdateDevice: (device: Device) => void;
     updateDevicesBatch: (updates: Device[]) => void;
+    replaceDevices: (devices: Device[]) => void;
     removeDevice: (deviceId: string) => void;
 
     // Chart
@@ -45,18 +46,27 @@ export interface AppState {
     hideSnackbar: () => void;
 }
 
+const DEVICE_PAGE_SIZE = 1000;
+
 export const useAppStore = create<AppState>((set, get) => ({
     //  Devices
     devices: [],
 
     fetchDevices: async () => {
         try {
-            const data = await apiClient<Device[]>(ApiEndpoint.DEVICES, { method: 'GET' });
-            if (Array.isArray(data)) {
-                set({ devices: data });
-            } else {
-                set({ devices: [] });
-            }
+            const devices: Device[] = [];
+            let cursor: string | null = null;
+            do {
+                const query: string = cursor ? `&cursor=${encodeURIComponent(cursor)}` : '';
+                const page: DevicePage = await apiClient<DevicePage>(
+                    `${ApiEndpoint.DEVICES}?limit=${DEVICE_PAGE_SIZE}${query}`, { method: 'GET' });
+                if (!Array.isArray(page.devices)) {
+                    break;
+                }
+                devices.push(...page.devices);
+                cursor = page.nextCursor;
+            } while (cursor);
+            set({ devices });
         } catch {
             set({ devices: [] });
         }
@@ -86,6 +96,8 @@ export const useAppStore = create<AppState>((set, get) => ({
 
             if (!current ||
                 current.currentState !== device.currentState ||
+                current.name !== device.name ||
+                current.simulationConfig !== device.simulationConfig ||
                 current.simulationActive !== device.simulationActive ||
                 current.online !== device.online
             ) {
@@ -101,6 +113,8 @@ export const useAppStore = create<AppState>((set, get) => ({
         return { devices: Array.from(deviceMap.values()) };
     }),
 
+    replaceDevices: (devices) => set({ devices }),
+
     removeDevice: (deviceId) => set((state) => ({
         devices: state.devices.filter((d) => d.id !== deviceId),
     })),
@@ -53,6 +53,35 @@ export interface Device {
     online: boolean;
 }
 
+/**
+ * One entry of a /topic/devices frame: the full device or a JSON merge patch against the previous version.
+ */
+export interface DeviceStateMessage {
+    id: string;
+    version: number;
+    sequence: number;
+    snapshot?: Device;
+    patch?: Record<string, unknown>;
+}
+
+/**
+ * Response of /api/devices/changes: the changes after the requested sequence, or a full snapshot.
+ */
+export interface DeviceChanges {
+    epoch: string;
+    sequence: number;
+    snapshot: boolean;
+    changes: DeviceStateMessage[];
+    removed: string[];
+}
+
+/**
+ * One page of /api/devices; pass nextCursor back as cursor for the next page, null on the last one.
+ */
+export interface DevicePage {
+    devices: Device[];
+    nextCursor: string | null;
+}
 
 export interface LogMessage {
     id: number;
@@ -137,8 +166,10 @@ export interface InfluxLogRecord {
 }
 export enum ApiEndpoint {
     DEVICES = '/api/devices',
+    DEVICE_CHANGES = '/api/devices/changes',
     RULES = '/api/rules',
     EVENTS = '/api/events',
+    LOGS = '/api/logs',
     LOGS_HISTORY = '/api/logs/history',
     HEALTH = '/api/health',
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+import { describe, it, expect } from 'vitest';
+import { applyMergePatch, DeviceStateTracker } from './deviceStream';
+import { type Device, type DeviceChanges, DeviceRole, DeviceType } from '../types';
+
+const device: Device = {
+    id: 'dev-1',
+    name: 'Sensor',
+    type: DeviceType.VIRTUAL,
+    role: DeviceRole.SENSOR,
+    currentState: { temp: 20, hum: 40 },
+    simulationActive: true,
+    simulationConfig: null,
+    online: true,
+};
+
+describe('deviceStream', () => {
+    it('should merge nested members and remove nulls', () => {
+        const patched = applyMergePatch({ a: { b: 1, c: 2 }, d: 3 }, { a: { b: 5, c: null }, d: null });
+
+        expect(patched).toEqual({ a: { b: 5 } });
+    });
+
+    const snapshotAt = (version: number, sequence: number): DeviceChanges => ({
+        epoch: 'run-1',
+        sequence,
+        snapshot: true,
+        changes: [{ id: 'dev-1', version, sequence, snapshot: device }],
+        removed: [],
+    });
+
+    it('should apply consecutive patches on top of a snapshot', () => {
+        const tracker = new DeviceStateTracker();
+        tracker.applyChanges(snapshotAt(3, 10));
+
+        const { updated, gap } = tracker.apply([
+            { id: 'dev-1', version: 3, sequence: 10, patch: { currentState: { temp: 99 } } },
+            { id: 'dev-1', version: 4, sequence: 11, patch: { currentState: { temp: 21 } } },
+        ]);
+
+        expect(gap).toBe(false);
+        expect(updated).toHaveLength(1);
+        expect(updated[0].currentState).toEqual({ temp: 21, hum: 40 });
+        expect(updated[0].name).toBe('Sensor');
+    });
+
+    it('should report a gap when a version is missing', () => {
+        const tracker = new DeviceStateTracker();
+        tracker.applyChanges(snapshotAt(1, 10));
+
+        const { updated, gap } = tracker.apply([{ id: 'dev-1', version: 3, sequence: 11, patch: { online: false } }]);
+
+        expect(gap).toBe(true);
+        expect(updated).toHaveLength(0);
+    });
+
+    it('should resume from the last sequence received without a hole', () => {
+        const tracker = new DeviceStateTracker();
+        tracker.applyChanges(snapshotAt(1, 10));
+
+        tracker.apply([{ id: 'dev-1', version: 2, sequence: 11, patch: { online: false } }]);
+        const { gap } = tracker.apply([{ id: 'dev-2', version: 1, sequence: 13, snapshot: { ...device, id: 'dev-2' } }]);
+
+        expect(gap).toBe(true);
+        expect(tracker.changesQuery()).toBe('since=11&epoch=run-1');
+    });
+
+    it('should replay changes and drop removed devices', () => {
+        const tracker = new DeviceStateTracker();
+        tracker.applyChanges(snapshotAt(1, 10));
+
+        const { updated, removed, reset } = tracker.applyChanges({
+            epoch: 'run-1',
+            sequence: 12,
+            snapshot: false,
+            changes: [{ id: 'dev-2', version: 1, sequence: 11, snapshot: { ...device, id: 'dev-2' } }],
+            removed: ['dev-1'],
+        });
+
+        expect(reset).toBe(false);
+        expect(removed).toEqual(['dev-1']);
+        expect(updated.map((d) => d.id)).toEqual(['dev-2']);
+        expect(tracker.changesQuery()).toBe('since=12&epoch=run-1');
+    });
+});
@@ -0,0 +1,103 @@
+import type { Device, DeviceChanges, DeviceStateMessage } from '../types';
+
+type JsonObject = Record<string, unknown>;
+
+const isObject = (value: unknown): value is JsonObject =>
+    value !== null && typeof value === 'object' && !Array.isArray(value);
+
+/**
+ * Applies a JSON merge patch (RFC 7386): objects merge member by member, null removes a member.
+ */
+export const applyMergePatch = (target: unknown, patch: unknown): unknown => {
+    if (!isObject(patch)) {
+        return patch;
+    }
+    const result: JsonObject = isObject(target) ? { ...target } : {};
+    for (const [key, value] of Object.entries(patch)) {
+        if (value === null) {
+            delete result[key];
+        } else {
+            result[key] = applyMergePatch(result[key], value);
+        }
+    }
+    return result;
+};
+
+/**
+ * Last known state and version of every device on /topic/devices. Deltas only apply on top of the
+ * version right before them; anything else is reported as a gap so the caller can resync. The last
+ * change sequence received without a hole is where the resync continues from.
+ */
+export class DeviceStateTracker {
+    private readonly devices = new Map<string, { device: Device; version: number }>();
+    private epoch: string | null = null;
+    private sequence = 0;
+
+    /** Query string for /api/devices/changes; without an epoch the server answers with a snapshot. */
+    changesQuery(): string {
+        const params = new URLSearchParams({ since: String(this.sequence) });
+        if (this.epoch) {
+            params.set('epoch', this.epoch);
+        }
+        return params.toString();
+    }
+
+    applyChanges(changes: DeviceChanges): { updated: Device[]; removed: string[]; reset: boolean } {
+        let removed = changes.removed;
+        if (changes.snapshot) {
+            const present = new Set(changes.changes.map((message) => message.id));
+            removed = [...this.devices.keys()].filter((id) => !present.has(id));
+            this.devices.clear();
+        }
+        for (const id of removed) {
+            this.devices.delete(id);
+        }
+        const { updated } = this.applyMessages(changes.changes);
+        if (changes.snapshot || changes.epoch !== this.epoch) {
+            this.sequence = changes.sequence;
+        } else {
+            this.sequence = Math.max(this.sequence, changes.sequence);
+        }
+        this.epoch = changes.epoch;
+        return { updated, removed, reset: changes.snapshot };
+    }
+
+    apply(messages: DeviceStateMessage[]): { updated: Device[]; gap: boolean } {
+        let gap = false;
+        if (this.epoch !== null) {
+            for (const message of messages) {
+                if (message.sequence > this.sequence + 1) {
+                    gap = true;
+                    break;
+                }
+                this.sequence = Math.max(this.sequence, message.sequence);
+            }
+        }
+        const result = this.applyMessages(messages);
+        return { updated: result.updated, gap: gap || result.gap };
+    }
+
+    private applyMessages(messages: DeviceStateMessage[]): { updated: Device[]; gap: boolean } {
+        const updated: Device[] = [];
+        let gap = false;
+        for (const message of messages) {
+            const known = this.devices.get(message.id);
+            if (known && message.version <= known.version) {
+                // already covered by a snapshot
+                continue;
+            }
+            if (message.snapshot) {
+                this.devices.set(message.id, { device: message.snapshot, version: message.version });
+                updated.push(message.snapshot);
+            } else if (known && message.patch && message.version === known.version + 1) {
+                // a removed simulation config comes back as a missing member
+                const device = { simulationConfig: null, ...(applyMergePatch(known.device, message.patch) as Device) };
+                this.devices.set(message.id, { device, version: message.version });
+                updated.push(device);
+            } else {
+                gap = true;
+            }
+        }
+        return { updated, gap };
+    }
+}
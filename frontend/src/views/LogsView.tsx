@@ -21,7 +21,7 @@ import {
 import { LogEntry } from '../components/LogEntry';
 import { Virtuoso, type VirtuosoHandle } from 'react-virtuoso';
 import { useAppStore } from '../stores/appStore';
-import { ApiEndpoint, type InfluxLogRecord, type LogLevel, type LogMessage } from '../types';
+import { ApiEndpoint, type InfluxLogRecord, LogLevel, type LogMessage } from '../types';
 import WifiIcon from '@mui/icons-material/Wifi';
 import WifiOffIcon from '@mui/icons-material/WifiOff';
 import ArrowDownwardIcon from '@mui/icons-material/ArrowDownward';
@@ -35,6 +35,22 @@ const influxToLogMessage = (influxRecord: InfluxLogRecord): Omit<LogMessage, 'id
     message: influxRecord.message,
 });
 
+const LOG_PAGE_SIZE = 200;
+// Virtuoso needs a stable index for the first item so older pages can be prepended in place
+const FIRST_ITEM_INDEX = 1_000_000;
+
+const fetchLogPage = async (before?: string): Promise<InfluxLogRecord[]> => {
+    const params = new URLSearchParams({ limit: String(LOG_PAGE_SIZE) });
+    if (before) {
+        params.set('before', before);
+    }
+    const response = await fetch(`${API_URL}${ApiEndpoint.LOGS}?${params.toString()}`);
+    if (!response.ok) {
+        throw new Error('Failed to fetch log history');
+    }
+    return (await response.json()) as InfluxLogRecord[];
+};
+
 const levelColors: Record<LogLevel, 'primary' | 'warning' | 'error' | 'info' | 'default' | 'secondary' | 'success'> = {
     INFO: 'primary',
     WARN: 'warning',
@@ -43,6 +59,8 @@ const levelColors: Record<LogLevel, 'primary' | 'warning' | 'error' | 'info' | '
     TRACE: 'default',
 };
 
+const LOG_LEVEL_ORDER: LogLevel[] = [LogLevel.TRACE, LogLevel.DEBUG, LogLevel.INFO, LogLevel.WARN, LogLevel.ERROR];
+
 interface FilterChipProps {
     readonly level: LogLevel;
     readonly isActive: boolean;
@@ -77,7 +95,6 @@ export function LogsView() {
     const devices = useAppStore((state) => state.devices);
     const fetchDevices = useAppStore((state) => state.fetchDevices);
     const subscriptionManager = useWebSocketSubscription();
-    const { logs, setLogs } = useLogStream(subscriptionManager);
     const [isLoading, setIsLoading] = useState(true);
     const [filterLevels, setFilterLevels] = useState<Record<LogLevel, boolean>>({
         INFO: true,
@@ -88,8 +105,28 @@ export function LogsView() {
     });
     const [searchText, setSearchText] = useState('');
     const [selectedDeviceId, setSelectedDeviceId] = useState('');
+    // the server only sends lines at or above the lowest enabled level and for the selected device
+    const minLevel = LOG_LEVEL_ORDER.find((level) => filterLevels[level]);
+    const streamFilter = useMemo(
+        () => ({ minLevel, deviceId: selectedDeviceId || undefined }),
+        [minLevel, selectedDeviceId],
+    );
+    const { logs, setLogs } = useLogStream(subscriptionManager, streamFilter);
     const [follow, setFollow] = useState(true);
     const virtuosoRef = useRef<VirtuosoHandle>(null);
+    // historical entries get negative ids, counting down as older pages are loaded
+    const historyIdRef = useRef(0);
+    const [hasOlderLogs, setHasOlderLogs] = useState(true);
+    const [isLoadingOlder, setIsLoadingOlder] = useState(false);
+
+    const toHistoricalLogs = useCallback((records: InfluxLogRecord[]): LogMessage[] => {
+        const firstId = historyIdRef.current - records.length;
+        historyIdRef.current = firstId;
+        return records.map((item, index) => ({
+            ...influxToLogMessage(item),
+            id: firstId + index,
+        }));
+    }, []);
 
     useEffect(() => {
         const fetchInitialData = async () => {
@@ -98,15 +135,10 @@ export function LogsView() {
                 if (devices.length === 0) {
                     await fetchDevices();
                 }
-                const response = await fetch(`${API_URL}${ApiEndpoint.LOGS_HISTORY}?range=1h`);
-                if (!response.ok) {
-                    throw new Error('Failed to fetch log history');
-                }
-                const data = (await response.json()) as InfluxLogRecord[];
-                const historicalLogs = data.map((item, index) => ({
-                    ...influxToLogMessage(item),
-                    id: index - data.length,
-                }));
+                historyIdRef.current = 0;
+                const page = await fetchLogPage();
+                const historicalLogs = toHistoricalLogs(page);
+                setHasOlderLogs(page.length === LOG_PAGE_SIZE);
                 setLogs(historicalLogs);
                 setTimeout(() => {
                     virtuosoRef.current?.scrollToIndex({
@@ -121,7 +153,28 @@ export function LogsView() {
             }
         };
         void fetchInitialData();
-    }, [fetchDevices, setLogs, devices.length]);
+    }, [fetchDevices, setLogs, toHistoricalLogs, devices.length]);
+
+    const handleStartReached = useCallback(() => {
+        const oldest = logs[0];
+        if (!hasOlderLogs || isLoadingOlder || !oldest) {
+            return;
+        }
+        const loadOlderLogs = async () => {
+            setIsLoadingOlder(true);
+            try {
+                const page = await fetchLogPage(oldest.timestamp);
+                setHasOlderLogs(page.length === LOG_PAGE_SIZE);
+                const olderLogs = toHistoricalLogs(page);
+                setLogs((prevLogs) => [...olderLogs, ...prevLogs]);
+            } catch {
+                // keep what is loaded, scrolling up again retries
+            } finally {
+                setIsLoadingOlder(false);
+            }
+        };
+        void loadOlderLogs();
+    }, [logs, hasOlderLogs, isLoadingOlder, setLogs, toHistoricalLogs]);
 
     const filteredLogs = useMemo(() => {
         return logs.filter((log) => {
@@ -135,6 +188,8 @@ export function LogsView() {
         });
     }, [logs, filterLevels, searchText, selectedDeviceId]);
 
+    const firstItemIndex = FIRST_ITEM_INDEX - filteredLogs.filter((log) => log.id < 0).length;
+
     const handleScrollToBottom = useCallback(() => {
         setFollow(true);
         if (filteredLogs.length > 0) {
@@ -189,6 +244,8 @@ export function LogsView() {
                 ref={virtuosoRef}
                 style={{ height: '100%' }}
                 data={filteredLogs}
+                firstItemIndex={firstItemIndex}
+                startReached={handleStartReached}
                 followOutput={follow ? 'auto' : false}
                 atBottomStateChange={handleAtBottomStateChange}
                 atBottomThreshold={50}